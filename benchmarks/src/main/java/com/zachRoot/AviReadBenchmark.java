@@ -0,0 +1,97 @@
+package com.zachRoot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.plugin.AVI_Reader;
+import ij.plugin.filter.AVI_Writer;
+
+// Reading one frame of an uncompressed 8 bit avi: through AVI_Reader, and mapped with and without a new processor.
+// Reads a synthetic recording of roiSize frames written at setup, or a real one given with -p avi=<file>
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AviReadBenchmark {
+
+	@Param({""})
+	String avi;
+
+	@Param({"128", "512"})
+	int roiSize;
+
+	// Frames of the synthetic recording, enough to leave the cpu caches
+	private static final int FRAMES = 200;
+
+	File file;
+	File written;
+	ImageStack reader;
+	MappedAviStack mapped;
+	byte[] pixels;
+	int slice = 0;
+
+	@Setup
+	public void setup() throws IOException {
+		file = avi.isEmpty() ? writeSynthetic() : new File(avi);
+		mapped = MappedAviStack.open(file);
+		if(mapped == null) throw new IllegalStateException(file + " isn't an uncompressed 8 bit avi");
+		reader = new AVI_Reader().makeStack(file.getAbsolutePath(), 1, 0, true, false, false);
+		pixels = new byte[mapped.getWidth()*mapped.getHeight()];
+	}
+
+	private File writeSynthetic() throws IOException {
+		ImageStack stack = new ImageStack(roiSize, roiSize);
+		for(int i = 0; i < FRAMES; i++) {
+			stack.addSlice(BenchmarkFrames.bead(roiSize, roiSize/2.0 + (i % 7)*0.1, roiSize/2.0 - (i % 5)*0.1, i*10, 8));
+		}
+		written = Files.createTempFile("benchmark", ".avi").toFile();
+		new AVI_Writer().writeImage(new ImagePlus("benchmark", stack), written.getAbsolutePath(), AVI_Writer.NO_COMPRESSION, 0);
+		return written;
+	}
+
+	@TearDown
+	public void tearDown() {
+		if(written != null) written.delete();
+	}
+
+	// Frames are read in order, the way tracking reads them
+	private int next() {
+		slice = slice % mapped.size() + 1;
+		return slice;
+	}
+
+	@Benchmark
+	public Object aviReader() {
+		return reader.getProcessor(next()).getPixels();
+	}
+
+	@Benchmark
+	public Object mappedProcessor() {
+		return mapped.getProcessor(next()).getPixels();
+	}
+
+	@Benchmark
+	public byte[] mappedReadPixels() {
+		mapped.readPixels(next(), pixels);
+		return pixels;
+	}
+}
@@ -0,0 +1,63 @@
+package com.zachRoot;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+// Bead frames and zluts for the benchmarks. The ring spacing changes with z so frames match one zlut plane
+final class BenchmarkFrames {
+
+	private BenchmarkFrames() {}
+
+	// Intensity r pixels from the center of a bead at height z. The rings fade the same way whatever the roi size
+	static double intensity(double r, double z) {
+		return 100 + 80*Math.cos(r*(0.5 + z*0.0005))*Math.exp(-r/16.0);
+	}
+
+	// Bead at (x, y) and height z with pixels of the given bit depth
+	static ImageProcessor bead(int width, double x, double y, double z, int bitDepth) {
+		float[] pixels = new float[width*width];
+		for(int j = 0; j < width; j++) {
+			for(int i = 0; i < width; i++) {
+				pixels[i + j*width] = (float)intensity(Math.sqrt((i-x)*(i-x) + (j-y)*(j-y)), z);
+			}
+		}
+
+		switch(bitDepth) {
+		case 8: {
+			byte[] bytes = new byte[pixels.length];
+			for(int i = 0; i < pixels.length; i++) bytes[i] = (byte)Math.round(pixels[i]);
+			return new ByteProcessor(width, width, bytes);
+		}
+		case 16: {
+			// Scaled up to use more of the 16 bit range
+			short[] shorts = new short[pixels.length];
+			for(int i = 0; i < pixels.length; i++) shorts[i] = (short)Math.round(pixels[i]*100);
+			return new ShortProcessor(width, width, shorts, null);
+		}
+		case 32:
+			return new FloatProcessor(width, width, pixels);
+		default:
+			throw new IllegalArgumentException("Unsupported bit depth " + bitDepth);
+		}
+	}
+
+	// Zlut of nPlanes heights 1 apart, written straight from the ring equation rather than profiling frames
+	static Zlut zlut(int width, int nPlanes, int bitDepth) {
+		int radius = ZPositioning.radiusFor(width);
+		double scale = bitDepth == 16 ? 100 : 1;
+
+		float[] data = new float[nPlanes*radius];
+		double[] heights = new double[nPlanes];
+		for(int p = 0; p < nPlanes; p++) {
+			// Same z range whatever the depth so deeper zluts are just finer
+			double z = p*1000.0/nPlanes;
+			for(int j = 0; j < radius; j++) {
+				data[p*radius + j] = (float)(intensity(Math.max(1, j), z)*scale);
+			}
+			heights[p] = z;
+		}
+		return new Zlut(data, heights, radius, width);
+	}
+}
@@ -0,0 +1,85 @@
+package com.zachRoot;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.measure.CurveFitter;
+
+// Closed form quadratic fits against the CurveFitter fits they replaced, on noisy 5 point windows:
+// a downward peak like the xy correlation and an upward minimum like the zlut distances
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PeakFitBenchmark {
+
+	private static final int WINDOWS = 1000;
+	private static final double[] INDEXES = {-2.0, -1.0, 0.0, 1.0, 2.0};
+
+	float[][] peaks;
+	float[][] minimums;
+	double[][] peaksAsDoubles;
+	double[][] minimumsAsDoubles;
+	int window = 0;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(3);
+		peaks = new float[WINDOWS][5];
+		minimums = new float[WINDOWS][5];
+		peaksAsDoubles = new double[WINDOWS][5];
+		minimumsAsDoubles = new double[WINDOWS][5];
+		for(int i = 0; i < WINDOWS; i++) {
+			double vertex = random.nextDouble() - 0.5;
+			for(int j = 0; j < 5; j++) {
+				double x = j - 2;
+				peaks[i][j] = (float)(100 - 10*(x - vertex)*(x - vertex) + random.nextGaussian());
+				minimums[i][j] = (float)(5 + 3*(x - vertex)*(x - vertex) + random.nextGaussian()*0.3);
+				peaksAsDoubles[i][j] = peaks[i][j];
+				minimumsAsDoubles[i][j] = minimums[i][j];
+			}
+		}
+	}
+
+	private int next() {
+		window = (window + 1) % WINDOWS;
+		return window;
+	}
+
+	@Benchmark
+	public double curveFitterPoly2() {
+		CurveFitter fit = new CurveFitter(INDEXES, peaksAsDoubles[next()]);
+		fit.doFit(CurveFitter.POLY2);
+		return -fit.getParams()[1]/(2*fit.getParams()[2]);
+	}
+
+	@Benchmark
+	public double curveFitterCustom() {
+		CurveFitter fit = new CurveFitter(INDEXES, minimumsAsDoubles[next()]);
+		fit.doCustomFit("y = a*a*(x - b)*(x - b) + c", new double[] {0, 0, 0}, false);
+		return fit.getParams()[1];
+	}
+
+	@Benchmark
+	public double vertexOffset() {
+		return PeakFit.vertexOffset(peaks[next()], 2, 5);
+	}
+
+	@Benchmark
+	public double minimumOffset() {
+		return PeakFit.minimumOffset(minimums[next()], 2, 5);
+	}
+}
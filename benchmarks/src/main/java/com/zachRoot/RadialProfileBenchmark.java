@@ -0,0 +1,69 @@
+package com.zachRoot;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.process.ImageProcessor;
+
+// Radial profile of one frame from the cached bin maps against computing every pixel's distance to the center.
+// The bead jitters a few pixels between frames so the cache is looked up at many sub-pixel centers
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RadialProfileBenchmark {
+
+	@Param({"64", "128", "256"})
+	int roiSize;
+
+	private static final int FRAMES = 200;
+
+	ImageProcessor[] frames;
+	double[][] centers;
+	int radius;
+	int frame = 0;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		radius = ZPositioning.radiusFor(roiSize);
+		frames = new ImageProcessor[FRAMES];
+		centers = new double[FRAMES][2];
+		for(int i = 0; i < FRAMES; i++) {
+			centers[i][0] = roiSize/2.0 + (random.nextDouble() - 0.5)*4;
+			centers[i][1] = roiSize/2.0 + (random.nextDouble() - 0.5)*4;
+			frames[i] = BenchmarkFrames.bead(roiSize, centers[i][0], centers[i][1], 500, 32);
+		}
+	}
+
+	private int next() {
+		frame = (frame + 1) % FRAMES;
+		return frame;
+	}
+
+	@Benchmark
+	public float[] exact() {
+		int i = next();
+		return ZPositioning.createRadialProfileExact(centers[i], frames[i], radius);
+	}
+
+	@Benchmark
+	public float[] cached() {
+		int i = next();
+		return RadialBinCache.createRadialProfile(centers[i], frames[i], radius);
+	}
+}
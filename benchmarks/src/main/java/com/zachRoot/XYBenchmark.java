@@ -0,0 +1,75 @@
+package com.zachRoot;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.process.ImageProcessor;
+
+// XY localization of one frame: the center of mass estimate, then the row/column correlation around it
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XYBenchmark {
+
+	@Param({"64", "128", "256", "512"})
+	int roiSize;
+
+	@Param({"8", "16", "32"})
+	int bitDepth;
+
+	ImageProcessor frame;
+	float[] floatPixels;
+	int[] centerOfMass;
+	BeadLocalizer quadrantInterpolation = new QuadrantInterpolationLocalizer();
+
+	@Setup
+	public void setup() {
+		frame = BenchmarkFrames.bead(roiSize, roiSize/2.0 + 0.3, roiSize/2.0 - 0.4, 500, bitDepth);
+		floatPixels = (float[])frame.convertToFloatProcessor().getPixels();
+		centerOfMass = XYPositioning.getCenterOfMass(frame);
+	}
+
+	@Benchmark
+	public int[] fitBeadByCenterOfMass() {
+		return XYPositioning.fitBeadByCenterOfMass(roiSize, floatPixels);
+	}
+
+	@Benchmark
+	public int[] centerOfMass() {
+		return XYPositioning.getCenterOfMass(frame);
+	}
+
+	@Benchmark
+	public double[] rowColConvolve() {
+		return XYPositioning.xyRowColConvolve(frame, centerOfMass[0], centerOfMass[1]);
+	}
+
+	@Benchmark
+	public double[] beadCenter() {
+		return XYPositioning.getBeadCenter(frame);
+	}
+
+	@Benchmark
+	public double[] centroid() {
+		return CenterOfMassLocalizer.centroid(frame, 0, 0, roiSize);
+	}
+
+	@Benchmark
+	public double[] quadrantInterpolation() {
+		return quadrantInterpolation.locate(frame, 0, 0, roiSize, null);
+	}
+}
@@ -0,0 +1,77 @@
+package com.zachRoot;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+// Z of one frame: its radial profile, matching it against the zlut, and the whole of processIP
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZBenchmark {
+
+	@Param({"64", "128", "256", "512"})
+	int roiSize;
+
+	@Param({"8", "16", "32"})
+	int bitDepth;
+
+	@Param({"100", "1000", "5000"})
+	int zlutPlanes;
+
+	// Principal components matched on, 0 for every bin
+	@Param({"0", "8", "16"})
+	int pcaComponents;
+
+	ImageProcessor frame;
+	double[] center;
+	float[] profile;
+	Zlut zlut;
+	TrackingSession session;
+
+	@Setup
+	public void setup() {
+		frame = BenchmarkFrames.bead(roiSize, roiSize/2.0 + 0.3, roiSize/2.0 - 0.4, 500, bitDepth);
+		zlut = BenchmarkFrames.zlut(roiSize, zlutPlanes, bitDepth);
+		if(pcaComponents > 0) zlut.getBasis(pcaComponents);
+		center = XYPositioning.getBeadCenter(frame);
+		profile = ZPositioning.createRadialProfile(center, frame, zlut.getRadius());
+
+		ImageStack stack = new ImageStack(roiSize, roiSize);
+		stack.addSlice(frame);
+		session = new TrackingSession(new ImagePlus("benchmark", stack), zlut).setPcaComponents(pcaComponents);
+	}
+
+	@Benchmark
+	public float[] radialProfile() {
+		return ZPositioning.createRadialProfile(center, frame, zlut.getRadius());
+	}
+
+	@Benchmark
+	public double compareWithZLut() {
+		return ZPositioning.compareWithZLut(profile, zlut, ProfileMatcher.Metric.L1, pcaComponents, null);
+	}
+
+	@Benchmark
+	public double processIP() {
+		session.processIP(frame, 1);
+		return session.getZCords()[0];
+	}
+}
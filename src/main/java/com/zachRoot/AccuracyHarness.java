@@ -0,0 +1,267 @@
+package com.zachRoot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+// Tracks a synthetic recording against a zlut from a synthetic sweep and reports speed next to accuracy,
+// so a change to the engine can be checked for both without real calibration data.
+//
+//   java com.zachRoot.AccuracyHarness [--width 128] [--depth 8|16|32] [--noise 0.01] [--frames 500]
+//       [--step 50] [--range 2000] [--per-height 10] [--threads n] [--seed 1] [--window 0] [--pca 8,12,16]
+//       [--localizer xcor,com,qi] [--out dir]
+//
+// --localizer tracks the recording again with each xy localizer and reports its cost and precision.
+// --pca tracks the recording again matching on each number of principal components, and reports
+// how well they hold the zlut and how z accuracy and matching time compare with matching every bin.
+//
+// With --out the sweep and recording are written as .avi files and tracked from disk like real data,
+// otherwise everything stays in memory.
+public class AccuracyHarness {
+
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+
+		int width = 128;
+		int bitDepth = 8;
+		double noise = 0.01;
+		int nFrames = 500;
+		double step = 50;
+		double range = 2000;
+		int framesPerHeight = 10;
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		long seed = 1;
+		File out = null;
+		int searchWindow = 0;
+		int[] pcaComponents = new int[0];
+		String[] localizers = new String[0];
+
+		for(int i = 0; i < args.length; i += 2) {
+			if(i + 1 >= args.length) throw new IllegalArgumentException(args[i] + " needs a value");
+			String value = args[i+1];
+			switch(args[i]) {
+			case "--width":      width = Integer.parseInt(value); break;
+			case "--depth":      bitDepth = Integer.parseInt(value); break;
+			case "--noise":      noise = Double.parseDouble(value); break;
+			case "--frames":     nFrames = Integer.parseInt(value); break;
+			case "--step":       step = Double.parseDouble(value); break;
+			case "--range":      range = Double.parseDouble(value); break;
+			case "--per-height": framesPerHeight = Integer.parseInt(value); break;
+			case "--threads":    nThreads = Integer.parseInt(value); break;
+			case "--seed":       seed = Long.parseLong(value); break;
+			case "--window":     searchWindow = Integer.parseInt(value); break;
+			case "--out":        out = new File(value); break;
+			case "--localizer":  localizers = value.split(","); break;
+			case "--pca":        pcaComponents = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray(); break;
+			default: throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		SyntheticBeads beads = new SyntheticBeads(width, bitDepth, seed).setNoise(noise);
+
+		double[] heights = new double[(int)Math.round(range/step) + 1];
+		for(int h = 0; h < heights.length; h++) {
+			heights[h] = h*step;
+		}
+
+		long start = System.nanoTime();
+		ImageStack[] sweep = beads.sweep(heights, framesPerHeight);
+		// Recording stays clear of the first and last planes where the fit can't be made
+		SyntheticBeads.Recording recording = beads.recording(nFrames, 3*step, range - 3*step);
+		System.out.printf(Locale.ROOT, "Rendered %d reference and %d tracking frames of %dx%d %d bit in %.1f s%n",
+				heights.length*framesPerHeight, nFrames, width, width, bitDepth, (System.nanoTime() - start)/1e9);
+
+		Zlut zlut;
+		ImageStack frames;
+		ZlutBuilder builder = new ZlutBuilder(width, nThreads);
+
+		if(out != null) {
+			File zlutDirectory = new File(out, "zlut");
+			File recordingDirectory = new File(out, "recording");
+			SyntheticBeads.writeSweep(zlutDirectory, heights, sweep);
+			SyntheticBeads.writeRecording(recordingDirectory, recording, 100, 1_000_000, 10);
+			System.out.println("Wrote " + zlutDirectory + " and " + recordingDirectory);
+
+			zlut = builder.build(zlutDirectory.getAbsolutePath());
+			frames = AviSequenceStack.open(recordingDirectory.getAbsolutePath());
+		} else {
+			zlut = builder.build(heights, sweep);
+			frames = recording.stack;
+		}
+
+		if(zlut == null || frames == null) {
+			throw new IOException("Synthetic data could not be read back");
+		}
+
+		TrackingSession session = new TrackingSession(new ImagePlus("synthetic", frames), zlut).setSearchWindow(searchWindow);
+
+		start = System.nanoTime();
+		session.processStack(frames, nThreads);
+		double seconds = (System.nanoTime() - start)/1e9;
+
+		Errors xy = new Errors();
+		Errors z = zErrors(session, recording);
+		for(int f = 0; f < session.size(); f++) {
+			xy.add(session.getXCords()[f] - recording.x[f], session.getYCords()[f] - recording.y[f]);
+		}
+
+		System.out.printf(Locale.ROOT, "Tracked %d frames on %d threads in %.2f s: %.0f fps%n", session.size(), nThreads, seconds, session.size()/seconds);
+		System.out.printf(Locale.ROOT, "XY error: rms %.4f px, mean (%.4f, %.4f) px, %d frames not localized%n", xy.rms(), xy.meanX(), xy.meanY(), xy.missing);
+		System.out.printf(Locale.ROOT, "Z error:  rms %.3f, mean %.3f, %d frames without z (zlut step %.1f)%n", z.rms(), z.mean(), z.missing, step);
+		System.out.print(session.getMetrics().toCsv());
+
+		if(localizers.length > 0) {
+			compareLocalizers(localizers, heights, sweep, frames, recording, nThreads, searchWindow);
+		}
+
+		if(pcaComponents.length > 0) {
+			comparePca(pcaComponents, session, zlut, frames, recording);
+		}
+	}
+
+	private static Errors zErrors(TrackingSession session, SyntheticBeads.Recording recording) {
+		Errors z = new Errors();
+		for(int f = 0; f < session.size(); f++) {
+			z.add(session.getZCords()[f] - recording.z[f]);
+		}
+		return z;
+	}
+
+	// Cost is the thread time of the localizer's steps per frame, after a run to warm up. Each localizer tracks
+	// against a zlut of its own from the sweep, centered the same way
+	private static void compareLocalizers(String[] names, double[] heights, ImageStack[] sweep, ImageStack frames, SyntheticBeads.Recording recording, int nThreads,
+			int searchWindow) {
+
+		System.out.println();
+		System.out.println("localizer,fps,localizeMicros,xyRms,xyMeanX,xyMeanY,xyMissing,zRms");
+		for(String name: names) {
+			BeadLocalizer localizer = BeadLocalizer.forName(name);
+			Zlut zlut = new ZlutBuilder(frames.getWidth(), nThreads).setLocalizer(localizer).build(heights, sweep);
+			new TrackingSession(new ImagePlus("synthetic", frames), zlut).setLocalizer(localizer).setSearchWindow(searchWindow)
+					.processStack(frames, nThreads);
+
+			TrackingSession session = new TrackingSession(new ImagePlus("synthetic", frames), zlut).setLocalizer(localizer)
+					.setSearchWindow(searchWindow);
+			session.processStack(frames, nThreads);
+			TrackingMetrics metrics = session.getMetrics();
+
+			long localizeNanos = metrics.getTotalNanos(TrackingMetrics.Stage.CENTER_OF_MASS)
+					+ metrics.getTotalNanos(TrackingMetrics.Stage.CORRELATION)
+					+ metrics.getTotalNanos(TrackingMetrics.Stage.QUADRANT_INTERPOLATION);
+
+			Errors xy = new Errors();
+			for(int f = 0; f < session.size(); f++) {
+				xy.add(session.getXCords()[f] - recording.x[f], session.getYCords()[f] - recording.y[f]);
+			}
+			System.out.printf(Locale.ROOT, "%s,%.0f,%.1f,%.4f,%.4f,%.4f,%d,%.3f%n", name, metrics.getFramesPerSecond(),
+					localizeNanos/1e3/session.size(), xy.rms(), xy.meanX(), xy.meanY(), xy.missing, zErrors(session, recording).rms());
+		}
+	}
+
+	// Matches the profiles of the tracked frames again on each number of components, next to matching every bin.
+	// Times are per profile after a pass to warm up, on one thread
+	private static void comparePca(int[] pcaComponents, TrackingSession full, Zlut zlut, ImageStack frames,
+			SyntheticBeads.Recording recording) {
+
+		List<float[]> profiles = new ArrayList<>();
+		List<Integer> profileFrames = new ArrayList<>();
+		for(int f = 0; f < full.size(); f++) {
+			double[] xyCord = {full.getXCords()[f], full.getYCords()[f]};
+			if(Double.isNaN(xyCord[0]) || Double.isNaN(xyCord[1])) continue;
+			profiles.add(ZPositioning.createRadialProfile(xyCord, frames.getProcessor(f+1), zlut.getRadius()));
+			profileFrames.add(f);
+		}
+
+		double[] fullZ = new double[profiles.size()];
+		double fullNanos = timeMatching(profiles, zlut, full.getDistanceMetric(), 0, fullZ);
+		System.out.printf(Locale.ROOT, "%nZLUT of %d profiles of %d bins, %s on every bin: z rms %.3f, match %.1f us%n",
+				zlut.size(), zlut.getRadius(), full.getDistanceMetric(),
+				zErrors(fullZ, profileFrames, recording).rms(), fullNanos/1e3);
+		System.out.println("k,explainedVariance,reconstructionRms,zRms,zMissing,matchMicros,speedup");
+
+		for(int k: pcaComponents) {
+			if(k < 1 || k > zlut.getRadius()) {
+				System.out.println(k + ",,,,,, (needs 1 to " + zlut.getRadius() + ")");
+				continue;
+			}
+			ZlutBasis basis = zlut.getBasis(k);
+
+			double[] z = new double[profiles.size()];
+			double nanos = timeMatching(profiles, zlut, full.getDistanceMetric(), k, z);
+
+			Errors errors = zErrors(z, profileFrames, recording);
+			System.out.printf(Locale.ROOT, "%d,%.6f,%.4f,%.3f,%d,%.2f,%.1f%n", k, basis.getExplainedVariance(),
+					basis.getReconstructionError(), errors.rms(), errors.missing, nanos/1e3, fullNanos/nanos);
+		}
+	}
+
+	// Mean nanoseconds per match, z of each profile into z
+	private static double timeMatching(List<float[]> profiles, Zlut zlut, ProfileMatcher.Metric metric, int components, double[] z) {
+		for(int i = 0; i < profiles.size(); i++) {
+			z[i] = ZPositioning.compareWithZLut(profiles.get(i), zlut, metric, components, null);
+		}
+		int repeats = 5;
+		long start = System.nanoTime();
+		for(int r = 0; r < repeats; r++) {
+			for(int i = 0; i < profiles.size(); i++) {
+				z[i] = ZPositioning.compareWithZLut(profiles.get(i), zlut, metric, components, null);
+			}
+		}
+		return (System.nanoTime() - start)/(double)(repeats*Math.max(1, profiles.size()));
+	}
+
+	private static Errors zErrors(double[] z, List<Integer> frames, SyntheticBeads.Recording recording) {
+		Errors errors = new Errors();
+		for(int i = 0; i < z.length; i++) {
+			errors.add(z[i] - recording.z[frames.get(i)]);
+		}
+		return errors;
+	}
+
+	// Running sums of the differences from the truth. NaN results are counted rather than summed
+	private static class Errors {
+		int n = 0;
+		int missing = 0;
+		double sumX = 0;
+		double sumY = 0;
+		double squares = 0;
+
+		void add(double dx) {
+			add(dx, 0);
+		}
+
+		void add(double dx, double dy) {
+			if(Double.isNaN(dx) || Double.isNaN(dy)) {
+				missing++;
+				return;
+			}
+			n++;
+			sumX += dx;
+			sumY += dy;
+			squares += dx*dx + dy*dy;
+		}
+
+		double rms() {
+			return n == 0 ? Double.NaN : Math.sqrt(squares/n);
+		}
+
+		// Mean of the errors added one at a time
+		double mean() {
+			return meanX();
+		}
+
+		double meanX() {
+			return n == 0 ? Double.NaN : sumX/n;
+		}
+
+		double meanY() {
+			return n == 0 ? Double.NaN : sumY/n;
+		}
+	}
+}
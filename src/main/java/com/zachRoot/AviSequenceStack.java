@@ -0,0 +1,199 @@
+package com.zachRoot;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.process.ImageProcessor;
+
+// Every frame of every timestamped .avi in a directory as one stack, in time order.
+// Frames are decoded from disk only when asked for, so memory doesn't grow with the length of the recording
+public class AviSequenceStack extends VirtualStack {
+
+	private final File directory;
+	private final ArrayList<File> files;
+
+	// Virtual stack of each file. Only the frame index of each file is held in memory
+	private final ImageStack[] readers;
+
+	// firstSlice[i] is the global slice of the first frame of files[i], 1-indexed.
+	// The last entry is one past the final slice
+	private final int[] firstSlice;
+
+	// Time in the name of each file
+	private final long[] times;
+
+	private final int bitDepth;
+
+	// When every file is read from a map, frames can be read on many threads at once
+	private final boolean concurrent;
+
+	private AviSequenceStack(File directory, int width, int height, int bitDepth, ArrayList<File> files, ImageStack[] readers, int[] firstSlice) {
+		super(width, height);
+		this.directory = directory;
+		this.bitDepth = bitDepth;
+		this.files = files;
+		this.readers = readers;
+		this.firstSlice = firstSlice;
+
+		boolean concurrent = true;
+		for(ImageStack reader: readers) {
+			concurrent &= FrameCache.readsConcurrently(reader);
+		}
+		this.concurrent = concurrent;
+
+		times = new long[files.size()];
+		for(int i = 0; i < times.length; i++) {
+			times[i] = MagneticBead.getTimeFromString(files.get(i).getName());
+		}
+	}
+
+	// Returns null if no timestamped .avi files are found
+	public static AviSequenceStack open(String directory_path) {
+
+		ArrayList<File> files = new ArrayList<>();
+		findTimedAvis(new File(directory_path), files);
+
+		// Frames within a file are already in order so sorting the files is enough
+		files.sort(Comparator.comparingLong((File f) -> MagneticBead.getTimeFromString(f.getName())).thenComparing(File::getName));
+
+		ArrayList<File> readable = new ArrayList<>();
+		ArrayList<ImageStack> readers = new ArrayList<>();
+		ArrayList<Integer> sizes = new ArrayList<>();
+
+		for(File file: files) {
+			ImageStack reader = openVirtual(file);
+			if(reader == null || reader.size() == 0) continue;
+			readable.add(file);
+			readers.add(reader);
+			sizes.add(reader.size());
+		}
+
+		if(readable.size() == 0) return null;
+
+		int[] firstSlice = new int[readable.size()+1];
+		firstSlice[0] = 1;
+		for(int i = 0; i < readable.size(); i++) {
+			firstSlice[i+1] = firstSlice[i] + sizes.get(i);
+		}
+
+		ImageStack first = readers.get(0);
+		ImageProcessor ip = first.getProcessor(1);
+
+		return new AviSequenceStack(new File(directory_path), first.getWidth(), first.getHeight(), ip.getBitDepth(), readable,
+				readers.toArray(new ImageStack[0]), firstSlice);
+	}
+
+	private static void findTimedAvis(File directory, ArrayList<File> files) {
+		File[] contents = directory.listFiles();
+		if(contents == null) return;
+
+		for(File file: contents) {
+			if(file.isDirectory()) {
+				findTimedAvis(file, files);
+				continue;
+			}
+			if(!file.getName().endsWith(".avi")) continue;
+
+			try {
+				MagneticBead.getTimeFromString(file.getName());
+			} catch (IllegalArgumentException e) {
+				// Cannot have an image without a time in an image that will get processed
+				continue;
+			}
+			files.add(file);
+		}
+	}
+
+	private static ImageStack openVirtual(File file) {
+		return FrameCache.open(file);
+	}
+
+	// Directory the recording was opened from
+	public File getDirectory() {
+		return directory;
+	}
+
+	// Files of the recording in the order of their frames
+	public List<File> getFiles() {
+		return Collections.unmodifiableList(files);
+	}
+
+	// Index of the file holding the slice
+	private int fileIndex(int n) {
+		if(n < 1 || n >= firstSlice[firstSlice.length-1]) {
+			throw new IllegalArgumentException("Slice " + n + " out of range 1-" + getSize());
+		}
+		int low = 0;
+		int high = files.size()-1;
+		while(low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if(firstSlice[mid] <= n) low = mid;
+			else high = mid - 1;
+		}
+		return low;
+	}
+
+	// Synchronized unless every file is mapped, since AVI_Reader reads each file through a single stream
+	@Override
+	public ImageProcessor getProcessor(int n) {
+		int file = fileIndex(n);
+		if(concurrent) {
+			return readers[file].getProcessor(n - firstSlice[file] + 1);
+		}
+		synchronized(this) {
+			return readers[file].getProcessor(n - firstSlice[file] + 1);
+		}
+	}
+
+	public boolean readsConcurrently() {
+		return concurrent;
+	}
+
+	@Override
+	public Object getPixels(int n) {
+		return getProcessor(n).getPixels();
+	}
+
+	@Override
+	public int getSize() {
+		return firstSlice[firstSlice.length-1] - 1;
+	}
+
+	@Override
+	public int size() {
+		return getSize();
+	}
+
+	@Override
+	public String getSliceLabel(int n) {
+		int file = fileIndex(n);
+		return files.get(file).getName() + ":" + (n - firstSlice[file] + 1);
+	}
+
+	// Time of the slice in the units of the file names. Only the first frame of a file has its time in the name,
+	// the rest are spread evenly until the next file, or as far apart as the previous file's frames for the last file
+	public long getTime(int n) {
+		int file = fileIndex(n);
+		int index = n - firstSlice[file];
+		if(index == 0) return times[file];
+		int spanFile = file + 1 < times.length ? file : file - 1;
+		if(spanFile < 0) return times[file];
+		double spacing = (double)(times[spanFile+1] - times[spanFile])/(firstSlice[spanFile+1] - firstSlice[spanFile]);
+		return times[file] + Math.round(index*spacing);
+	}
+
+	@Override
+	public int getBitDepth() {
+		return bitDepth;
+	}
+
+	@Override
+	public void deleteSlice(int n) {
+		throw new UnsupportedOperationException("Frames can't be removed from a recording");
+	}
+}
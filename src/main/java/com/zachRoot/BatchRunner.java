@@ -0,0 +1,352 @@
+package com.zachRoot;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.opencsv.CSVReader;
+
+import ij.ImagePlus;
+
+// Headless entry point for tracking many recordings without ImageJ's GUI.
+//
+//   java -cp <plugin jar>:ij.jar:opencsv.jar com.zachRoot.BatchRunner [options] <recording dir> <zlut dir> ...
+//   java -cp ... com.zachRoot.BatchRunner [options] --job-file jobs.csv
+//
+// Each line of a job file is: recording dir, zlut dir[, output file]. Lines starting with # are skipped.
+// Results are streamed to csv, or to BinaryResultSink's columns when the output doesn't end in .csv.
+// A zlut dir holds either a saved zlut.bin or the height-named reference sweep, in which case the zlut
+// is built once, shared by every job that uses it and saved next to the sweep.
+public class BatchRunner {
+
+	static final String USAGE =
+			"Usage: BatchRunner [options] (<recording dir> <zlut dir>)... | --job-file <file>\n"
+			+ "  --jobs <n>         recordings tracked at the same time (default 1)\n"
+			+ "  --threads <n>      threads shared by all running jobs (default all cores)\n"
+			+ "  --out <dir>        directory for the result files (default each recording dir)\n"
+			+ "  --format <f>       csv or bin, for outputs not named in a job file (default csv)\n"
+			+ "  --metric <name>    zlut distance: L1, L2 or CORRELATION (default L1)\n"
+			+ "  --outliers <sd>    leave out reference frames this far from their height (default 0, keep all)\n"
+			+ "  --pca <k>          match profiles on k principal components of the zlut (default 0, every bin)\n"
+			+ "  --localizer <l>    xy localizer: xcor, com or qi (default xcor)\n"
+			+ "  --frame-cache <dir> keep decoded frames here so the next run maps them instead of decoding (default off)\n"
+			+ "  --frame-cache-mb <n> size the frame cache is held to (default 4096)\n"
+			+ "  --decode-threads <n> threads reading frames ahead of tracking in each job (default 1)\n"
+			+ "  --decode-queue <n>  runs of 32 frames read ahead of tracking (default 16)\n"
+			+ "  --tracked-queue <n> runs of tracked frames waiting to be written (default 16)\n"
+			+ "  --trim-even-width  drop the last pixel of even widths like direct convolution (default the fft uses them all)\n"
+			+ "  --window <px>      search for the bead in a window this wide around where it is predicted (default 0, whole frame)\n";
+
+	static final String RESULT_FILE_NAME = "tracking";
+
+	// One recording and the zlut it is tracked against
+	static class Job {
+		final String recordingDir;
+		final String zlutDir;
+		final File output;
+
+		Job(String recordingDir, String zlutDir, File output) {
+			this.recordingDir = recordingDir;
+			this.zlutDir = zlutDir;
+			this.output = output;
+		}
+
+		@Override
+		public String toString() {
+			return recordingDir;
+		}
+	}
+
+	private final int nJobs;
+	private final int nThreads;
+	private final double outlierThreshold;
+
+	// Settings of every job's session
+	private BeadLocalizer localizer = new CrossCorrelationLocalizer();
+	private ProfileMatcher.Metric distanceMetric = ProfileMatcher.Metric.L1;
+	private int pcaComponents = 0;
+	private int searchWindow = 0;
+
+	// Zluts by directory and image width. Futures so that jobs sharing a sweep wait for one build
+	private final ConcurrentHashMap<String, FutureTask<Zlut>> zluts = new ConcurrentHashMap<>();
+
+	public BatchRunner(int nJobs, int nThreads, double outlierThreshold) {
+		this.nJobs = Math.max(1, nJobs);
+		this.nThreads = Math.max(1, nThreads);
+		this.outlierThreshold = outlierThreshold;
+	}
+
+	public BatchRunner setLocalizer(BeadLocalizer localizer) {
+		this.localizer = localizer;
+		return this;
+	}
+
+	public BatchRunner setDistanceMetric(ProfileMatcher.Metric metric) {
+		this.distanceMetric = metric;
+		return this;
+	}
+
+	public BatchRunner setPcaComponents(int components) {
+		this.pcaComponents = components;
+		return this;
+	}
+
+	public BatchRunner setSearchWindow(int width) {
+		this.searchWindow = width;
+		return this;
+	}
+
+	public static void main(String[] args) {
+		// Must be set before any AWT class loads
+		System.setProperty("java.awt.headless", "true");
+
+		int nJobs = 1;
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		double outlierThreshold = 0;
+		BeadLocalizer localizer = new CrossCorrelationLocalizer();
+		ProfileMatcher.Metric metric = ProfileMatcher.Metric.L1;
+		int pcaComponents = 0;
+		int searchWindow = 0;
+		File outDir = null;
+		String format = "csv";
+		String jobFile = null;
+		List<String> dirs = new ArrayList<>();
+
+		try {
+			for(int i = 0; i < args.length; i++) {
+				switch(args[i]) {
+				case "--jobs":     nJobs = Integer.parseInt(value(args, ++i)); break;
+				case "--threads":  nThreads = Integer.parseInt(value(args, ++i)); break;
+				case "--out":      outDir = new File(value(args, ++i)); break;
+				case "--format":   format = value(args, ++i).toLowerCase(Locale.ROOT); break;
+				case "--metric":   metric = ProfileMatcher.Metric.valueOf(value(args, ++i).toUpperCase(Locale.ROOT)); break;
+				case "--outliers": outlierThreshold = Double.parseDouble(value(args, ++i)); break;
+				case "--pca":      pcaComponents = Integer.parseInt(value(args, ++i)); break;
+				case "--localizer": localizer = BeadLocalizer.forName(value(args, ++i)); break;
+				case "--window":   searchWindow = Integer.parseInt(value(args, ++i)); break;
+				case "--frame-cache": FrameCache.setDirectory(new File(value(args, ++i))); break;
+				case "--frame-cache-mb": FrameCache.setMaxBytes(Long.parseLong(value(args, ++i)) << 20); break;
+				case "--decode-threads": FramePipeline.setDefaultDecodeThreads(Integer.parseInt(value(args, ++i))); break;
+				case "--decode-queue": FramePipeline.setDefaultDecodeQueueDepth(Integer.parseInt(value(args, ++i))); break;
+				case "--tracked-queue": FramePipeline.setDefaultTrackedQueueDepth(Integer.parseInt(value(args, ++i))); break;
+				case "--trim-even-width": XYPositioning.setFftEvenWidth(false); break;
+				case "--job-file": jobFile = value(args, ++i); break;
+				case "--help":
+					System.out.print(USAGE);
+					return;
+				default:
+					if(args[i].startsWith("--")) throw new IllegalArgumentException("Unknown option " + args[i]);
+					dirs.add(args[i]);
+				}
+			}
+
+			if(!format.equals("csv") && !format.equals("bin")) throw new IllegalArgumentException("Unknown format " + format);
+
+			List<Job> jobs = jobFile != null ? readJobFile(new File(jobFile), outDir, format) : jobsFromArguments(dirs, outDir, format);
+			if(jobs.isEmpty()) throw new IllegalArgumentException("No recordings given");
+			checkOutputs(jobs);
+
+			int failed = new BatchRunner(nJobs, nThreads, outlierThreshold).setLocalizer(localizer).setDistanceMetric(metric)
+					.setPcaComponents(pcaComponents).setSearchWindow(searchWindow).run(jobs);
+			System.exit(failed == 0 ? 0 : 1);
+
+		} catch (IllegalArgumentException | IOException e) {
+			System.err.println(e.getMessage());
+			System.err.print(USAGE);
+			System.exit(2);
+		}
+	}
+
+	private static String value(String[] args, int i) {
+		if(i >= args.length) throw new IllegalArgumentException(args[i-1] + " needs a value");
+		return args[i];
+	}
+
+	static List<Job> jobsFromArguments(List<String> dirs, File outDir, String format) {
+		if(dirs.size() % 2 != 0) {
+			throw new IllegalArgumentException("Every recording dir needs a zlut dir");
+		}
+		List<Job> jobs = new ArrayList<>();
+		for(int i = 0; i < dirs.size(); i += 2) {
+			jobs.add(new Job(dirs.get(i), dirs.get(i+1), outputFor(dirs.get(i), null, outDir, format)));
+		}
+		return jobs;
+	}
+
+	static List<Job> readJobFile(File file, File outDir, String format) throws IOException {
+		List<Job> jobs = new ArrayList<>();
+		try (CSVReader reader = new CSVReader(new FileReader(file))) {
+			String[] line;
+			int lineNumber = 0;
+			while((line = reader.readNext()) != null) {
+				lineNumber++;
+				if(line.length == 0 || line[0].trim().isEmpty() || line[0].trim().startsWith("#")) continue;
+				if(line.length < 2) {
+					throw new IllegalArgumentException(file + " line " + lineNumber + ": expected recording dir, zlut dir[, output file]");
+				}
+				String output = line.length > 2 && !line[2].trim().isEmpty() ? line[2].trim() : null;
+				jobs.add(new Job(line[0].trim(), line[1].trim(), outputFor(line[0].trim(), output, outDir, format)));
+			}
+		}
+		return jobs;
+	}
+
+	// Results of a recording go next to it unless an output dir or file is given
+	private static File outputFor(String recordingDir, String output, File outDir, String format) {
+		if(output != null) return new File(output);
+		if(outDir != null) return new File(outDir, new File(recordingDir).getName() + "." + format);
+		return new File(recordingDir, RESULT_FILE_NAME + "." + format);
+	}
+
+	// Two jobs writing to the same results, checkpoint or metrics would overwrite each other. With --out that is
+	// recordings in different dirs with the same name, which need output files of their own in a job file
+	static void checkOutputs(List<Job> jobs) {
+		HashMap<String, Job> byOutput = new HashMap<>();
+		for(Job job: jobs) {
+			// The checkpoint and metrics drop the extension, so a.csv and a.bin collide too
+			Job other = byOutput.put(siblingFile(job.output, "").getPath(), job);
+			if(other != null) {
+				throw new IllegalArgumentException(other + " and " + job + " would both write to " + job.output
+						+ ", give them output files in a job file");
+			}
+		}
+	}
+
+	// Runs every job, nJobs at a time. Returns the number that failed
+	public int run(List<Job> jobs) {
+
+		// Cores are split between the jobs running at the same time
+		int threadsPerJob = Math.max(1, nThreads/Math.min(nJobs, jobs.size()));
+
+		ExecutorService pool = Executors.newFixedThreadPool(nJobs);
+		List<Future<?>> results = new ArrayList<>();
+		try {
+			for(Job job: jobs) {
+				results.add(pool.submit(() -> {
+					runJob(job, threadsPerJob);
+					return null;
+				}));
+			}
+
+			int failed = 0;
+			for(int i = 0; i < jobs.size(); i++) {
+				try {
+					results.get(i).get();
+				} catch (ExecutionException e) {
+					failed++;
+					System.err.println("Failed " + jobs.get(i) + ": " + e.getCause());
+				}
+			}
+			System.out.println((jobs.size() - failed) + " of " + jobs.size() + " recordings tracked");
+			return failed;
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Batch was interrupted", e);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private void runJob(Job job, int threads) throws IOException {
+
+		long start = System.nanoTime();
+
+		AviSequenceStack stack = AviSequenceStack.open(job.recordingDir);
+		if(stack == null) {
+			throw new IOException("No timestamped .avi files in " + job.recordingDir);
+		}
+		if(stack.getWidth() != stack.getHeight()) {
+			throw new IOException("Image must be square instead of " + stack.getWidth() + "x" + stack.getHeight());
+		}
+
+		Zlut zlut = getZlut(job.zlutDir, stack.getWidth());
+
+		// A job that was stopped partway carries on from its checkpoint
+		TrackingSession session = new TrackingSession(new ImagePlus(job.recordingDir, stack), zlut)
+				.setLocalizer(localizer).setDistanceMetric(distanceMetric).setPcaComponents(pcaComponents)
+				.setSearchWindow(searchWindow).setCheckpoint(siblingFile(job.output, ".checkpoint"));
+		try (ResultSink sink = ResultSink.open(job.output)) {
+			session.processStack(stack, threads, sink);
+		}
+		session.getMetrics().writeJson(siblingFile(job.output, ".metrics.json"));
+
+		double seconds = (System.nanoTime() - start)/1e9;
+		int tracked = session.size() - session.getResumedFrames();
+		System.out.printf(Locale.ROOT, "%s: %d frames in %.1f s (%.0f fps)%s -> %s%n", job.recordingDir, tracked, seconds, tracked/seconds,
+				session.getResumedFrames() > 0 ? ", " + session.getResumedFrames() + " from the checkpoint" : "", job.output);
+	}
+
+	// Loads the saved zlut of the dir or builds it from the sweep, once per dir and width
+	Zlut getZlut(String zlutDir, int imageWidth) throws IOException {
+
+		String key = new File(zlutDir).getAbsolutePath() + "@" + imageWidth;
+		FutureTask<Zlut> task = new FutureTask<>(() -> loadOrBuildZlut(zlutDir, imageWidth));
+		FutureTask<Zlut> existing = zluts.putIfAbsent(key, task);
+		if(existing == null) {
+			task.run();
+		} else {
+			task = existing;
+		}
+
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for the zlut of " + zlutDir, e);
+		} catch (ExecutionException e) {
+			// Jobs after this one try again instead of getting the same failure
+			zluts.remove(key, task);
+			if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			throw new IOException("ZLUT of " + zlutDir + " could not be made: " + e.getCause(), e.getCause());
+		}
+	}
+
+	private Zlut loadOrBuildZlut(String zlutDir, int imageWidth) throws IOException {
+
+		Zlut saved = ZPositioning.loadZlutFromFolder(zlutDir, imageWidth, localizer.getName());
+		if(saved != null) {
+			return saved;
+		}
+
+		ZlutBuilder builder = new ZlutBuilder(imageWidth, nThreads).setOutlierThreshold(outlierThreshold).setLocalizer(localizer);
+		Zlut created;
+		try {
+			created = builder.build(zlutDir);
+		} catch (ZlutBuilder.SizeMismatchException e) {
+			throw new IOException("Reference images in " + zlutDir + " are a different size than the recording");
+		} catch (RuntimeException e) {
+			throw new IOException("ZLUT of " + zlutDir + " could not be made: " + e.getMessage(), e);
+		}
+		if(created == null) {
+			throw new IOException("No reference images in " + zlutDir);
+		}
+
+		System.out.println("ZLUT of " + created.size() + " heights from " + builder.getFramesUsed() + " frames in " + zlutDir);
+
+		// Saved so the next run loads it instead
+		try {
+			ZlutFile.write(created, new File(zlutDir, ZlutFile.FILE_NAME));
+		} catch (IOException e) {
+			System.err.println("ZLUT could not be saved to " + zlutDir + ": " + e.getMessage());
+		}
+		return created;
+	}
+
+	// tracking.csv -> tracking.metrics.json
+	static File siblingFile(File output, String extension) {
+		String name = output.getName();
+		int dot = name.lastIndexOf('.');
+		return new File(output.getAbsoluteFile().getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + extension);
+	}
+}
@@ -0,0 +1,114 @@
+package com.zachRoot;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+import ij.process.ImageProcessor;
+
+// Finds the beads in a field of view with more than one bead in it.
+// A bead's rings stand out from the background, so the frame's absolute difference from its mean
+// is summed over a box around every pixel and the strongest separated peaks are taken as beads
+public class BeadDetector {
+
+	// Square regions of roiSize around up to maxBeads beads, sorted top to bottom then left to right.
+	// Peaks weaker than threshold standard deviations above the mean box sum are ignored
+	public static List<Rectangle> detect(ImageProcessor ip, int roiSize, int maxBeads, double threshold) {
+
+		int width = ip.getWidth();
+		int height = ip.getHeight();
+		int box = Math.max(1, roiSize/2);
+
+		double mean = 0;
+		for(int i = 0; i < width*height; i++) {
+			mean += ip.getf(i);
+		}
+		mean /= width*height;
+
+		// Integral image of the absolute difference from the mean, one extra row and column of zeros
+		double[] integral = new double[(width+1)*(height+1)];
+		for(int y = 0; y < height; y++) {
+			double rowSum = 0;
+			for(int x = 0; x < width; x++) {
+				rowSum += Math.abs(ip.getf(x + y*width) - mean);
+				integral[(x+1) + (y+1)*(width+1)] = integral[(x+1) + y*(width+1)] + rowSum;
+			}
+		}
+
+		// Contrast in a box centered on every pixel
+		double[] contrast = new double[width*height];
+		double sum = 0;
+		double squares = 0;
+		for(int y = 0; y < height; y++) {
+			int y0 = Math.max(0, y - box/2);
+			int y1 = Math.min(height, y0 + box);
+			for(int x = 0; x < width; x++) {
+				int x0 = Math.max(0, x - box/2);
+				int x1 = Math.min(width, x0 + box);
+				double c = integral[x1 + y1*(width+1)] - integral[x0 + y1*(width+1)]
+						- integral[x1 + y0*(width+1)] + integral[x0 + y0*(width+1)];
+				contrast[x + y*width] = c;
+				sum += c;
+				squares += c*c;
+			}
+		}
+		double contrastMean = sum/contrast.length;
+		double contrastSd = Math.sqrt(Math.max(0, squares/contrast.length - contrastMean*contrastMean));
+		double minimum = contrastMean + threshold*contrastSd;
+
+		// Local maxima that are strong enough
+		List<int[]> peaks = new ArrayList<>();
+		for(int y = 1; y < height-1; y++) {
+			for(int x = 1; x < width-1; x++) {
+				double c = contrast[x + y*width];
+				if(c < minimum) continue;
+				if(isLocalMaximum(contrast, width, x, y)) {
+					peaks.add(new int[] {x, y});
+				}
+			}
+		}
+		peaks.sort((a, b) -> Double.compare(contrast[b[0] + b[1]*width], contrast[a[0] + a[1]*width]));
+
+		// Strongest first, skipping peaks that would overlap a bead already taken
+		List<Rectangle> rois = new ArrayList<>();
+		for(int[] peak: peaks) {
+			if(rois.size() >= maxBeads) break;
+
+			Rectangle roi = new Rectangle(peak[0] - roiSize/2, peak[1] - roiSize/2, roiSize, roiSize);
+			if(roi.x < 0 || roi.y < 0 || roi.x + roiSize > width || roi.y + roiSize > height) continue;
+
+			boolean overlaps = false;
+			for(Rectangle taken: rois) {
+				if(taken.intersects(roi)) {
+					overlaps = true;
+					break;
+				}
+			}
+			if(!overlaps) rois.add(roi);
+		}
+
+		rois.sort((a, b) -> a.y != b.y ? Integer.compare(a.y, b.y) : Integer.compare(a.x, b.x));
+		return rois;
+	}
+
+	private static boolean isLocalMaximum(double[] contrast, int width, int x, int y) {
+		double c = contrast[x + y*width];
+		for(int dy = -1; dy <= 1; dy++) {
+			for(int dx = -1; dx <= 1; dx++) {
+				if((dx != 0 || dy != 0) && contrast[(x+dx) + (y+dy)*width] > c) return false;
+			}
+		}
+		return true;
+	}
+
+	// Copy of the region of the frame. Doesn't touch the frame's roi so frames can be shared between threads
+	public static ImageProcessor crop(ImageProcessor ip, Rectangle roi) {
+		ImageProcessor cropped = ip.createProcessor(roi.width, roi.height);
+		Object from = ip.getPixels();
+		Object to = cropped.getPixels();
+		for(int y = 0; y < roi.height; y++) {
+			System.arraycopy(from, roi.x + (roi.y + y)*ip.getWidth(), to, y*roi.width, roi.width);
+		}
+		return cropped;
+	}
+}
@@ -0,0 +1,31 @@
+package com.zachRoot;
+
+import java.util.Locale;
+
+import ij.process.ImageProcessor;
+
+// Finds the x and y of the bead in a square window of a frame.
+// Positions are in frame coordinates where pixel i covers i to i+1. Implementations keep no state between
+// frames so one can be shared by every tracking thread
+public interface BeadLocalizer {
+
+	// Names forName takes
+	String[] NAMES = {"xcor", "com", "qi"};
+
+	// The window is x0 to x0+width-1 and y0 to y0+width-1, the whole frame for 0, 0, ip.getWidth().
+	// Returns NaNs when the bead can't be placed. Records the time of each step into metrics if it isn't null
+	double[] locate(ImageProcessor ip, int x0, int y0, int width, TrackingMetrics metrics);
+
+	// The name forName gives this localizer for
+	String getName();
+
+	// xcor, com or qi
+	static BeadLocalizer forName(String name) {
+		switch(name.toLowerCase(Locale.ROOT)) {
+		case "xcor": return new CrossCorrelationLocalizer();
+		case "com":  return new CenterOfMassLocalizer();
+		case "qi":   return new QuadrantInterpolationLocalizer();
+		default: throw new IllegalArgumentException("Unknown localizer " + name + ", expected xcor, com or qi");
+		}
+	}
+}
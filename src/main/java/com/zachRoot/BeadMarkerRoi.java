@@ -0,0 +1,56 @@
+package com.zachRoot;
+
+import java.awt.Color;
+import java.awt.Graphics;
+
+import ij.ImagePlus;
+import ij.gui.ImageCanvas;
+import ij.gui.Roi;
+
+// One overlay element that circles every bead in the slice being shown, read from the result arrays as it is drawn.
+// The overlay costs nothing per frame, and shows results as soon as they are in the arrays without the
+// tracking threads touching it
+public class BeadMarkerRoi extends Roi {
+
+	// Size of the circle in image pixels
+	private static final int MARKER_SIZE = 10;
+
+	private final ImagePlus image;
+
+	// x[bead][frame] and y[bead][frame], 0-indexed by frame. Not copied
+	private final double[][] x_cords;
+	private final double[][] y_cords;
+
+	public BeadMarkerRoi(ImagePlus image, double[][] x_cords, double[][] y_cords) {
+		super(0, 0, image.getWidth(), image.getHeight());
+		this.image = image;
+		this.x_cords = x_cords;
+		this.y_cords = y_cords;
+		setStrokeColor(Color.GREEN);
+	}
+
+	@Override
+	public void drawOverlay(Graphics g) {
+		draw(g);
+	}
+
+	@Override
+	public void draw(Graphics g) {
+		ImageCanvas canvas = image.getCanvas();
+		if(canvas == null) return;
+
+		int frame = image.getCurrentSlice() - 1;
+		int size = (int)Math.max(1, Math.round(MARKER_SIZE*canvas.getMagnification()));
+
+		g.setColor(getStrokeColor());
+		for(int bead = 0; bead < x_cords.length; bead++) {
+			if(frame < 0 || frame >= x_cords[bead].length) continue;
+			double x = x_cords[bead][frame];
+			double y = y_cords[bead][frame];
+			// Not tracked or not found
+			if(Double.isNaN(x) || Double.isNaN(y)) continue;
+
+			g.drawOval(canvas.screenXD(x - MARKER_SIZE/2.0), canvas.screenYD(y - MARKER_SIZE/2.0), size, size);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.zachRoot;
+
+// Where the bead should be in the next frame, assuming it keeps the velocity it had between the last two frames.
+// Only carries over between consecutive slices, so a gap in the slices (a new chunk of frames or a lost bead) starts over
+class BeadPredictor {
+
+	private int lastSlice = -1;
+	private double x;
+	private double y;
+	private double vx;
+	private double vy;
+
+	// Null if the slice doesn't follow the last one tracked
+	double[] predict(int slice) {
+		if(lastSlice < 0 || slice != lastSlice + 1) return null;
+		return new double[] {x + vx, y + vy};
+	}
+
+	void update(int slice, double[] xyCord) {
+		if(lastSlice >= 0 && slice == lastSlice + 1) {
+			vx = xyCord[0] - x;
+			vy = xyCord[1] - y;
+		} else {
+			vx = 0;
+			vy = 0;
+		}
+		x = xyCord[0];
+		y = xyCord[1];
+		lastSlice = slice;
+	}
+
+	void reset() {
+		lastSlice = -1;
+	}
+}
@@ -0,0 +1,107 @@
+package com.zachRoot;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/* Rows as little endian columns in blocks of up to BLOCK_ROWS rows, so the file can be written as it goes
+ * and still be read column by column straight from a memory map (see BinaryResults):
+ *
+ *   header:  8 byte magic "BEADXYZ1", int32 version, int32 most rows per block
+ *   block:   int32 rows, int32 0, int32 frame[rows], int32 status[rows],
+ *            int64 time[rows], float64 x[rows], float64 y[rows], float64 z[rows]
+ *
+ * Blocks are full unless flush() was called before they filled. Everything is 8 byte aligned
+ */
+public class BinaryResultSink implements ResultSink {
+
+	static final byte[] MAGIC = {'B', 'E', 'A', 'D', 'X', 'Y', 'Z', '1'};
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 16;
+	static final int BLOCK_HEADER_BYTES = 8;
+	static final int ROW_BYTES = 4 + 4 + 8 + 8*3;
+
+	public static final int BLOCK_ROWS = 4096;
+
+	private final FileOutputStream out;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_HEADER_BYTES + BLOCK_ROWS*ROW_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+	private final int[] frames = new int[BLOCK_ROWS];
+	private final int[] statuses = new int[BLOCK_ROWS];
+	private final long[] times = new long[BLOCK_ROWS];
+	private final double[] x_cords = new double[BLOCK_ROWS];
+	private final double[] y_cords = new double[BLOCK_ROWS];
+	private final double[] z_cords = new double[BLOCK_ROWS];
+	private int rows = 0;
+
+	public BinaryResultSink(File file) throws IOException {
+		out = new FileOutputStream(file);
+		channel = out.getChannel();
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(MAGIC).putInt(VERSION).putInt(BLOCK_ROWS);
+		header.flip();
+		writeFully(header);
+	}
+
+	@Override
+	public void write(int frame, long time, double x, double y, double z, int status) throws IOException {
+		frames[rows] = frame;
+		statuses[rows] = status;
+		times[rows] = time;
+		x_cords[rows] = x;
+		y_cords[rows] = y;
+		z_cords[rows] = z;
+		rows++;
+		if(rows == BLOCK_ROWS) {
+			writeBlock();
+		}
+	}
+
+	// Writes the rows so far as a short block
+	@Override
+	public void flush() throws IOException {
+		writeBlock();
+	}
+
+	private void writeBlock() throws IOException {
+		if(rows == 0) return;
+
+		buffer.clear();
+		buffer.putInt(rows).putInt(0);
+		buffer.asIntBuffer().put(frames, 0, rows);
+		buffer.position(buffer.position() + 4*rows);
+		buffer.asIntBuffer().put(statuses, 0, rows);
+		buffer.position(buffer.position() + 4*rows);
+		buffer.asLongBuffer().put(times, 0, rows);
+		buffer.position(buffer.position() + 8*rows);
+		buffer.asDoubleBuffer().put(x_cords, 0, rows);
+		buffer.position(buffer.position() + 8*rows);
+		buffer.asDoubleBuffer().put(y_cords, 0, rows);
+		buffer.position(buffer.position() + 8*rows);
+		buffer.asDoubleBuffer().put(z_cords, 0, rows);
+		buffer.position(buffer.position() + 8*rows);
+		buffer.flip();
+		writeFully(buffer);
+		rows = 0;
+	}
+
+	private void writeFully(ByteBuffer bytes) throws IOException {
+		while(bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			writeBlock();
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.zachRoot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// Reads a file written by BinaryResultSink through a memory map, so only the pages that are used get read.
+// A block cut short by a run that is still writing is left out
+public class BinaryResults {
+
+	private final MappedByteBuffer map;
+
+	// Start of each block and the global row its first row is, with one past the last row at the end
+	private final long[] blockStarts;
+	private final int[] firstRows;
+
+	public BinaryResults(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			if(channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large to map in one piece");
+			}
+			map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		map.order(ByteOrder.LITTLE_ENDIAN);
+
+		byte[] magic = new byte[BinaryResultSink.MAGIC.length];
+		if(map.capacity() < BinaryResultSink.HEADER_BYTES) {
+			throw new IOException(file + " is not a results file");
+		}
+		map.get(magic);
+		if(!Arrays.equals(magic, BinaryResultSink.MAGIC)) {
+			throw new IOException(file + " is not a results file");
+		}
+		int version = map.getInt(8);
+		if(version != BinaryResultSink.VERSION) {
+			throw new IOException(file + " is version " + version + " instead of " + BinaryResultSink.VERSION);
+		}
+
+		long[] starts = new long[16];
+		int[] rows = new int[17];
+		int nBlocks = 0;
+		long position = BinaryResultSink.HEADER_BYTES;
+		while(position + BinaryResultSink.BLOCK_HEADER_BYTES <= map.capacity()) {
+			int blockRows = map.getInt((int)position);
+			long end = position + BinaryResultSink.BLOCK_HEADER_BYTES + (long)blockRows*BinaryResultSink.ROW_BYTES;
+			if(blockRows <= 0 || end > map.capacity()) break;
+
+			if(nBlocks == starts.length) {
+				starts = Arrays.copyOf(starts, nBlocks*2);
+				rows = Arrays.copyOf(rows, nBlocks*2 + 1);
+			}
+			starts[nBlocks] = position;
+			rows[nBlocks+1] = rows[nBlocks] + blockRows;
+			nBlocks++;
+			position = end;
+		}
+		blockStarts = Arrays.copyOf(starts, nBlocks);
+		firstRows = Arrays.copyOf(rows, nBlocks + 1);
+	}
+
+	public int size() {
+		return firstRows[firstRows.length-1];
+	}
+
+	public int getFrame(int row) {
+		return map.getInt(offset(row, 0, 4));
+	}
+
+	public int getStatus(int row) {
+		return map.getInt(offset(row, 4, 4));
+	}
+
+	public long getTime(int row) {
+		return map.getLong(offset(row, 8, 8));
+	}
+
+	public double getX(int row) {
+		return map.getDouble(offset(row, 16, 8));
+	}
+
+	public double getY(int row) {
+		return map.getDouble(offset(row, 24, 8));
+	}
+
+	public double getZ(int row) {
+		return map.getDouble(offset(row, 32, 8));
+	}
+
+	// Columns come one after another in a block, columnStart is how many bytes per row the columns before it take
+	private int offset(int row, int columnStart, int bytes) {
+		if(row < 0 || row >= size()) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + size());
+		}
+		int block = Arrays.binarySearch(firstRows, 0, firstRows.length - 1, row);
+		if(block < 0) block = -block - 2;
+		int blockRows = firstRows[block+1] - firstRows[block];
+		long start = blockStarts[block] + BinaryResultSink.BLOCK_HEADER_BYTES + (long)columnStart*blockRows;
+		return (int)(start + (long)(row - firstRows[block])*bytes);
+	}
+}
@@ -0,0 +1,27 @@
+package com.zachRoot;
+
+import ij.process.ImageProcessor;
+
+// Center of mass of the difference from the mean, with its fraction. One pass over the window and no fit,
+// for live previews. Pulled towards the middle of the window when the bead is off center
+public class CenterOfMassLocalizer implements BeadLocalizer {
+
+	@Override
+	public String getName() {
+		return "com";
+	}
+
+	@Override
+	public double[] locate(ImageProcessor ip, int x0, int y0, int width, TrackingMetrics metrics) {
+		long start = System.nanoTime();
+		double[] xyCord = centroid(ip, x0, y0, width);
+		if(metrics != null) metrics.record(TrackingMetrics.Stage.CENTER_OF_MASS, System.nanoTime() - start);
+		return xyCord;
+	}
+
+	// lin counts pixels from 1 so pixel lin covers lin-1 to lin and its center is lin - 0.5
+	static double[] centroid(ImageProcessor ip, int x0, int y0, int width) {
+		double[] lin = PixelKernels.linearCenterOfMass(ip, x0, y0, width, width);
+		return new double[] {x0 + lin[0] - 0.5, y0 + lin[1] - 0.5};
+	}
+}
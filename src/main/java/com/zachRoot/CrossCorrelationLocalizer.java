@@ -0,0 +1,30 @@
+package com.zachRoot;
+
+import ij.process.ImageProcessor;
+
+// Center of mass to the nearest pixel, then the row and column through it correlated with their mirror images
+// and the peak fit with 5 points. The original tracker, see XYPositioning.getBeadCenter
+public class CrossCorrelationLocalizer implements BeadLocalizer {
+
+	@Override
+	public String getName() {
+		return "xcor";
+	}
+
+	@Override
+	public double[] locate(ImageProcessor ip, int x0, int y0, int width, TrackingMetrics metrics) {
+		long start = System.nanoTime();
+		int[] xyCord = PixelKernels.centerOfMass(ip, x0, y0, width, width);
+		long centered = System.nanoTime();
+
+		// A bead on the last pixel of the window would read a row outside it
+		double[] xyCordSubPixel = XYPositioning.xyRowColConvolveWindow(ip,
+				Math.min(xyCord[0], x0 + width - 1), Math.min(xyCord[1], y0 + width - 1), x0, y0, width);
+
+		if(metrics != null) {
+			metrics.record(TrackingMetrics.Stage.CENTER_OF_MASS, centered - start);
+			metrics.record(TrackingMetrics.Stage.CORRELATION, System.nanoTime() - centered);
+		}
+		return xyCordSubPixel;
+	}
+}
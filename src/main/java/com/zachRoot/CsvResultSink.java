@@ -0,0 +1,43 @@
+package com.zachRoot;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import com.opencsv.CSVWriter;
+
+// Rows as csv with a header line: frame, time, x, y, z, status
+public class CsvResultSink implements ResultSink {
+
+	private static final int BUFFER_BYTES = 1 << 16;
+
+	private final CSVWriter writer;
+	private final String[] row = new String[6];
+
+	public CsvResultSink(File file) throws IOException {
+		writer = new CSVWriter(new BufferedWriter(new FileWriter(file), BUFFER_BYTES));
+		writer.writeNext(new String[] {"frame", "time", "x", "y", "z", "status"}, false);
+	}
+
+	@Override
+	public void write(int frame, long time, double x, double y, double z, int status) throws IOException {
+		row[0] = Integer.toString(frame);
+		row[1] = Long.toString(time);
+		row[2] = Double.toString(x);
+		row[3] = Double.toString(y);
+		row[4] = Double.toString(z);
+		row[5] = Integer.toString(status);
+		writer.writeNext(row, false);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+}
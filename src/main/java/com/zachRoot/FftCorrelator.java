@@ -0,0 +1,150 @@
+package com.zachRoot;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// Convolution of row and column signals through an FFT. Gives the same output as
+// FloatProcessor.convolve on a single row image (edge pixels repeated, kernel normalized by its sum)
+// but in O(n log n) instead of O(n^2), and without needing an odd width.
+//
+// The plan (transform size, twiddle factors and bit reversal table) is made once per width and shared
+class FftCorrelator {
+
+	private static final ConcurrentHashMap<Integer, FftCorrelator> plans = new ConcurrentHashMap<>();
+
+	// Width of the signals and kernels
+	private final int width;
+
+	// Transform size. A power of two large enough that the part of the output used doesn't wrap around
+	private final int n;
+
+	private final double[] cos;
+	private final double[] sin;
+	private final int[] bitReverse;
+
+	private FftCorrelator(int width) {
+		this.width = width;
+
+		// Edge padded signal is 2*width-1 long and only outputs width-1 to 2*width-2 are kept
+		int size = 1;
+		while(size < 2*width-1) size <<= 1;
+		n = size;
+
+		cos = new double[n/2];
+		sin = new double[n/2];
+		for(int i = 0; i < n/2; i++) {
+			cos[i] = Math.cos(2*Math.PI*i/n);
+			sin[i] = Math.sin(2*Math.PI*i/n);
+		}
+
+		int bits = Integer.numberOfTrailingZeros(n);
+		bitReverse = new int[n];
+		for(int i = 0; i < n; i++) {
+			bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+		}
+	}
+
+	static FftCorrelator forWidth(int width) {
+		return plans.computeIfAbsent(width, FftCorrelator::new);
+	}
+
+	// Convolves xSignal with xKernel and ySignal with yKernel. Equivalent to
+	// new FloatProcessor(width, 1, signal).convolve(kernel, width, 1) for both axes at once.
+	// For an even width the kernel center is width/2, the same as Convolver would use.
+	void convolve(float[] xSignal, float[] xKernel, float[] ySignal, float[] yKernel, float[] xOut, float[] yOut) {
+
+		int center = width/2;
+
+		// Both axes are packed into one complex transform, x as the real part and y as the imaginary
+		double[] signalRe = new double[n];
+		double[] signalIm = new double[n];
+		double[] kernelRe = new double[n];
+		double[] kernelIm = new double[n];
+
+		// Signal padded with its edge pixels so that out[i] = sum(kernel[k]*padded[i+k])
+		for(int j = 0; j < 2*width-1; j++) {
+			int index = Math.min(Math.max(j - center, 0), width-1);
+			signalRe[j] = xSignal[index];
+			signalIm[j] = ySignal[index];
+		}
+
+		// Reversed kernel turns the correlation above into a convolution
+		double xKernelSum = 0;
+		double yKernelSum = 0;
+		for(int k = 0; k < width; k++) {
+			kernelRe[width-1-k] = xKernel[k];
+			kernelIm[width-1-k] = yKernel[k];
+			xKernelSum += xKernel[k];
+			yKernelSum += yKernel[k];
+		}
+
+		transform(signalRe, signalIm, false);
+		transform(kernelRe, kernelIm, false);
+
+		// Split the packed spectra using conjugate symmetry and multiply each axis with its kernel.
+		// The two real products are packed back together for a single inverse transform
+		for(int k = 0; k <= n/2; k++) {
+			int m = (n - k) & (n - 1);
+
+			double sxRe = (signalRe[k] + signalRe[m])/2, sxIm = (signalIm[k] - signalIm[m])/2;
+			double syRe = (signalIm[k] + signalIm[m])/2, syIm = (signalRe[m] - signalRe[k])/2;
+			double kxRe = (kernelRe[k] + kernelRe[m])/2, kxIm = (kernelIm[k] - kernelIm[m])/2;
+			double kyRe = (kernelIm[k] + kernelIm[m])/2, kyIm = (kernelRe[m] - kernelRe[k])/2;
+
+			double xRe = sxRe*kxRe - sxIm*kxIm, xIm = sxRe*kxIm + sxIm*kxRe;
+			double yRe = syRe*kyRe - syIm*kyIm, yIm = syRe*kyIm + syIm*kyRe;
+
+			// x + i*y at k, and its mirror at n-k from the conjugates
+			signalRe[k] = xRe - yIm;
+			signalIm[k] = xIm + yRe;
+			signalRe[m] = xRe + yIm;
+			signalIm[m] = yRe - xIm;
+		}
+
+		transform(signalRe, signalIm, true);
+
+		// Same normalization as Convolver
+		double xScale = xKernelSum != 0 ? 1.0/xKernelSum : 1.0;
+		double yScale = yKernelSum != 0 ? 1.0/yKernelSum : 1.0;
+
+		for(int i = 0; i < width; i++) {
+			xOut[i] = (float)(signalRe[i+width-1]/n*xScale);
+			yOut[i] = (float)(signalIm[i+width-1]/n*yScale);
+		}
+	}
+
+	// In place radix 2 transform. The inverse isn't divided by n
+	private void transform(double[] re, double[] im, boolean inverse) {
+
+		for(int i = 0; i < n; i++) {
+			int j = bitReverse[i];
+			if(i < j) {
+				double t = re[i]; re[i] = re[j]; re[j] = t;
+				t = im[i]; im[i] = im[j]; im[j] = t;
+			}
+		}
+
+		double sign = inverse ? 1 : -1;
+
+		for(int length = 2; length <= n; length <<= 1) {
+			int half = length/2;
+			int step = n/length;
+			for(int i = 0; i < n; i += length) {
+				for(int k = 0; k < half; k++) {
+					double wRe = cos[k*step];
+					double wIm = sign*sin[k*step];
+
+					int a = i + k;
+					int b = a + half;
+
+					double vRe = re[b]*wRe - im[b]*wIm;
+					double vIm = re[b]*wIm + im[b]*wRe;
+
+					re[b] = re[a] - vRe;
+					im[b] = im[a] - vIm;
+					re[a] += vRe;
+					im[a] += vIm;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,380 @@
+package com.zachRoot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import ij.IJ;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.VirtualStack;
+import ij.plugin.AVI_Reader;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+// Where frames are read from avis. Uncompressed 8 bit avis are read through MappedAviStack, and the decoded
+// frames of any other .avi can be kept as raw pixels in a directory, so analysing the same data again maps
+// the frames from disk instead of decoding the avi. An entry is found by the avi's path, size and modification
+// time, so an avi that is replaced or written to again is decoded again.
+//
+// The directory is held to a total size by removing the least recently used entries. Off unless a directory
+// is set, which the plugin takes from frameCache.dir and frameCache.mb in ImageJ's preferences.
+//
+// Entry layout, little endian:
+//   header: "BEADFRM1", int version, int width, int height, int bitDepth, int frames, int path bytes,
+//           long avi size, long avi modification time, the avi's absolute path in UTF-8
+//   frames: width*height pixels of bitDepth/8 bytes, one frame after another from the first DATA_ALIGNMENT after the header
+public class FrameCache {
+
+	static final byte[] MAGIC = "BEADFRM1".getBytes(StandardCharsets.US_ASCII);
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 48;
+	static final int DATA_ALIGNMENT = 4096;
+	static final String EXTENSION = ".frames";
+
+	private static volatile File directory = fromPrefs();
+
+	// Total size of the entries before the least recently used are removed
+	private static volatile long maxBytes = (long)Prefs.get("frameCache.mb", 4096.0) << 20;
+
+	private FrameCache() {}
+
+	private static File fromPrefs() {
+		String path = Prefs.get("frameCache.dir", "");
+		return path.isEmpty() ? null : new File(path);
+	}
+
+	public static File getDirectory() {
+		return directory;
+	}
+
+	// Null turns the cache off
+	public static void setDirectory(File cacheDirectory) {
+		directory = cacheDirectory;
+	}
+
+	public static long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public static void setMaxBytes(long bytes) {
+		if(bytes < 0) throw new IllegalArgumentException("Cache size can't be negative: " + bytes);
+		maxBytes = bytes;
+	}
+
+	public static boolean isEnabled() {
+		return directory != null;
+	}
+
+	// True for the stacks open gives that are read from a map, which can be read from many threads at once.
+	// AVI_Reader's can't
+	static boolean readsConcurrently(ImageStack stack) {
+		return stack instanceof MappedAviStack || stack instanceof MappedFrames;
+	}
+
+	// Avi the frames of a stack open mapped from the cache were decoded from, null for any other stack
+	static File sourceOf(ImageStack stack) {
+		return stack instanceof MappedFrames ? ((MappedFrames)stack).avi : null;
+	}
+
+	// Frames of the avi as a virtual stack. Uncompressed 8 bit avis are mapped in place and never cached.
+	// Others are mapped from the cache when they are in it, and when they aren't, decoded once to fill the cache.
+	// Null if the avi can't be read, like AVI_Reader
+	public static ImageStack open(File avi) {
+		try {
+			ImageStack mapped = MappedAviStack.open(avi);
+			if(mapped != null) return mapped;
+		} catch (IOException e) {
+			IJ.log(avi.getName() + " could not be mapped, reading it with AVI_Reader: " + e.getMessage());
+		}
+
+		File cacheDirectory = directory;
+		if(cacheDirectory == null) return decode(avi);
+
+		File entry = entryFor(cacheDirectory, avi);
+		if(entry.isFile()) {
+			try {
+				ImageStack frames = map(entry, avi);
+				if(frames != null) {
+					// Modification time is when the entry was last used
+					entry.setLastModified(System.currentTimeMillis());
+					return frames;
+				}
+			} catch (IOException e) {
+				IJ.log("Cached frames of " + avi.getName() + " could not be read: " + e.getMessage());
+			}
+			// Windows doesn't remove a file that is still mapped, and the new entry couldn't be moved over it either
+			if(!entry.delete()) {
+				IJ.log("Cached frames of " + avi.getName() + " could not be removed, decoding without caching them: " + entry);
+				return decode(avi);
+			}
+		}
+
+		ImageStack decoded = decode(avi);
+		if(decoded == null || decoded.size() == 0) return decoded;
+
+		try {
+			if(store(entry, avi, decoded)) {
+				evict(cacheDirectory, entry);
+				ImageStack frames = map(entry, avi);
+				if(frames != null) return frames;
+			}
+		} catch (IOException e) {
+			IJ.log("Frames of " + avi.getName() + " could not be cached: " + e.getMessage());
+		}
+		return decoded;
+	}
+
+	private static ImageStack decode(File avi) {
+		return new AVI_Reader().makeStack(avi.getAbsolutePath(), 1, 0, true, false, false);
+	}
+
+	// name.avi-<hash of path, size and modification time>.frames
+	static File entryFor(File cacheDirectory, File avi) {
+		String identity = avi.getAbsolutePath() + "|" + avi.length() + "|" + avi.lastModified();
+
+		// 64 bit FNV-1a. A collision is caught by the identity in the header
+		long hash = 0xcbf29ce484222325L;
+		for(byte b: identity.getBytes(StandardCharsets.UTF_8)) {
+			hash = (hash ^ (b & 0xff))*0x100000001b3L;
+		}
+		return new File(cacheDirectory, avi.getName() + "-" + String.format("%016x", hash) + EXTENSION);
+	}
+
+	private static int dataOffset(int pathBytes) {
+		int header = HEADER_BYTES + pathBytes;
+		return (header + DATA_ALIGNMENT - 1)/DATA_ALIGNMENT*DATA_ALIGNMENT;
+	}
+
+	// Writes the frames to the entry. False if they aren't a pixel type that is kept or don't fit in the cache
+	static boolean store(File entry, File avi, ImageStack frames) throws IOException {
+
+		int bitDepth = frames.getProcessor(1).getBitDepth();
+		if(bitDepth != 8 && bitDepth != 16 && bitDepth != 32) return false;
+
+		int width = frames.getWidth();
+		int height = frames.getHeight();
+		long frameBytes = (long)width*height*(bitDepth/8);
+		byte[] path = avi.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+		int dataOffset = dataOffset(path.length);
+		if(dataOffset + frameBytes*frames.size() > maxBytes || frameBytes > Integer.MAX_VALUE) return false;
+
+		File parent = entry.getAbsoluteFile().getParentFile();
+		if(!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Could not create " + parent);
+		}
+
+		// Written next to the entry and moved into place so a reader never sees part of one
+		File temp = File.createTempFile(entry.getName(), ".tmp", parent);
+		try {
+			try (RandomAccessFile raf = new RandomAccessFile(temp, "rw"); FileChannel channel = raf.getChannel()) {
+
+				ByteBuffer header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+				header.put(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(bitDepth).putInt(frames.size())
+						.putInt(path.length).putLong(avi.length()).putLong(avi.lastModified()).put(path);
+				header.clear();
+				writeFully(channel, header);
+
+				ByteBuffer buffer = ByteBuffer.allocateDirect((int)frameBytes).order(ByteOrder.LITTLE_ENDIAN);
+				for(int n = 1; n <= frames.size(); n++) {
+					ImageProcessor ip = frames.getProcessor(n);
+					if(ip.getWidth() != width || ip.getHeight() != height || ip.getBitDepth() != bitDepth) {
+						throw new IOException("Frame " + n + " of " + avi.getName() + " isn't the size and type of the first");
+					}
+
+					buffer.clear();
+					Object pixels = ip.getPixels();
+					if(pixels instanceof byte[]) buffer.put((byte[])pixels);
+					else if(pixels instanceof short[]) buffer.asShortBuffer().put((short[])pixels);
+					else buffer.asFloatBuffer().put((float[])pixels);
+					buffer.position(0).limit((int)frameBytes);
+					writeFully(channel, buffer);
+				}
+			}
+			Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+		return true;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	// Mapped frames of the entry, or null if it was made from a different file than the avi is now.
+	// An IOException if the entry is damaged
+	static ImageStack map(File entry, File avi) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(entry, "r"); FileChannel channel = raf.getChannel()) {
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			while(header.hasRemaining() && channel.read(header) >= 0) {}
+			if(header.hasRemaining()) throw new IOException(entry + " is not a frame cache entry");
+			header.flip();
+
+			byte[] magic = new byte[MAGIC.length];
+			header.get(magic);
+			if(!Arrays.equals(magic, MAGIC)) throw new IOException(entry + " is not a frame cache entry");
+			int version = header.getInt();
+			if(version != VERSION) throw new IOException(entry + " is version " + version + " instead of " + VERSION);
+
+			int width = header.getInt();
+			int height = header.getInt();
+			int bitDepth = header.getInt();
+			int nFrames = header.getInt();
+			int pathBytes = header.getInt();
+			long aviLength = header.getLong();
+			long aviModified = header.getLong();
+
+			if(width <= 0 || height <= 0 || nFrames < 0 || (bitDepth != 8 && bitDepth != 16 && bitDepth != 32)) {
+				throw new IOException(entry + " has a damaged header: " + width + "x" + height + ", " + bitDepth + " bit, " + nFrames + " frames");
+			}
+			if(pathBytes < 0 || pathBytes > channel.size() - HEADER_BYTES) {
+				throw new IOException(entry + " has a damaged header: path of " + pathBytes + " bytes");
+			}
+			long frameBytes = (long)width*height*(bitDepth/8);
+			if(frameBytes > Integer.MAX_VALUE) {
+				throw new IOException(entry + " has a damaged header: frames of " + frameBytes + " bytes");
+			}
+
+			ByteBuffer path = ByteBuffer.allocate(pathBytes);
+			while(path.hasRemaining() && channel.read(path) >= 0) {}
+			if(path.hasRemaining()) throw new IOException(entry + " ends in its header");
+			if(aviLength != avi.length() || aviModified != avi.lastModified()
+					|| !new String(path.array(), StandardCharsets.UTF_8).equals(avi.getAbsolutePath())) {
+				return null;
+			}
+
+			long dataOffset = dataOffset(pathBytes);
+			if(channel.size() != dataOffset + frameBytes*nFrames) {
+				throw new IOException(entry + " is " + channel.size() + " bytes instead of " + (dataOffset + frameBytes*nFrames));
+			}
+
+			// A mapping is at most 2 GB so long recordings take several
+			int framesPerMap = (int)(Integer.MAX_VALUE/frameBytes);
+			MappedByteBuffer[] maps = new MappedByteBuffer[(nFrames + framesPerMap - 1)/framesPerMap];
+			for(int m = 0; m < maps.length; m++) {
+				int frames = Math.min(framesPerMap, nFrames - m*framesPerMap);
+				maps[m] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + (long)m*framesPerMap*frameBytes, (long)frames*frameBytes);
+			}
+			return new MappedFrames(avi, width, height, bitDepth, nFrames, maps, framesPerMap);
+		}
+	}
+
+	// Removes the least recently used entries, other than the one kept, until the directory fits.
+	// An entry that can't be removed, like one still mapped on Windows, still counts toward the size so newer
+	// ones go in its place, and is tried again on the next eviction
+	static synchronized void evict(File cacheDirectory, File keep) {
+		File[] entries = cacheDirectory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+		if(entries == null) return;
+
+		long total = 0;
+		for(File entry: entries) {
+			total += entry.length();
+		}
+
+		Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+		for(File entry: entries) {
+			if(total <= maxBytes) break;
+			if(entry.equals(keep)) continue;
+			long length = entry.length();
+			if(entry.delete()) {
+				total -= length;
+			} else {
+				IJ.log("Cached frames " + entry.getName() + " could not be removed, they may still be open");
+			}
+		}
+	}
+
+	// Frames are copied out of the mapping into a new processor each time, the same as a decoding reader
+	private static class MappedFrames extends VirtualStack {
+
+		private final File avi;
+		private final int bitDepth;
+		private final int nFrames;
+		private final MappedByteBuffer[] maps;
+		private final int framesPerMap;
+
+		MappedFrames(File avi, int width, int height, int bitDepth, int nFrames, MappedByteBuffer[] maps, int framesPerMap) {
+			super(width, height);
+			this.avi = avi;
+			this.bitDepth = bitDepth;
+			this.nFrames = nFrames;
+			this.maps = maps;
+			this.framesPerMap = framesPerMap;
+		}
+
+		// Each call reads through its own view of the mapping so frames can be read from many threads
+		@Override
+		public ImageProcessor getProcessor(int n) {
+			if(n < 1 || n > nFrames) {
+				throw new IllegalArgumentException("Slice " + n + " out of range 1-" + nFrames);
+			}
+			int width = getWidth();
+			int height = getHeight();
+			int pixels = width*height;
+
+			ByteBuffer frame = maps[(n-1)/framesPerMap].duplicate();
+			frame.position((n-1)%framesPerMap*pixels*(bitDepth/8));
+			frame.order(ByteOrder.LITTLE_ENDIAN);
+
+			switch(bitDepth) {
+			case 8:
+				byte[] bytes = new byte[pixels];
+				frame.get(bytes);
+				return new ByteProcessor(width, height, bytes);
+			case 16:
+				short[] shorts = new short[pixels];
+				frame.asShortBuffer().get(shorts);
+				return new ShortProcessor(width, height, shorts, null);
+			default:
+				float[] floats = new float[pixels];
+				frame.asFloatBuffer().get(floats);
+				return new FloatProcessor(width, height, floats);
+			}
+		}
+
+		@Override
+		public Object getPixels(int n) {
+			return getProcessor(n).getPixels();
+		}
+
+		@Override
+		public int getSize() {
+			return nFrames;
+		}
+
+		@Override
+		public int size() {
+			return nFrames;
+		}
+
+		@Override
+		public String getSliceLabel(int n) {
+			return avi.getName() + ":" + n;
+		}
+
+		@Override
+		public int getBitDepth() {
+			return bitDepth;
+		}
+
+		@Override
+		public void deleteSlice(int n) {
+			throw new UnsupportedOperationException("Frames can't be removed from a recording");
+		}
+	}
+}
@@ -0,0 +1,261 @@
+package com.zachRoot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.ImageStack;
+import ij.Prefs;
+import ij.process.ImageProcessor;
+
+// Tracks frames in three stages joined by bounded queues so reading frames, tracking them and using the results
+// all overlap. Decode threads read runs of frames ahead into the decoded queue, tracking threads take runs from it
+// and pass them to the tracked queue, and the thread that runs the pipeline hands them to a consumer in frame order.
+//
+// A full queue holds back the stage before it, so only about (decoded queue depth + tracking threads) runs of
+// frames are ever in memory. How full each queue was is recorded in the run's metrics: a decoded queue that is
+// mostly full means tracking is the slow stage, one that is mostly empty when taken from means decoding is,
+// and a tracked queue that is mostly full means the consumer is.
+//
+// The threads are started by the first run and kept for the runs after it until the pipeline is closed, so a
+// session that tracks its frames in several blocks doesn't start new threads for each one.
+//
+// Defaults come from pipeline.decodeThreads, pipeline.decodeQueue and pipeline.trackedQueue in ImageJ's preferences
+public class FramePipeline implements Closeable {
+
+	// Frames in each run. Runs start at slices 1, RUN_FRAMES + 1, 2*RUN_FRAMES + 1 and so on wherever the pipeline
+	// starts, and each is tracked in order by one thread, so a session's predictions never cross from one run to the next
+	static final int RUN_FRAMES = 32;
+
+	// How often the consumer checks whether a stage has failed while it waits
+	private static final long POLL_MILLIS = 100;
+
+	private static volatile int defaultDecodeThreads = (int)Prefs.get("pipeline.decodeThreads", 1);
+	private static volatile int defaultDecodeQueueDepth = (int)Prefs.get("pipeline.decodeQueue", 16);
+	private static volatile int defaultTrackedQueueDepth = (int)Prefs.get("pipeline.trackedQueue", 16);
+
+	// Called with slices first to last once they and every slice before them are tracked
+	public interface Consumer {
+		void accept(int first, int last) throws IOException;
+	}
+
+	private final int trackingThreads;
+	private int decodeThreads = defaultDecodeThreads;
+	private int decodeQueueDepth = defaultDecodeQueueDepth;
+	private int trackedQueueDepth = defaultTrackedQueueDepth;
+
+	// Decode and tracking threads, null until the first run and after close
+	private ExecutorService pool;
+
+	public FramePipeline(int trackingThreads) {
+		this.trackingThreads = Math.max(1, trackingThreads);
+	}
+
+	public static void setDefaultDecodeThreads(int threads) {
+		defaultDecodeThreads = atLeastOne(threads, "Decode threads");
+	}
+
+	// Queue depths are in runs of RUN_FRAMES frames
+	public static void setDefaultDecodeQueueDepth(int runs) {
+		defaultDecodeQueueDepth = atLeastOne(runs, "Decoded queue depth");
+	}
+
+	public static void setDefaultTrackedQueueDepth(int runs) {
+		defaultTrackedQueueDepth = atLeastOne(runs, "Tracked queue depth");
+	}
+
+	private static int atLeastOne(int value, String name) {
+		if(value < 1) throw new IllegalArgumentException(name + " must be at least 1: " + value);
+		return value;
+	}
+
+	// Only helps stacks that can be read from several threads at once, like mapped avis. Set before the first run
+	public FramePipeline setDecodeThreads(int threads) {
+		decodeThreads = atLeastOne(threads, "Decode threads");
+		return this;
+	}
+
+	public FramePipeline setDecodeQueueDepth(int runs) {
+		decodeQueueDepth = atLeastOne(runs, "Decoded queue depth");
+		return this;
+	}
+
+	public FramePipeline setTrackedQueueDepth(int runs) {
+		trackedQueueDepth = atLeastOne(runs, "Tracked queue depth");
+		return this;
+	}
+
+	public int getTrackingThreads() {
+		return trackingThreads;
+	}
+
+	public int getDecodeThreads() {
+		return decodeThreads;
+	}
+
+	// A run of consecutive frames. The frames are let go of once they are tracked
+	private static class Run {
+		final int first;
+		final int length;
+		ImageProcessor[] frames;
+
+		Run(int first, ImageProcessor[] frames) {
+			this.first = first;
+			this.length = frames.length;
+			this.frames = frames;
+		}
+	}
+
+	// Tells the tracking threads there is nothing more to decode
+	private static final Run END = new Run(0, new ImageProcessor[0]);
+
+	// Runs task on slices first to last of the stack and gives them to the consumer in order on this thread.
+	// Runs can't overlap
+	void run(ImageStack stack, int first, int last, TrackingSession.FrameTask task, TrackingMetrics metrics, Consumer consumer) throws IOException {
+
+		int nFrames = last - first + 1;
+		if(nFrames <= 0) return;
+		// Run boundaries stay at the same slices when the pipeline starts partway, like after a checkpoint
+		int firstRunStart = first - (first - 1) % RUN_FRAMES;
+		int nRuns = (last - firstRunStart)/RUN_FRAMES + 1;
+
+		BlockingQueue<Run> decoded = new ArrayBlockingQueue<>(decodeQueueDepth);
+		BlockingQueue<Run> tracked = new ArrayBlockingQueue<>(trackedQueueDepth);
+		metrics.setQueueDepth(TrackingMetrics.Queue.DECODED, decodeQueueDepth);
+		metrics.setQueueDepth(TrackingMetrics.Queue.TRACKED, trackedQueueDepth);
+
+		AtomicInteger nextRun = new AtomicInteger();
+		AtomicInteger decodersLeft = new AtomicInteger(decodeThreads);
+
+		if(pool == null) pool = Executors.newFixedThreadPool(decodeThreads + trackingThreads);
+		List<Future<?>> stages = new ArrayList<>();
+		try {
+			for(int d = 0; d < decodeThreads; d++) {
+				stages.add(pool.submit(() -> {
+					try {
+						decode(stack, first, last, firstRunStart, nRuns, nextRun, decoded, metrics);
+					} finally {
+						metrics.threadDone();
+					}
+					if(decodersLeft.decrementAndGet() == 0) {
+						for(int t = 0; t < trackingThreads; t++) decoded.put(END);
+					}
+					return null;
+				}));
+			}
+
+			for(int t = 0; t < trackingThreads; t++) {
+				stages.add(pool.submit(() -> {
+					try {
+						track(decoded, tracked, task, metrics);
+					} finally {
+						metrics.threadDone();
+					}
+					return null;
+				}));
+			}
+
+			// Runs tracked out of order wait for the ones before them
+			TreeMap<Integer, Run> waiting = new TreeMap<>();
+			int next = first;
+			while(next <= last) {
+				Run run = takeTracked(tracked, metrics, stages);
+				waiting.put(run.first, run);
+				while(!waiting.isEmpty() && waiting.firstKey() == next) {
+					Run ready = waiting.pollFirstEntry().getValue();
+					if(consumer != null) consumer.accept(ready.first, ready.first + ready.length - 1);
+					next += ready.length;
+				}
+			}
+
+			// Every thread has its histograms in the metrics once the run is over
+			for(Future<?> stage: stages) {
+				stage.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Tracking was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Tracking failed", e.getCause());
+		} finally {
+			// Stops the stages of a run that failed, the threads are kept for the next run
+			for(Future<?> stage: stages) {
+				stage.cancel(true);
+			}
+		}
+	}
+
+	// Stops the threads. The next run starts new ones
+	@Override
+	public void close() {
+		if(pool == null) return;
+		pool.shutdownNow();
+		pool = null;
+	}
+
+	private static void decode(ImageStack stack, int first, int last, int firstRunStart, int nRuns, AtomicInteger nextRun,
+			BlockingQueue<Run> decoded, TrackingMetrics metrics) throws InterruptedException {
+		for(int r = nextRun.getAndIncrement(); r < nRuns; r = nextRun.getAndIncrement()) {
+			int runFirst = Math.max(first, firstRunStart + r*RUN_FRAMES);
+			int runLast = Math.min(last, firstRunStart + (r+1)*RUN_FRAMES - 1);
+			ImageProcessor[] frames = new ImageProcessor[runLast - runFirst + 1];
+			for(int i = 0; i < frames.length; i++) {
+				frames[i] = TrackingSession.readFrame(stack, runFirst + i, metrics);
+			}
+			put(decoded, new Run(runFirst, frames), TrackingMetrics.Queue.DECODED, metrics);
+		}
+	}
+
+	private static void track(BlockingQueue<Run> decoded, BlockingQueue<Run> tracked, TrackingSession.FrameTask task, TrackingMetrics metrics)
+			throws InterruptedException {
+		while(true) {
+			Run run = decoded.poll();
+			boolean waited = run == null;
+			if(waited) run = decoded.take();
+			if(run == END) return;
+			metrics.recordTake(TrackingMetrics.Queue.DECODED, waited);
+
+			for(int i = 0; i < run.length; i++) {
+				task.process(run.frames[i], run.first + i);
+			}
+			run.frames = null;
+			put(tracked, run, TrackingMetrics.Queue.TRACKED, metrics);
+		}
+	}
+
+	// Waits for the next tracked run, checking that no stage has failed while it does
+	private static Run takeTracked(BlockingQueue<Run> tracked, TrackingMetrics metrics, List<Future<?>> stages) throws InterruptedException {
+		Run run = tracked.poll();
+		boolean waited = run == null;
+		while(run == null) {
+			for(Future<?> stage: stages) {
+				if(!stage.isDone()) continue;
+				try {
+					stage.get();
+				} catch (ExecutionException e) {
+					throw new RuntimeException("Tracking failed", e.getCause());
+				}
+			}
+			run = tracked.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		metrics.recordTake(TrackingMetrics.Queue.TRACKED, waited);
+		return run;
+	}
+
+	private static void put(BlockingQueue<Run> queue, Run run, TrackingMetrics.Queue name, TrackingMetrics metrics) throws InterruptedException {
+		int occupancy = queue.size();
+		boolean full = !queue.offer(run);
+		if(full) queue.put(run);
+		metrics.recordPut(name, occupancy, full);
+	}
+}
@@ -1,28 +1,24 @@
 package com.zachRoot;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 
 import ij.IJ;
 import ij.ImagePlus;
 import ij.gui.GenericDialog;
-import ij.gui.OvalRoi;
 import ij.gui.Overlay;
 import ij.gui.Roi;
-import ij.io.FileSaver;
-import ij.process.FloatProcessor;
 
 public class Gui {
 	
-	// Center Roi values for UI
-	private static int centerRoiWidth = 10;
-	private static int centerRoiHeight = 10;
-	
+	// Localizers offered in the dialogs, by the names BeadLocalizer.forName takes
+	static final String[] LOCALIZER_NAMES = BeadLocalizer.NAMES;
+	static final String[] LOCALIZER_LABELS = {"Cross correlation", "Center of mass", "Quadrant interpolation"};
 	
 	// directory_path is the default go to
-	public static void promptUserToSaveZLut(String directory_path) {
+	public static void promptUserToSaveZLut(String directory_path, Zlut zlut) {
 		
 		GenericDialog g = new GenericDialog("Save ZLUT?");
 		g.addMessage("Select a folder to save the ZLUT to");
@@ -35,32 +31,133 @@ public class Gui {
 		
 		directory_path = g.getNextString();
 		
-		//Save ZLUT
-		FileSaver f = new FileSaver(new ImagePlus("ZLUT", new FloatProcessor(ZPositioning.zlut)));
-		f.saveAsTiff(directory_path + "ZLUT.tif");
+		try {
+			ZlutFile.write(zlut, new File(directory_path, ZlutFile.FILE_NAME));
+		}
+		catch(IOException e){
+			IJ.showMessage("ZLUT could not be saved");
+		}
+		
+		return;
+	}
+	
+	// Same for the zluts of bead regions, each saved under the name of its region. Null zluts are skipped
+	public static void promptUserToSaveZLuts(String directory_path, Rectangle[] regions, Zlut[] zluts) {
+		
+		GenericDialog g = new GenericDialog("Save ZLUTs?");
+		g.addMessage("Select a folder to save the ZLUTs of the " + regions.length + " new bead regions to");
+		g.addDirectoryField("Directory", directory_path);
+		g.showDialog();
+		
+		if(g.wasCanceled()) {
+			return;
+		}
 		
-		//Save Heights
-		String zlutHeightsPath = directory_path + "zlutHeights.csv";
-		File zlutHeightsfile = new File(zlutHeightsPath); 
+		directory_path = g.getNextString();
 		
 		try {
-			FileWriter outputfile = new FileWriter(zlutHeightsfile); 
-			String output = "";
-			
-			for(double i: ZPositioning.zlutHeights) {
-				output += i + ",";
+			for(int r = 0; r < regions.length; r++) {
+				if(zluts[r] == null) continue;
+				ZlutFile.write(zluts[r], new File(directory_path, ZlutFile.fileNameFor(regions[r])));
 			}
-			
-			outputfile.write(output);
-			outputfile.close();
 		}
 		catch(IOException e){
-			IJ.showMessage("ZLUT could not be saved");
+			IJ.showMessage("ZLUTs could not be saved");
 		}
+	}
+	
+	// File the results are saved to as they are tracked, null if canceled. An existing file is only written over when the
+	// user agrees, or when it has a checkpoint next to it since that run was stopped and this one carries it on
+	public static File promptUserForResultsFile(File defaultFile) {
 		
-		return;
+		GenericDialog g = new GenericDialog("Save results?");
+		g.addMessage("Select a file to save the results to as they are tracked, or cancel to not save them");
+		g.addFileField("File", defaultFile.getPath());
+		g.showDialog();
+		
+		if(g.wasCanceled()) {
+			return null;
+		}
+		
+		File file = new File(g.getNextString());
+		if(file.exists() && !BatchRunner.siblingFile(file, ".checkpoint").exists()
+				&& !IJ.showMessageWithCancel("Save results?", file + " already exists. Write over it?")) {
+			return null;
+		}
+		return file;
 	}
 	
+	// defaultName is one of LOCALIZER_NAMES. Null if canceled
+	public static BeadLocalizer getLocalizerFromUser(String title, String defaultName) {
+		
+		GenericDialog g = new GenericDialog(title);
+		g.addMessage("Center of mass is the fastest, cross correlation and quadrant interpolation are more accurate");
+		g.addChoice("XY localizer", LOCALIZER_LABELS, labelOf(defaultName));
+		g.showDialog();
+		
+		if(g.wasCanceled()) {
+			return null;
+		}
+		
+		return BeadLocalizer.forName(LOCALIZER_NAMES[g.getNextChoiceIndex()]);
+	}
+	
+	private static String labelOf(String localizerName) {
+		for(int i = 0; i < LOCALIZER_NAMES.length; i++) {
+			if(LOCALIZER_NAMES[i].equals(localizerName)) return LOCALIZER_LABELS[i];
+		}
+		return LOCALIZER_LABELS[0];
+	}
+	
+	// Settings for tracking several beads in one field of view
+	public static class MultiBeadSettings {
+		public int roiSize = 64;
+		public int maxBeads = 100;
+		public double threshold = 3;
+		public int recenterInterval = 100;
+		// One of LOCALIZER_NAMES
+		public String localizer = "xcor";
+	}
+	
+	// Null if canceled
+	public static MultiBeadSettings getMultiBeadSettingsFromUser() {
+		
+		MultiBeadSettings settings = new MultiBeadSettings();
+		
+		GenericDialog g = new GenericDialog("Multiple Beads");
+		g.addNumericField("Bead region size (px)", settings.roiSize, 0);
+		g.addNumericField("Maximum beads", settings.maxBeads, 0);
+		g.addNumericField("Detection threshold (sd)", settings.threshold, 1);
+		g.addNumericField("Recenter every (frames, 0 = never)", settings.recenterInterval, 0);
+		g.addChoice("XY localizer", LOCALIZER_LABELS, labelOf(settings.localizer));
+		g.showDialog();
+		
+		if(g.wasCanceled()) {
+			return null;
+		}
+		
+		settings.roiSize = (int)g.getNextNumber();
+		settings.maxBeads = (int)g.getNextNumber();
+		settings.threshold = g.getNextNumber();
+		settings.recenterInterval = (int)g.getNextNumber();
+		settings.localizer = LOCALIZER_NAMES[g.getNextChoiceIndex()];
+		
+		return settings;
+	}
+	
+	public static void addRoiToOverlay(ImagePlus image, Rectangle roi, String label) {
+		if(image.getOverlay() == null) image.setOverlay(new Overlay());
+		
+		Roi region = new Roi(roi);
+		region.setStrokeColor(Color.YELLOW);
+		region.setName(label);
+		
+		image.getOverlay().add(region);
+		image.getOverlay().drawLabels(true);
+		image.getOverlay().drawNames(true);
+	}
+	
+	// Null if canceled
 	public static String getDirectoryFromUser(String title, String message) {
 		
 		GenericDialog g = new GenericDialog(title);
@@ -70,25 +167,20 @@ public class Gui {
 		g.addDirectoryField("Directory", "C:\\Users\\");
 		g.showDialog();
 		
+		if(g.wasCanceled()) {
+			return null;
+		}
 		
 		return g.getNextString();
 		
 	}
 	
     
-	public static void addPointToOverlay(ImagePlus image, double[] xyCord, int sliceNumber) {
-		// Create new overlay if one doesn't exist
+	// Circles the tracked beads on whichever slice is shown, drawn from the result arrays
+	public static void addMarkersToOverlay(ImagePlus image, double[][] x_cords, double[][] y_cords) {
 		if(image.getOverlay() == null) image.setOverlay(new Overlay());
 		
-		// New Circle around the center of the point
-		Roi centerPoint = new OvalRoi(xyCord[0]-centerRoiWidth/2, xyCord[1]-centerRoiHeight/2,centerRoiWidth,centerRoiHeight);
-		
-		// Set time position
-		centerPoint.setPosition(sliceNumber);
-		
-		centerPoint.setStrokeColor(Color.GREEN);
-		
-		image.getOverlay().add(centerPoint);
-		
+		image.getOverlay().add(new BeadMarkerRoi(image, x_cords, y_cords));
+		image.updateAndDraw();
 	}
 }
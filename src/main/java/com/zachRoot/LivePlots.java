@@ -0,0 +1,34 @@
+package com.zachRoot;
+
+// Z and XY plots of a series that is still growing. Made on the first update and redrawn on every update after
+public class LivePlots {
+
+	private final String zTitle;
+	private final String xyTitle;
+	private TracePlot zPlot;
+	private TracePlot xyPlot;
+
+	public LivePlots() {
+		this("Z Tracking (live)", "XY Tracking (live)");
+	}
+
+	public LivePlots(String zTitle, String xyTitle) {
+		this.zTitle = zTitle;
+		this.xyTitle = xyTitle;
+	}
+
+	public synchronized void update(ResultSeries series) {
+
+		if(zPlot == null) {
+			zPlot = TracePlot.z(zTitle, series);
+			zPlot.show();
+
+			xyPlot = TracePlot.xy(xyTitle, series);
+			xyPlot.show();
+			return;
+		}
+
+		zPlot.refresh();
+		xyPlot.refresh();
+	}
+}
@@ -1,8 +1,12 @@
 package com.zachRoot;
 
+import java.awt.Color;
+import java.awt.Rectangle;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.IllegalFormatException;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -10,9 +14,9 @@ import ij.IJ;
 import ij.ImageJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.Prefs;
 import ij.WindowManager;
 import ij.gui.Plot;
-import ij.plugin.AVI_Reader;
 import ij.plugin.PlugIn;
 import ij.process.ImageProcessor;
 
@@ -20,17 +24,17 @@ import ij.process.ImageProcessor;
 
 public class MagneticBead implements PlugIn {
 	
+	// Results of a watched folder, named apart from BatchRunner's tracking.csv
+	static final String WATCH_RESULT_FILE_NAME = "watch.csv";
+	
+	// Results of a recording the plugin tracked, offered when saving them. Also apart from BatchRunner's files
+	static final String RESULT_FILE_NAME = "results.csv";
+	
 	//Image attributes
-	protected static ImagePlus image;
+	private ImagePlus image;
 	private int width;
 	private int height;
 	
-	
-	// List of positions for the image 
-	private static double[]  z_cords;
-	private static double[]  x_cords;
-	private static double[]  y_cords;
-	
 	//To do implement
 	//private String length_unit;
 	
@@ -43,6 +47,11 @@ public class MagneticBead implements PlugIn {
 			return;
 		}
 		
+		if (arg.equals("watch")) {
+			runWatchFolder();
+			return;
+		}
+		
 		image = WindowManager.getCurrentImage();
 		
 		// no image found
@@ -59,63 +68,257 @@ public class MagneticBead implements PlugIn {
 		image.show();
 		
 		initializeVariables();
+		
+		if (arg.equals("multi")) {
+			runMultiBead();
+			return;
+		}
+		
 		validateImage();
 		
-		ZPositioning.createZlut(image);
-		processStack(image.getStack());
-		display();
+		BeadLocalizer localizer = Gui.getLocalizerFromUser("Tracking", "xcor");
+		if(localizer == null) return;
+		
+		// Saving is up to the user, recordings read from disk are offered a file next to them
+		File results = null;
+		if(image.getStack() instanceof AviSequenceStack) {
+			results = Gui.promptUserForResultsFile(defaultResultsFile(((AviSequenceStack)image.getStack()).getDirectory()));
+		}
+		
+		// Plots fill in while the frames are tracked
+		TrackingSession session = analyze(image, localizer, results, new ResultSeries(), new LivePlots("Z Tracking", "XY Tracking"));
+		if(session != null) display(session);
 		
 	}
 	
-
-
-	// Displays the x vs y position and z position vs frame number on a plot
-	private void display() {
+	
+	// Creates the zlut for the image and tracks every frame of its stack
+	public static TrackingSession analyze(ImagePlus image) {
+		return analyze(image, new CrossCorrelationLocalizer(), null, null, null);
+	}
+	
+	// Same with the given localizer, saving the results to the file, appending the frames to the series and redrawing
+	// the plots as they are tracked when they aren't null. The file is written over. Decoding and tracking run on their
+	// own threads ahead of the results, see FramePipeline
+	public static TrackingSession analyze(ImagePlus image, BeadLocalizer localizer, File results, ResultSeries series, LivePlots plots) {
 		
-		double[] indexes = new double[z_cords.length];
+		Zlut zlut = ZPositioning.createZlut(image, localizer);
+		if(zlut == null) return null;
+		
+		TrackingSession session = new TrackingSession(image, zlut).setLocalizer(localizer);
+		
+		// One marker roi draws the bead of whichever slice is shown, as soon as that slice is tracked
+		Gui.addMarkersToOverlay(image, new double[][] {session.getXCords()}, new double[][] {session.getYCords()});
+		
+		ImageStack stack = image.getStack();
+		
+		// Saved results keep a checkpoint next to them so tracking can pick up again after Fiji is closed
+		ResultSink sink = null;
+		if(results != null) {
+			session.setCheckpoint(BatchRunner.siblingFile(results, ".checkpoint"));
+			try {
+				sink = ResultSink.open(results);
+			} catch (IOException e) {
+				IJ.log("Results can't be saved to " + results + ", tracking without saving them: " + e.getMessage());
+			}
+		}
+		
+		ResultsConsumer consumer = new ResultsConsumer(image, session, series, plots, sink);
+		try (FramePipeline pipeline = new FramePipeline(Prefs.getThreads())) {
+			session.processStack(stack, pipeline, consumer);
+			consumer.finish();
+		} catch (IOException e) {
+			// The frames are still tracked, only the file is short
+			IJ.showMessage("Results could not be saved: " + e.getMessage());
+		} finally {
+			consumer.close();
+		}
+		
+		return session;
+	}
 	
-		for(int i = 0; i<z_cords.length; i++) {
-			indexes[i] = i;
+	// results.csv in the directory, unless it exists without a checkpoint to carry on from. Then the first free results-N.csv
+	static File defaultResultsFile(File directory) {
+		File results = new File(directory, RESULT_FILE_NAME);
+		if(BatchRunner.siblingFile(results, ".checkpoint").exists()) return results;
+		return ResultSink.unusedFile(results);
+	}
+	
+	// Last stage of the pipeline: the overlay, plots and result file, given frames in order as they are tracked
+	private static class ResultsConsumer implements FramePipeline.Consumer {
+		
+		// Plots are redrawn at most this often since redrawing takes longer than tracking a run of frames
+		private static final long PLOT_INTERVAL_MILLIS = 500;
+		
+		private final ImagePlus image;
+		private final TrackingSession session;
+		private final ResultSeries series;
+		private final LivePlots plots;
+		private final ResultSink sink;
+		private long lastPlotted = 0;
+		
+		ResultsConsumer(ImagePlus image, TrackingSession session, ResultSeries series, LivePlots plots, ResultSink sink) {
+			this.image = image;
+			this.session = session;
+			this.series = series;
+			this.plots = plots;
+			this.sink = sink;
 		}
-
-		Plot p = new Plot("Z Tracking", "Frame number", "Z Coordinate");
-		p.add("line", indexes, z_cords);
-		p.show();
 		
-		p = new Plot("XY Tracking", "X Coordinate", "Y Coordinate");
-		p.add("line", x_cords, y_cords);
-		p.show();
+		@Override
+		public void accept(int first, int last) throws IOException {
+			if(sink != null) session.writeFrames(image.getStack(), first, last, sink);
+			
+			// The markers read the result arrays so the slice being shown only needs drawing again
+			int shown = image.getCurrentSlice();
+			if(shown >= first && shown <= last) image.updateAndDraw();
+			
+			if(series == null) return;
+			series.append(session, first, last);
+			
+			long now = System.currentTimeMillis();
+			if(plots != null && now - lastPlotted >= PLOT_INTERVAL_MILLIS) {
+				plots.update(series);
+				lastPlotted = now;
+			}
+			IJ.showProgress(last, session.size());
+		}
 		
+		// Draws the plots with every frame and flushes the results
+		void finish() throws IOException {
+			if(sink != null) sink.flush();
+			if(plots != null && series != null) plots.update(series);
+			IJ.showProgress(1.0);
+		}
+		
+		void close() {
+			if(sink == null) return;
+			try {
+				sink.close();
+			} catch (IOException e) {
+				IJ.log("Results file could not be closed: " + e.getMessage());
+			}
+		}
 	}
 
-	public void processStack(ImageStack stack) {
-		//Start at one and process each frame in stack
-		for(int i = 1; i<=stack.size(); i++ ) {
-			processIP(stack.getProcessor(i), i);
+
+	// Tracks chunks as the camera writes them into a folder until Esc is pressed
+	private void runWatchFolder() {
+		
+		String directory_path = Gui.getDirectoryFromUser("Select Folder to Watch", "Select the folder the camera is recording into. Tracking continues until Esc is pressed.");
+		if(directory_path == null) return;
+		
+		// The center of mass localizer keeps up with the camera best, so it is offered first for the preview
+		BeadLocalizer localizer = Gui.getLocalizerFromUser("Watch Folder", "com");
+		if(localizer == null) return;
+		
+		WatchFolderTracker tracker = new WatchFolderTracker(new File(directory_path), image -> ZPositioning.createZlut(image, localizer), Prefs.getThreads())
+				.setLocalizer(localizer);
+		
+		LivePlots plots = new LivePlots();
+		tracker.addListener((series, firstNewFrame, chunkName, latencyMillis) -> {
+			plots.update(series);
+			IJ.showStatus(chunkName + ": " + series.size() + " frames tracked, " + latencyMillis + " ms behind. Esc to stop");
+			if(IJ.escapePressed()) tracker.stop();
+		});
+		
+		// Esc has to stop the watch between chunks too
+		Thread escape = new Thread(() -> {
+			while(!Thread.currentThread().isInterrupted()) {
+				if(IJ.escapePressed()) {
+					tracker.stop();
+					return;
+				}
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}, "Watch folder escape");
+		escape.setDaemon(true);
+		
+		// Results are saved as they come in so a crash doesn't lose the experiment. A restarted watch tracks every
+		// chunk again into a new file, leaving the results of the last watch and of BatchRunner's tracking.csv alone
+		File results = ResultSink.unusedFile(new File(directory_path, WATCH_RESULT_FILE_NAME));
+		
+		IJ.resetEscape();
+		escape.start();
+		try (ResultSink sink = ResultSink.open(results)) {
+			tracker.setSink(sink);
+			IJ.log("Watch folder: saving results to " + results);
+			tracker.run();
+		} catch (IOException e) {
+			IJ.showMessage("Could not watch " + directory_path + ": " + e.getMessage());
+		} finally {
+			escape.interrupt();
 		}
 	}
 	
-
-	public void processIP(ImageProcessor ip, int slice) {
+	// Finds every bead in the first frame and tracks them all in one pass over the stack
+	private void runMultiBead() {
 		
-		double[] xyCordSubPixel = XYPositioning.getBeadCenter(image, ip);
+		Gui.MultiBeadSettings settings = Gui.getMultiBeadSettingsFromUser();
+		if(settings == null) return;
 		
-		Gui.addPointToOverlay(image, xyCordSubPixel, slice);
+		List<Rectangle> found = BeadDetector.detect(image.getStack().getProcessor(1), settings.roiSize, settings.maxBeads, settings.threshold);
+		if(found.isEmpty()) {
+			IJ.showMessage("No beads were found in the first frame");
+			return;
+		}
+		Rectangle[] rois = found.toArray(new Rectangle[0]);
 		
-		double zCord = ZPositioning.calculateZCord(xyCordSubPixel, ip); 
-				
-		//slice is 1-indexed so -1 to convert to 0 indexed 
-		z_cords[slice-1] = zCord;
-		x_cords[slice-1] = xyCordSubPixel[0];
-		y_cords[slice-1] = xyCordSubPixel[1];
-}
+		for(int b = 0; b < rois.length; b++) {
+			Gui.addRoiToOverlay(image, rois[b], "Bead " + (b+1));
+		}
+		
+		BeadLocalizer localizer = BeadLocalizer.forName(settings.localizer);
+		Zlut[] zluts = ZPositioning.createZluts(image, rois, localizer);
+		if(zluts == null) return;
+		
+		MultiBeadSession session = new MultiBeadSession(image, rois, zluts).setLocalizer(localizer);
+		session.processStack(image.getStack(), Prefs.getThreads(), settings.recenterInterval);
+		
+		double[][] x_cords = new double[session.getBeadCount()][];
+		double[][] y_cords = new double[session.getBeadCount()][];
+		for(int b = 0; b < session.getBeadCount(); b++) {
+			x_cords[b] = session.getXCords(b);
+			y_cords[b] = session.getYCords(b);
+		}
+		Gui.addMarkersToOverlay(image, x_cords, y_cords);
+		
+		display(session);
+	}
+	
+	// One z plot with a line per bead
+	private static void display(MultiBeadSession session) {
+		
+		Plot p = new Plot("Z Tracking (" + session.getBeadCount() + " beads)", "Frame number", "Z Coordinate");
+		StringBuilder legend = new StringBuilder();
+		for(int b = 0; b < session.getBeadCount(); b++) {
+			if(session.getZlut(b) == null) continue;
+			p.setColor(Color.getHSBColor((float)b/session.getBeadCount(), 1f, 0.8f));
+			double[][] trace = TracePlot.decimate(session.getZCords(b));
+			p.addPoints(trace[0], trace[1], Plot.LINE);
+			legend.append("Bead ").append(b+1).append('\n');
+		}
+		p.addLegend(legend.toString());
+		p.show();
+	}
+
+	// Shows the metrics of the run. The z and xy plots were drawn while it was tracked
+	private static void display(TrackingSession session) {
+		
+		// Where the time went, why frames have no position and which stage of the pipeline held the others up
+		session.getMetrics().toResultsTable().show("Tracking Metrics");
+		IJ.log(session.getMetrics().toJson());
+		
+	}
 
 	// Returns an unsorted list of Comparable Images that were found in directory
 	// This list will also need to be filtered to remove the
     public static ArrayList<ComparableImagePlus> getReferenceImages(String directory_path, boolean isZLUT) {
 		
-		AVI_Reader aviRead = new AVI_Reader();
-		
 		// Parent directory kept because the title should be the height of the image (IF IN A ZLUT)
 		File parent_directory = new File(directory_path);
 		File[] directory = parent_directory.listFiles();
@@ -131,7 +334,7 @@ public class MagneticBead implements PlugIn {
         	//Add support for more files
         	if(!file.getName().endsWith(".avi")){continue;}
         	
-        	ImageStack imgstk = aviRead.makeStack(file.getAbsolutePath(),1,0,false,false,false);
+        	ImageStack imgstk = FrameCache.open(file);
         	            	
         	// for each frame in video stack
         	for(int i = 1; i<=imgstk.size(); i++) {
@@ -187,13 +390,10 @@ public class MagneticBead implements PlugIn {
 	private void initializeVariables() {
 		width = image.getWidth();
 		height = image.getHeight();
-		z_cords = new double[image.getImageStackSize()];
-		x_cords = new double[image.getImageStackSize()];
-		y_cords = new double[image.getImageStackSize()];
 	}
 	
 	
-	private static long getTimeFromString(String filename) {
+	static long getTimeFromString(String filename) {
 		Pattern pattern = Pattern.compile("\\d+(?=\\.avi$)");
 		Matcher matcher = pattern.matcher(filename);
 
@@ -204,19 +404,15 @@ public class MagneticBead implements PlugIn {
 		throw new IllegalArgumentException("No time could be extracted from: " +filename);
 	}
 	
-	// Retrieves an image using getReferenceImages() sorted by time and converted 
+	// Retrieves the recording in the user's directory as a stack read from disk one frame at a time, sorted by time
 	private ImagePlus retrieveUserImage() {
 		String user_directory = Gui.getDirectoryFromUser("Select Folder for Image","Select a directory. Each frame or video should be titled with the time it was taken in year-month-day-millisecond format.");
+		if(user_directory == null) return null;
 		
-		ArrayList<ComparableImagePlus> images = getReferenceImages(user_directory,false);
+		AviSequenceStack imgstk = AviSequenceStack.open(user_directory);
 		
 		// No images found
-		if (images.size()==0) return null;
-		
-		ImageStack imgstk = new ImageStack();
-		for(ComparableImagePlus img: images) {
-			imgstk.addSlice(img.getProcessor());
-		}
+		if (imgstk == null) return null;
 		
 		return new ImagePlus("Image from: " + user_directory, imgstk);
 	}
@@ -263,11 +459,11 @@ public class MagneticBead implements PlugIn {
 		
 		
 		//run it back w the other directory
-		image = new ImagePlus("Fluctuating bead", stack);
+		ImagePlus image = new ImagePlus("Fluctuating bead", stack);
 		image.show();
 		
-		IJ.runPlugIn(MagneticBead.class.getName(), "");
-		double[] fluctuating_bead_z_cords = z_cords;
+		double[] fluctuating_bead_z_cords = analyze(image).getZCords();
+		double[] z_cords = fluctuating_bead_z_cords;
 		double[] actual_z_cords = new double[z_cords.length];
 		double[] difference = new double[z_cords.length];
 		double[] indexes = new double[z_cords.length];
@@ -321,19 +517,17 @@ public class MagneticBead implements PlugIn {
 		image.show();
 	
 		// run the plugin
-		IJ.runPlugIn(MagneticBead.class.getName(), "");
-		double[] bead1Zlut1_z_cords = z_cords;
+		double[] bead1Zlut1_z_cords = analyze(image).getZCords();
 		image.close();
 		
 		
 		//run it back w the other directory
 		image = new ImagePlus("Bead1Zlut2", stack2);
 		image.show();
-		IJ.runPlugIn(MagneticBead.class.getName(), "");
-		double[] bead1Zlut2_z_cords = z_cords;
+		double[] bead1Zlut2_z_cords = analyze(image).getZCords();
 		
-		double[] indexes = new double[z_cords.length];
-		for(int i = 0; i<z_cords.length; i++) {
+		double[] indexes = new double[bead1Zlut2_z_cords.length];
+		for(int i = 0; i<bead1Zlut2_z_cords.length; i++) {
 			indexes[i] = i;
 		}
 
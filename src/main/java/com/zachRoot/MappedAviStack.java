@@ -0,0 +1,360 @@
+package com.zachRoot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ij.VirtualStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/* Frames of an uncompressed 8 bit avi read straight from a memory map of the file. The RIFF headers and the
+ * idx1 index are parsed once when it is opened, after which a frame is one copy out of the map, with no
+ * stream reads or per frame parsing like AVI_Reader.
+ *
+ * Reads BI_RGB 8 bit frames (palette indices, as AVI_Reader gives them without converting to gray) and the
+ * Y800, Y8 and GREY codecs, bottom up or top down. Files without idx1, like OpenDML ones over 1 GB, are indexed
+ * by walking the chunks of their movi lists. Anything else isn't opened so the caller can use AVI_Reader
+ */
+public class MappedAviStack extends VirtualStack {
+
+	// A frame's rows must be in one mapping, so mappings are at most this long
+	private static final long MAX_MAPPING_BYTES = Integer.MAX_VALUE;
+
+	private final File file;
+	private final int nFrames;
+
+	// Rows as stored: stride bytes apart, last row first when bottomUp
+	private final int stride;
+	private final boolean bottomUp;
+
+	// Frame i starts at offsets[i] in mappings[mappingOf[i]]
+	private final MappedByteBuffer[] mappings;
+	private final int[] mappingOf;
+	private final int[] offsets;
+
+	private MappedAviStack(File file, int width, int height, int stride, boolean bottomUp,
+			MappedByteBuffer[] mappings, int[] mappingOf, int[] offsets) {
+		super(width, height);
+		this.file = file;
+		this.nFrames = offsets.length;
+		this.stride = stride;
+		this.bottomUp = bottomUp;
+		this.mappings = mappings;
+		this.mappingOf = mappingOf;
+		this.offsets = offsets;
+	}
+
+	// Null if the file isn't an avi this can read
+	public static MappedAviStack open(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			return new Parser(file, channel).parse();
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	// Copies frame n into pixels, which must hold width*height bytes. For reading many frames into one buffer
+	public void readPixels(int n, byte[] pixels) {
+		if(n < 1 || n > nFrames) {
+			throw new IllegalArgumentException("Slice " + n + " out of range 1-" + nFrames);
+		}
+		int width = getWidth();
+		int height = getHeight();
+
+		// A view per call so frames can be read from many threads
+		ByteBuffer frame = mappings[mappingOf[n-1]].duplicate();
+		int offset = offsets[n-1];
+
+		if(!bottomUp && stride == width) {
+			frame.position(offset);
+			frame.get(pixels, 0, width*height);
+			return;
+		}
+		for(int row = 0; row < height; row++) {
+			frame.position(offset + (bottomUp ? height - 1 - row : row)*stride);
+			frame.get(pixels, row*width, width);
+		}
+	}
+
+	@Override
+	public ImageProcessor getProcessor(int n) {
+		byte[] pixels = new byte[getWidth()*getHeight()];
+		readPixels(n, pixels);
+		return new ByteProcessor(getWidth(), getHeight(), pixels);
+	}
+
+	@Override
+	public Object getPixels(int n) {
+		return getProcessor(n).getPixels();
+	}
+
+	@Override
+	public int getSize() {
+		return nFrames;
+	}
+
+	@Override
+	public int size() {
+		return nFrames;
+	}
+
+	@Override
+	public String getSliceLabel(int n) {
+		return file.getName() + ":" + n;
+	}
+
+	@Override
+	public int getBitDepth() {
+		return 8;
+	}
+
+	@Override
+	public void deleteSlice(int n) {
+		throw new UnsupportedOperationException("Frames can't be removed from a recording");
+	}
+
+	// Walks the RIFF structure for the video stream's format and the positions of its frames
+	private static class Parser {
+
+		private final File file;
+		private final FileChannel channel;
+		private final long fileLength;
+		private final ByteBuffer header = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+
+		// Of the first video stream
+		private int streamsSeen = 0;
+		private int stream = -1;
+		private int width;
+		private int height;
+		private boolean bottomUp;
+		private int frameBytes;
+
+		// Start and end of each movi list's contents. idx1 offsets are usually counted from the first one's fourcc
+		private final List<long[]> movis = new ArrayList<>();
+		private long idx1Start = -1;
+		private int idx1Length;
+
+		// OpenDML files carry on in AVIX lists that idx1 doesn't cover
+		private boolean extended = false;
+
+		Parser(File file, FileChannel channel) throws IOException {
+			this.file = file;
+			this.channel = channel;
+			this.fileLength = channel.size();
+		}
+
+		MappedAviStack parse() throws IOException {
+			// RIFF files can follow on from each other, the later ones being OpenDML's AVIX
+			long position = 0;
+			while(position + 12 <= fileLength) {
+				read(position, 12);
+				String id = fourcc(0);
+				long size = header.getInt(4) & 0xffffffffL;
+				String type = fourcc(8);
+				if(!id.equals("RIFF") || !(type.equals("AVI ") || type.equals("AVIX"))) {
+					if(position == 0) return null;
+					break;
+				}
+				extended |= type.equals("AVIX");
+				if(!walk(position + 12, Math.min(fileLength, position + 8 + size))) return null;
+				position += 8 + size + (size & 1);
+			}
+			if(stream < 0 || frameBytes == 0 || movis.isEmpty()) return null;
+
+			long[] frames = idx1Start >= 0 && !extended ? readIdx1() : null;
+			if(frames == null) {
+				frames = scanMovis();
+			}
+			if(frames.length == 0) return null;
+			return map(frames);
+		}
+
+		// Headers and index from start to end. Frames are only listed later, from idx1 when it can be used.
+		// False if the video isn't a format that is read
+		private boolean walk(long start, long end) throws IOException {
+			long position = start;
+			while(position + 8 <= end) {
+				read(position, 8);
+				String id = fourcc(0);
+				long size = header.getInt(4) & 0xffffffffL;
+				long data = position + 8;
+
+				if(id.equals("LIST") && data + 4 <= end) {
+					read(data, 4);
+					String list = fourcc(0);
+					if(list.equals("movi")) {
+						movis.add(new long[] {data, Math.min(end, data + size)});
+					} else if(list.equals("hdrl") || list.equals("strl")) {
+						if(!walk(data + 4, Math.min(end, data + size))) return false;
+					}
+				} else if(id.equals("strh")) {
+					read(data, 4);
+					if(stream < 0 && fourcc(0).equals("vids")) stream = streamsSeen;
+					streamsSeen++;
+				} else if(id.equals("strf") && stream == streamsSeen - 1 && frameBytes == 0) {
+					if(!readFormat(data)) return false;
+				} else if(id.equals("idx1")) {
+					idx1Start = data;
+					idx1Length = (int)Math.min(size, Integer.MAX_VALUE);
+				}
+				position = data + size + (size & 1);
+			}
+			return true;
+		}
+
+		// Data positions of the frames found by reading every chunk header of the movi lists
+		private long[] scanMovis() throws IOException {
+			scanned = new long[1024];
+			nScanned = 0;
+			for(long[] movi: movis) {
+				scan(movi[0] + 4, movi[1]);
+			}
+			return Arrays.copyOf(scanned, nScanned);
+		}
+
+		private long[] scanned;
+		private int nScanned;
+
+		// Frames from start to end, and in rec lists within it
+		private void scan(long start, long end) throws IOException {
+			long position = start;
+			while(position + 8 <= end) {
+				read(position, 8);
+				String id = fourcc(0);
+				long size = header.getInt(4) & 0xffffffffL;
+				long data = position + 8;
+
+				if(id.equals("LIST")) {
+					scan(data + 4, Math.min(end, data + size));
+				} else if(isFrame(id) && size >= frameBytes && data + frameBytes <= fileLength) {
+					if(nScanned == scanned.length) scanned = Arrays.copyOf(scanned, nScanned*2);
+					scanned[nScanned++] = data;
+				}
+				position = data + size + (size & 1);
+			}
+		}
+
+		// BITMAPINFOHEADER of the video stream
+		private boolean readFormat(long position) throws IOException {
+			read(position, 40);
+			width = header.getInt(4);
+			int signedHeight = header.getInt(8);
+			int bitCount = header.getShort(14);
+			String compression = fourcc(16);
+
+			height = Math.abs(signedHeight);
+			if(width <= 0 || height == 0 || bitCount != 8) return false;
+
+			if(header.getInt(16) == 0) {
+				// Uncompressed rows are padded to 4 bytes and bottom up unless the height is negative
+				bottomUp = signedHeight > 0;
+				frameBytes = ((width + 3) & ~3)*height;
+			} else if(compression.equals("Y800") || compression.equals("Y8  ") || compression.equals("GREY")) {
+				bottomUp = false;
+				frameBytes = width*height;
+			} else {
+				return false;
+			}
+			return true;
+		}
+
+		// Frame chunks of the video stream are named by its number then db or dc
+		private boolean isFrame(String id) {
+			return stream >= 0 && id.length() == 4 && id.charAt(2) == 'd' && (id.charAt(3) == 'b' || id.charAt(3) == 'c')
+					&& Character.digit(id.charAt(0), 10)*10 + Character.digit(id.charAt(1), 10) == stream;
+		}
+
+		// Data positions of the frames in idx1. Offsets there are from the movi fourcc or, in some writers,
+		// from the start of the file, told apart by where the first one lands. Null if neither fits
+		private long[] readIdx1() throws IOException {
+			ByteBuffer index = ByteBuffer.allocate(idx1Length).order(ByteOrder.LITTLE_ENDIAN);
+			while(index.hasRemaining() && channel.read(index, idx1Start + index.position()) >= 0) {}
+
+			int entries = index.position()/16;
+			long base = -1;
+			long[] frames = new long[entries];
+			int n = 0;
+			byte[] id = new byte[4];
+
+			for(int e = 0; e < entries; e++) {
+				index.position(e*16);
+				index.get(id);
+				index.getInt();
+				long offset = index.getInt() & 0xffffffffL;
+				long size = index.getInt() & 0xffffffffL;
+				if(!isFrame(new String(id, StandardCharsets.US_ASCII)) || size < frameBytes) continue;
+
+				if(base < 0) {
+					long moviStart = movis.get(0)[0];
+					base = chunkAt(moviStart + offset) ? moviStart : chunkAt(offset) ? 0 : -1;
+					if(base < 0) return null;
+				}
+				long data = base + offset + 8;
+				if(data + frameBytes > fileLength) return null;
+				frames[n++] = data;
+			}
+			return Arrays.copyOf(frames, n);
+		}
+
+		// True if a frame chunk header is at the position
+		private boolean chunkAt(long position) throws IOException {
+			if(position < 0 || position + 8 > fileLength) return false;
+			read(position, 8);
+			return isFrame(fourcc(0));
+		}
+
+		// Maps the frames, starting a new mapping whenever the next frame wouldn't fit in the current one
+		private MappedAviStack map(long[] frames) throws IOException {
+			List<MappedByteBuffer> mappings = new ArrayList<>();
+			int[] mappingOf = new int[frames.length];
+			int[] offsets = new int[frames.length];
+
+			int first = 0;
+			while(first < frames.length) {
+				long start = frames[first];
+				int last = first;
+				while(last + 1 < frames.length && frames[last+1] >= start && frames[last+1] + frameBytes - start <= MAX_MAPPING_BYTES) {
+					last++;
+				}
+				long length = frames[last] + frameBytes - start;
+				for(int i = first; i <= last; i++) {
+					mappingOf[i] = mappings.size();
+					offsets[i] = (int)(frames[i] - start);
+				}
+				mappings.add(channel.map(FileChannel.MapMode.READ_ONLY, start, length));
+				first = last + 1;
+			}
+
+			int stride = bottomUp || frameBytes != width*height ? (width + 3) & ~3 : width;
+			return new MappedAviStack(file, width, height, stride, bottomUp,
+					mappings.toArray(new MappedByteBuffer[0]), mappingOf, offsets);
+		}
+
+		private void read(long position, int length) throws IOException {
+			header.clear();
+			header.limit(length);
+			while(header.hasRemaining()) {
+				if(channel.read(header, position + header.position()) < 0) {
+					throw new IOException(file + " ends in the middle of a chunk");
+				}
+			}
+		}
+
+		private String fourcc(int index) {
+			byte[] id = new byte[4];
+			for(int i = 0; i < 4; i++) id[i] = header.get(index + i);
+			return new String(id, StandardCharsets.US_ASCII);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package com.zachRoot;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+// Tracking run over a field of view with several beads in it.
+// Each frame is decoded once and every bead is tracked in its own square region with its own zlut.
+// Positions are in the coordinates of the whole frame
+public class MultiBeadSession {
+
+	private final ImagePlus image;
+
+	// Region each bead is tracked in. Moved with the bead every recenterInterval frames
+	private final Rectangle[] rois;
+
+	// Zlut for each bead. Beads can share a zlut
+	private final Zlut[] zluts;
+
+	private volatile BeadLocalizer localizer = new CrossCorrelationLocalizer();
+
+	// Reading frames and the pipeline's queues, the beads aren't timed one by one
+	private final TrackingMetrics metrics = new TrackingMetrics();
+
+	// Positions of each bead, [bead][frame] 0-indexed
+	private final double[][] z_cords;
+	private final double[][] x_cords;
+	private final double[][] y_cords;
+
+	public MultiBeadSession(ImagePlus image, Rectangle[] rois, Zlut[] zluts) {
+		if(rois.length != zluts.length) {
+			throw new IllegalArgumentException(rois.length + " bead regions but " + zluts.length + " zluts");
+		}
+		this.image = image;
+		this.rois = new Rectangle[rois.length];
+		for(int b = 0; b < rois.length; b++) {
+			this.rois[b] = new Rectangle(rois[b]);
+		}
+		this.zluts = zluts;
+
+		int nFrames = image.getImageStackSize();
+		z_cords = new double[rois.length][nFrames];
+		x_cords = new double[rois.length][nFrames];
+		y_cords = new double[rois.length][nFrames];
+	}
+
+	public MultiBeadSession setLocalizer(BeadLocalizer localizer) {
+		this.localizer = localizer;
+		return this;
+	}
+
+	// Tracks every bead in every frame on nThreads threads through a FramePipeline.
+	// With a recenterInterval above 0 the regions follow the beads, moving every recenterInterval frames.
+	// The blocks between moves all go through the same pipeline and its threads
+	public void processStack(ImageStack stack, int nThreads, int recenterInterval) {
+
+		metrics.startRun();
+		FramePipeline pipeline = new FramePipeline(nThreads);
+		try {
+			int block = recenterInterval > 0 ? recenterInterval : stack.size();
+
+			for(int first = 1; first <= stack.size(); first += block) {
+				int last = Math.min(stack.size(), first + block - 1);
+
+				// Regions can't move while a block is being tracked
+				Rectangle[] blockRois = new Rectangle[rois.length];
+				for(int b = 0; b < rois.length; b++) {
+					blockRois[b] = new Rectangle(rois[b]);
+				}
+
+				try {
+					pipeline.run(stack, first, last, (ip, slice) -> processIP(ip, slice, blockRois), metrics, null);
+				} catch (IOException e) {
+					// Only a consumer throws
+					throw new IllegalStateException(e);
+				}
+
+				if(recenterInterval > 0) {
+					recenter(last, stack.getWidth(), stack.getHeight());
+				}
+			}
+		} finally {
+			pipeline.close();
+			metrics.endRun();
+		}
+	}
+
+	// Tracks every bead in one frame
+	private void processIP(ImageProcessor ip, int slice, Rectangle[] blockRois) {
+
+		for(int b = 0; b < blockRois.length; b++) {
+			Rectangle roi = blockRois[b];
+
+			//slice is 1-indexed so -1 to convert to 0 indexed
+			if(zluts[b] == null) {
+				x_cords[b][slice-1] = y_cords[b][slice-1] = z_cords[b][slice-1] = Double.NaN;
+				continue;
+			}
+
+			ImageProcessor beadIP = BeadDetector.crop(ip, roi);
+			double[] xyCordSubPixel = localizer.locate(beadIP, 0, 0, beadIP.getWidth(), null);
+
+			double zCord = Double.NaN;
+			if(!Double.isNaN(xyCordSubPixel[0]) && !Double.isNaN(xyCordSubPixel[1])) {
+				zCord = ZPositioning.calculateZCord(zluts[b], xyCordSubPixel, beadIP);
+			}
+
+			z_cords[b][slice-1] = zCord;
+			x_cords[b][slice-1] = xyCordSubPixel[0] + roi.x;
+			y_cords[b][slice-1] = xyCordSubPixel[1] + roi.y;
+		}
+	}
+
+	// Centers each region on where its bead was in the given slice, keeping it inside the frame
+	private void recenter(int slice, int frameWidth, int frameHeight) {
+		for(int b = 0; b < rois.length; b++) {
+			double x = x_cords[b][slice-1];
+			double y = y_cords[b][slice-1];
+
+			// Lost the bead in this frame so leave the region where it is
+			if(Double.isNaN(x) || Double.isNaN(y)) continue;
+
+			Rectangle roi = rois[b];
+			roi.x = Math.max(0, Math.min(frameWidth - roi.width, (int)Math.round(x - roi.width/2.0)));
+			roi.y = Math.max(0, Math.min(frameHeight - roi.height, (int)Math.round(y - roi.height/2.0)));
+		}
+	}
+
+	public TrackingMetrics getMetrics() {
+		return metrics;
+	}
+
+	public ImagePlus getImage() {
+		return image;
+	}
+
+	public int getBeadCount() {
+		return rois.length;
+	}
+
+	// Region of the bead as of the end of the last processStack
+	public Rectangle getRoi(int bead) {
+		return new Rectangle(rois[bead]);
+	}
+
+	public Zlut getZlut(int bead) {
+		return zluts[bead];
+	}
+
+	public double[] getZCords(int bead) {
+		return z_cords[bead];
+	}
+
+	public double[] getXCords(int bead) {
+		return x_cords[bead];
+	}
+
+	public double[] getYCords(int bead) {
+		return y_cords[bead];
+	}
+
+	public int size() {
+		return image.getImageStackSize();
+	}
+}
@@ -0,0 +1,90 @@
+package com.zachRoot;
+
+// Sub pixel peak position from a least squares quadratic through a small window of points.
+// For a window of x = -h..h the normal equations have a closed form, so the fit is two dot products
+// with precomputed coefficients. Replaces CurveFitter which was built for every fit of every frame
+public class PeakFit {
+
+	// Window sizes with precomputed coefficients
+	public static final int MIN_POINTS = 3;
+	public static final int MAX_POINTS = 7;
+
+	// LINEAR[h][i] and QUADRATIC[h][i] are the weights of point i of a window of 2h+1 points
+	// for the linear and quadratic coefficient of y = a0 + a1*x + a2*x*x
+	private static final double[][] LINEAR = new double[MAX_POINTS/2 + 1][];
+	private static final double[][] QUADRATIC = new double[MAX_POINTS/2 + 1][];
+
+	static {
+		for(int h = MIN_POINTS/2; h <= MAX_POINTS/2; h++) {
+			int n = 2*h + 1;
+
+			double s2 = 0;
+			double s4 = 0;
+			for(int x = -h; x <= h; x++) {
+				s2 += x*x;
+				s4 += x*x*x*x;
+			}
+
+			LINEAR[h] = new double[n];
+			QUADRATIC[h] = new double[n];
+			for(int x = -h; x <= h; x++) {
+				// Odd and even powers decouple on a symmetric window
+				LINEAR[h][x+h] = x/s2;
+				QUADRATIC[h][x+h] = (n*x*x - s2)/(n*s4 - s2*s2);
+			}
+		}
+	}
+
+	// Offset of the vertex of the quadratic through data[center-h..center+h] from center.
+	// NaN if the window doesn't fit in the data
+	public static double vertexOffset(float[] data, int center, int nPoints) {
+
+		int h = halfWidth(nPoints);
+
+		if(center - h < 0 || center + h > data.length-1) {
+			return Double.NaN;
+		}
+
+		double a1 = 0;
+		double a2 = 0;
+		for(int i = 0; i < 2*h+1; i++) {
+			double y = data[center - h + i];
+			a1 += LINEAR[h][i]*y;
+			a2 += QUADRATIC[h][i]*y;
+		}
+
+		// -b/2a for peak of curve
+		return -a1/(2*a2);
+	}
+
+	// Same as vertexOffset but for a fit that has to open upwards, like y = a*a*(x - b)*(x - b) + c.
+	// If the points curve down the best upward fit is flat, so the minimum stays at the center
+	public static double minimumOffset(float[] data, int center, int nPoints) {
+
+		int h = halfWidth(nPoints);
+
+		if(center - h < 0 || center + h > data.length-1) {
+			return Double.NaN;
+		}
+
+		double a1 = 0;
+		double a2 = 0;
+		for(int i = 0; i < 2*h+1; i++) {
+			double y = data[center - h + i];
+			a1 += LINEAR[h][i]*y;
+			a2 += QUADRATIC[h][i]*y;
+		}
+
+		if(!(a2 > 0)) {
+			return 0;
+		}
+		return -a1/(2*a2);
+	}
+
+	private static int halfWidth(int nPoints) {
+		if(nPoints < MIN_POINTS || nPoints > MAX_POINTS || nPoints % 2 == 0) {
+			throw new IllegalArgumentException("Peak fit needs an odd window of " + MIN_POINTS + " to " + MAX_POINTS + " points, not " + nPoints);
+		}
+		return nPoints/2;
+	}
+}
@@ -0,0 +1,171 @@
+package com.zachRoot;
+
+import ij.process.ImageProcessor;
+
+// Loops over a frame's own pixel array, one per pixel type, so 8 and 16 bit frames are never
+// converted to a float copy of the whole frame. 8 and 16 bit pixels are unsigned
+final class PixelKernels {
+
+	private PixelKernels() {}
+
+	// Pixels x0 to x0+length-1 of row y as floats
+	static void row(ImageProcessor ip, int x0, int y, float[] out, int length) {
+		Object pixels = ip.getPixels();
+		int offset = x0 + y*ip.getWidth();
+
+		if(pixels instanceof byte[]) {
+			byte[] p = (byte[])pixels;
+			for(int i = 0; i < length; i++) out[i] = p[offset + i] & 0xff;
+		} else if(pixels instanceof short[]) {
+			short[] p = (short[])pixels;
+			for(int i = 0; i < length; i++) out[i] = p[offset + i] & 0xffff;
+		} else if(pixels instanceof float[]) {
+			System.arraycopy((float[])pixels, offset, out, 0, length);
+		} else {
+			throw new RuntimeException("Image Type Not Supported");
+		}
+	}
+
+	// Pixels y0 to y0+length-1 of column x as floats
+	static void column(ImageProcessor ip, int x, int y0, float[] out, int length) {
+		Object pixels = ip.getPixels();
+		int width = ip.getWidth();
+		int offset = x + y0*width;
+
+		if(pixels instanceof byte[]) {
+			byte[] p = (byte[])pixels;
+			for(int i = 0; i < length; i++) out[i] = p[offset + i*width] & 0xff;
+		} else if(pixels instanceof short[]) {
+			short[] p = (short[])pixels;
+			for(int i = 0; i < length; i++) out[i] = p[offset + i*width] & 0xffff;
+		} else if(pixels instanceof float[]) {
+			float[] p = (float[])pixels;
+			for(int i = 0; i < length; i++) out[i] = p[offset + i*width];
+		} else {
+			throw new RuntimeException("Image Type Not Supported");
+		}
+	}
+
+	// Adds pixel offset+i to sums[bins[binOffset+i]] and counts it, for a run of length pixels
+	static void accumulate(ImageProcessor ip, int offset, int length, short[] bins, int binOffset, float[] sums, int[] counts) {
+		Object pixels = ip.getPixels();
+
+		if(pixels instanceof byte[]) {
+			byte[] p = (byte[])pixels;
+			for(int i = 0; i < length; i++) {
+				int bin = bins[binOffset + i];
+				sums[bin] += p[offset + i] & 0xff;
+				counts[bin]++;
+			}
+		} else if(pixels instanceof short[]) {
+			short[] p = (short[])pixels;
+			for(int i = 0; i < length; i++) {
+				int bin = bins[binOffset + i];
+				sums[bin] += p[offset + i] & 0xffff;
+				counts[bin]++;
+			}
+		} else if(pixels instanceof float[]) {
+			float[] p = (float[])pixels;
+			for(int i = 0; i < length; i++) {
+				int bin = bins[binOffset + i];
+				sums[bin] += p[offset + i];
+				counts[bin]++;
+			}
+		} else {
+			throw new RuntimeException("Image Type Not Supported");
+		}
+	}
+
+	// Sum of the pixels in the window
+	static double sum(ImageProcessor ip, int x0, int y0, int w, int h) {
+		Object pixels = ip.getPixels();
+		int width = ip.getWidth();
+		double sum = 0;
+
+		if(pixels instanceof byte[]) {
+			byte[] p = (byte[])pixels;
+			for(int y = y0; y < y0 + h; y++) {
+				long rowSum = 0;
+				for(int i = x0 + y*width, end = i + w; i < end; i++) rowSum += p[i] & 0xff;
+				sum += rowSum;
+			}
+		} else if(pixels instanceof short[]) {
+			short[] p = (short[])pixels;
+			for(int y = y0; y < y0 + h; y++) {
+				long rowSum = 0;
+				for(int i = x0 + y*width, end = i + w; i < end; i++) rowSum += p[i] & 0xffff;
+				sum += rowSum;
+			}
+		} else if(pixels instanceof float[]) {
+			float[] p = (float[])pixels;
+			for(int y = y0; y < y0 + h; y++) {
+				for(int i = x0 + y*width, end = i + w; i < end; i++) sum += p[i];
+			}
+		} else {
+			throw new RuntimeException("Image Type Not Supported");
+		}
+		return sum;
+	}
+
+	/* Center of mass of the absolute difference from the mean inside the window, the same as
+	 * fitBeadByCenterOfMass's matlab version:
+	 *   T = abs(S - mean(S)); x = sum(lin.*T)./sum(T); y = sum(lin'.*T)./sum(T)
+	 * with lin counting from 1. Returned in frame coordinates, truncated to whole pixels
+	 */
+	static int[] centerOfMass(ImageProcessor ip, int x0, int y0, int w, int h) {
+		double[] lin = linearCenterOfMass(ip, x0, y0, w, h);
+		return new int[] { x0 + (int)lin[0], y0 + (int)lin[1] };
+	}
+
+	// Same center of mass with its fraction, in the window's lin units that count from 1
+	static double[] linearCenterOfMass(ImageProcessor ip, int x0, int y0, int w, int h) {
+		Object pixels = ip.getPixels();
+		int width = ip.getWidth();
+		double mean = sum(ip, x0, y0, w, h)/((double)w*h);
+
+		double tSum = 0;
+		double xSum = 0;
+		double ySum = 0;
+
+		for(int y = 0; y < h; y++) {
+			int offset = x0 + (y0 + y)*width;
+			double rowT = 0;
+			double rowX = 0;
+
+			if(pixels instanceof byte[]) {
+				byte[] p = (byte[])pixels;
+				for(int x = 0; x < w; x++) {
+					double t = Math.abs((p[offset + x] & 0xff) - mean);
+					rowT += t;
+					rowX += (x + 1)*t;
+				}
+			} else if(pixels instanceof short[]) {
+				short[] p = (short[])pixels;
+				for(int x = 0; x < w; x++) {
+					double t = Math.abs((p[offset + x] & 0xffff) - mean);
+					rowT += t;
+					rowX += (x + 1)*t;
+				}
+			} else if(pixels instanceof float[]) {
+				float[] p = (float[])pixels;
+				for(int x = 0; x < w; x++) {
+					double t = Math.abs(p[offset + x] - mean);
+					rowT += t;
+					rowX += (x + 1)*t;
+				}
+			} else {
+				throw new RuntimeException("Image Type Not Supported");
+			}
+
+			tSum += rowT;
+			xSum += rowX;
+			ySum += (y + 1)*rowT;
+		}
+
+		if(tSum == 0) {
+			tSum = Double.MIN_VALUE;
+		}
+
+		return new double[] { xSum/tSum, ySum/tSum };
+	}
+}
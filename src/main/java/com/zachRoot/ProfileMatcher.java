@@ -0,0 +1,121 @@
+package com.zachRoot;
+
+// Distance between a radial profile and the profiles of a ZLUT.
+// Nothing is allocated per call. Sums are split over four independent accumulators
+// so the JIT can keep several lanes in flight instead of waiting on one running sum
+public class ProfileMatcher {
+
+	public enum Metric {
+		// Sum of absolute differences
+		L1,
+		// Sum of squared differences
+		L2,
+		// 1 - Pearson correlation, ignores the brightness and contrast of the frame
+		CORRELATION
+	}
+
+	// Index of the ZLUT profile closest to profile
+	public static int match(float[] profile, Zlut zlut, Metric metric) {
+		float mean = metric == Metric.CORRELATION ? mean(profile, zlut.radius) : 0;
+		float norm = metric == Metric.CORRELATION ? centeredNorm(profile, zlut.radius, mean) : 0;
+
+		int minIndex = 0;
+		float min = Float.MAX_VALUE;
+		for(int i = 0; i < zlut.size(); i++) {
+			float d = distance(profile, zlut, i, metric, mean, norm);
+			if(d < min) {
+				min = d;
+				minIndex = i;
+			}
+		}
+		return minIndex;
+	}
+
+	static float mean(float[] profile, int radius) {
+		double sum = 0;
+		for(int j = 0; j < radius; j++) {
+			sum += profile[j];
+		}
+		return (float)(sum/radius);
+	}
+
+	static float centeredNorm(float[] profile, int radius, float mean) {
+		double squares = 0;
+		for(int j = 0; j < radius; j++) {
+			double d = profile[j] - mean;
+			squares += d*d;
+		}
+		return (float)Math.sqrt(squares);
+	}
+
+	// Distance between profile and ZLUT profile i
+	public static float distance(float[] profile, Zlut zlut, int i, Metric metric, float profileMean, float profileNorm) {
+		int offset = i*zlut.radius;
+
+		switch(metric) {
+		case L1:
+			return sumAbsoluteDifferences(profile, zlut.data, offset, zlut.radius);
+		case L2:
+			return sumSquaredDifferences(profile, zlut.data, offset, zlut.radius);
+		case CORRELATION:
+			// sum((p - pMean)*(q - qMean)) = sum(p*q) - n*pMean*qMean
+			float dot = dotProduct(profile, zlut.data, offset, zlut.radius);
+			float covariance = dot - zlut.radius*profileMean*zlut.getMeans()[i];
+			float norms = profileNorm*zlut.getNorms()[i];
+			if(norms == 0) return 1;
+			return 1 - covariance/norms;
+		default:
+			throw new IllegalArgumentException("Unknown metric " + metric);
+		}
+	}
+
+	static float sumAbsoluteDifferences(float[] a, float[] b, int offset, int length) {
+		float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int j = 0;
+		for(; j + 3 < length; j += 4) {
+			s0 += Math.abs(a[j]   - b[offset+j]);
+			s1 += Math.abs(a[j+1] - b[offset+j+1]);
+			s2 += Math.abs(a[j+2] - b[offset+j+2]);
+			s3 += Math.abs(a[j+3] - b[offset+j+3]);
+		}
+		for(; j < length; j++) {
+			s0 += Math.abs(a[j] - b[offset+j]);
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	static float sumSquaredDifferences(float[] a, float[] b, int offset, int length) {
+		float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int j = 0;
+		for(; j + 3 < length; j += 4) {
+			float d0 = a[j]   - b[offset+j];
+			float d1 = a[j+1] - b[offset+j+1];
+			float d2 = a[j+2] - b[offset+j+2];
+			float d3 = a[j+3] - b[offset+j+3];
+			s0 += d0*d0;
+			s1 += d1*d1;
+			s2 += d2*d2;
+			s3 += d3*d3;
+		}
+		for(; j < length; j++) {
+			float d = a[j] - b[offset+j];
+			s0 += d*d;
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	static float dotProduct(float[] a, float[] b, int offset, int length) {
+		float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int j = 0;
+		for(; j + 3 < length; j += 4) {
+			s0 += a[j]  *b[offset+j];
+			s1 += a[j+1]*b[offset+j+1];
+			s2 += a[j+2]*b[offset+j+2];
+			s3 += a[j+3]*b[offset+j+3];
+		}
+		for(; j < length; j++) {
+			s0 += a[j]*b[offset+j];
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+}
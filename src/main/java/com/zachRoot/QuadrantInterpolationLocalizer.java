@@ -0,0 +1,159 @@
+package com.zachRoot;
+
+import ij.process.ImageProcessor;
+
+/* Quadrant interpolation (van Loenhout, Kerssemakers, De Vlaminck and Dekker, Biophys J 2012).
+ * Starting from the cross correlation estimate, the frame is sampled along spokes out from the estimate and averaged
+ * into a radial profile for each quadrant. The left and right halves put end to end give a line through the
+ * bead that is symmetric about the true center, so correlating it with its mirror image peaks at twice the
+ * error of the estimate. The same for top and bottom gives y. Repeated from the corrected estimate a few times.
+ * Every spoke averages noise over many pixels, so it keeps its precision on noisy 8 bit frames.
+ * The rings repeat, so a start more than about a ring apart from the center can lock on the wrong ring,
+ * which is why it doesn't start from the center of mass
+ */
+public class QuadrantInterpolationLocalizer implements BeadLocalizer {
+
+	// Rounds of sampling around the improved estimate
+	private static final int ITERATIONS = 3;
+
+	// Rounds stop early once the estimate moves less than this many pixels
+	private static final double CONVERGED = 0.01;
+
+	// Spokes per quadrant
+	private static final int SPOKES = 16;
+
+	// Fewest radial samples on a spoke. Samples are a pixel apart out to a third of the window
+	private static final int MIN_STEPS = 8;
+
+	private static final int nPointsPeakFit = 5;
+
+	// Direction of every spoke, quadrant by quadrant counterclockwise from +x. y grows downwards in frames,
+	// which only swaps which quadrants are called top and bottom
+	private static final double[] COS = new double[4*SPOKES];
+	private static final double[] SIN = new double[4*SPOKES];
+
+	static {
+		for(int s = 0; s < 4*SPOKES; s++) {
+			double angle = (s + 0.5)*Math.PI/(2*SPOKES);
+			COS[s] = Math.cos(angle);
+			SIN[s] = Math.sin(angle);
+		}
+	}
+
+	private final CrossCorrelationLocalizer start = new CrossCorrelationLocalizer();
+
+	@Override
+	public String getName() {
+		return "qi";
+	}
+
+	@Override
+	public double[] locate(ImageProcessor ip, int x0, int y0, int width, TrackingMetrics metrics) {
+		double[] xyCord = start.locate(ip, x0, y0, width, metrics);
+		if(Double.isNaN(xyCord[0]) || Double.isNaN(xyCord[1])) return xyCord;
+		long started = System.nanoTime();
+
+		int steps = Math.max(MIN_STEPS, width/3);
+		float[][] quadrants = new float[4][steps];
+		float[] line = new float[2*steps];
+		float[] correlation = new float[4*steps - 1];
+
+		for(int i = 0; i < ITERATIONS; i++) {
+			if(!sampleQuadrants(ip, x0, y0, width, xyCord[0], xyCord[1], quadrants)) {
+				xyCord = new double[] {Double.NaN, Double.NaN};
+				break;
+			}
+			// Quadrants 1 and 2 are towards -x, 0 and 3 towards +x. 2 and 3 are towards -y, 0 and 1 towards +y
+			double dx = offset(quadrants[1], quadrants[2], quadrants[0], quadrants[3], line, correlation);
+			double dy = offset(quadrants[2], quadrants[3], quadrants[0], quadrants[1], line, correlation);
+
+			xyCord[0] += dx;
+			xyCord[1] += dy;
+			if(Double.isNaN(dx) || Double.isNaN(dy) || (Math.abs(dx) < CONVERGED && Math.abs(dy) < CONVERGED)) break;
+		}
+
+		if(xyCord[0] < x0 || xyCord[0] > x0 + width || xyCord[1] < y0 || xyCord[1] > y0 + width) {
+			xyCord = new double[] {Double.NaN, Double.NaN};
+		}
+
+		if(metrics != null) metrics.record(TrackingMetrics.Stage.QUADRANT_INTERPOLATION, System.nanoTime() - started);
+		return xyCord;
+	}
+
+	// Mean of each quadrant's spokes at 0.5, 1.5, 2.5... pixels from (x, y). False if a radius has no sample inside the window
+	private static boolean sampleQuadrants(ImageProcessor ip, int x0, int y0, int width, double x, double y, float[][] quadrants) {
+		int steps = quadrants[0].length;
+		int frameWidth = ip.getWidth();
+		// Pixel centers are at i + 0.5, interpolation needs the pixel on each side
+		double low = 0.5;
+		double high = width - 0.5;
+
+		for(int q = 0; q < 4; q++) {
+			float[] profile = quadrants[q];
+			for(int r = 0; r < steps; r++) {
+				double radius = r + 0.5;
+				double sum = 0;
+				int count = 0;
+				for(int s = q*SPOKES; s < (q+1)*SPOKES; s++) {
+					double u = x - x0 + radius*COS[s];
+					double v = y - y0 + radius*SIN[s];
+					if(u < low || v < low || u >= high || v >= high) continue;
+
+					// Bilinear between the four pixel centers around the sample
+					u -= 0.5;
+					v -= 0.5;
+					int i = (int)u;
+					int j = (int)v;
+					double fu = u - i;
+					double fv = v - j;
+					int index = (x0 + i) + (y0 + j)*frameWidth;
+					double top = ip.getf(index) + fu*(ip.getf(index + 1) - ip.getf(index));
+					double bottom = ip.getf(index + frameWidth) + fu*(ip.getf(index + frameWidth + 1) - ip.getf(index + frameWidth));
+					sum += top + fv*(bottom - top);
+					count++;
+				}
+				if(count == 0) return false;
+				profile[r] = (float)(sum/count);
+			}
+		}
+		return true;
+	}
+
+	/* Distance of the true center from the estimate along one axis, from the two quadrants on each side.
+	 * line holds the negative side from the outside in then the positive side from the inside out, one pixel apart.
+	 * If the center is d along the axis, line matches its mirror image shifted by 2d
+	 */
+	private static double offset(float[] negativeA, float[] negativeB, float[] positiveA, float[] positiveB, float[] line, float[] correlation) {
+		int steps = negativeA.length;
+		int length = 2*steps;
+
+		double mean = 0;
+		for(int r = 0; r < steps; r++) {
+			line[steps - 1 - r] = negativeA[r] + negativeB[r];
+			line[steps + r] = positiveA[r] + positiveB[r];
+			mean += line[steps - 1 - r] + line[steps + r];
+		}
+		mean /= length;
+		for(int i = 0; i < length; i++) {
+			line[i] -= mean;
+		}
+
+		// correlation[shift + length - 1] = sum of line[i]*mirror[i - shift], mirror[k] = line[length - 1 - k]
+		int maxIndex = -1;
+		float max = -Float.MAX_VALUE;
+		for(int shift = -(length - 1); shift <= length - 1; shift++) {
+			float sum = 0;
+			for(int i = Math.max(0, shift); i < Math.min(length, length + shift); i++) {
+				sum += line[i]*line[length - 1 - i + shift];
+			}
+			correlation[shift + length - 1] = sum;
+			if(sum > max) {
+				max = sum;
+				maxIndex = shift + length - 1;
+			}
+		}
+
+		double peak = maxIndex + PeakFit.vertexOffset(correlation, maxIndex, nPointsPeakFit);
+		return (peak - (length - 1))/2;
+	}
+}
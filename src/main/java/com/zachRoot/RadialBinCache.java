@@ -0,0 +1,225 @@
+package com.zachRoot;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import ij.process.ImageProcessor;
+
+// Caches which radial profile bin every pixel falls into so that a radial profile
+// is a single gather and accumulate pass without any square roots.
+//
+// The bead center is quantized to 1/subPixelGrid of a pixel. Only the fractional part of the
+// center is part of the key: each map covers the square the profile's radius reaches around the center
+// and is indexed with the integer part of the center, so a bead that wanders around keeps hitting the same maps.
+// Pixels outside the square are all in the last bin, so they are summed through a row of that bin instead.
+public class RadialBinCache {
+
+	// Sub pixel grid the center is rounded to. 0 disables the cache and uses the exact profile
+	private static volatile int subPixelGrid = 16;
+
+	// Size the maps are held to, least recently used first out. A map is about (2*radius)^2 shorts,
+	// so 64 MB holds every map of a 16 grid for frames up to about 512 pixels wide
+	private static volatile long maxBytes = 64L << 20;
+
+	private static long bytes = 0;
+
+	private static final LinkedHashMap<Key, short[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+	public static int getSubPixelGrid() {
+		return subPixelGrid;
+	}
+
+	public static void setSubPixelGrid(int grid) {
+		if(grid < 0) throw new IllegalArgumentException("Sub pixel grid can't be negative: " + grid);
+		subPixelGrid = grid;
+	}
+
+	// The most recently used map is always kept, however big
+	public static void setMaxBytes(long max) {
+		if(max < 0) throw new IllegalArgumentException("Cache size can't be negative: " + max);
+		synchronized(cache) {
+			maxBytes = max;
+			evict();
+		}
+	}
+
+	public static long getMaxBytes() {
+		return maxBytes;
+	}
+
+	// Bytes of the maps held now
+	public static long getBytes() {
+		synchronized(cache) {
+			return bytes;
+		}
+	}
+
+	public static void clear() {
+		synchronized(cache) {
+			cache.clear();
+			bytes = 0;
+		}
+	}
+
+	// Called holding the lock
+	private static void evict() {
+		Iterator<short[]> eldest = cache.values().iterator();
+		while(bytes > maxBytes && cache.size() > 1) {
+			bytes -= 2L*eldest.next().length;
+			eldest.remove();
+		}
+	}
+
+	public static boolean isEnabled() {
+		return subPixelGrid > 0;
+	}
+
+	// Same as ZPositioning's exact radial profile but with the center rounded to the sub pixel grid
+	static float[] createRadialProfile(double[] xyCord, ImageProcessor ip, int radius) {
+
+		int width = ip.getWidth();
+		int grid = subPixelGrid;
+
+		// Rounded center split into whole pixels and a fraction of the grid
+		long qx = Math.round(xyCord[0]*grid);
+		long qy = Math.round(xyCord[1]*grid);
+		int ix = (int)Math.floorDiv(qx, grid);
+		int iy = (int)Math.floorDiv(qy, grid);
+		int fx = (int)(qx - (long)ix*grid);
+		int fy = (int)(qy - (long)iy*grid);
+
+		short[] bins = getBins(radius, grid, fx, fy);
+		int half = halfWidth(radius);
+		int mapWidth = 2*half;
+		short[] lastBins = lastBinRow(width, radius);
+
+		int[] numRho = new int[radius];
+		float[] intensitySum = new float[radius];
+
+		// Columns of the frame the map covers, the rest of each row is in the last bin
+		int mapFirst = Math.max(0, ix - half);
+		int mapEnd = Math.min(width, ix + half);
+
+		for(int y = 0; y < width; y++) {
+
+			int my = y - iy + half;
+			if(my < 0 || my >= mapWidth || mapFirst >= mapEnd) {
+				PixelKernels.accumulate(ip, y*width, width, lastBins, 0, intensitySum, numRho);
+				continue;
+			}
+
+			// Left to right like the exact profile so the sums are added in the same order
+			PixelKernels.accumulate(ip, y*width, mapFirst, lastBins, 0, intensitySum, numRho);
+			PixelKernels.accumulate(ip, y*width + mapFirst, mapEnd - mapFirst, bins, my*mapWidth + mapFirst - ix + half, intensitySum, numRho);
+			PixelKernels.accumulate(ip, y*width + mapEnd, width - mapEnd, lastBins, 0, intensitySum, numRho);
+		}
+
+		float[] radialProfile = new float[radius];
+		for(int i = 0; i < radius; i++) {
+			radialProfile[i] = intensitySum[i]/numRho[i];
+			if (Double.isNaN(radialProfile[i])) radialProfile[i] = 0;
+		}
+
+		return radialProfile;
+	}
+
+	// True if the center can be looked up in a map. Centers that left the image fall back to the exact profile
+	static boolean canMap(double[] xyCord, int width) {
+		return xyCord[0] >= 0 && xyCord[0] < width && xyCord[1] >= 0 && xyCord[1] < width;
+	}
+
+	// Half the width of a map. Every pixel further than this from the center in x or y is more than
+	// radius away so it rounds into the last bin
+	private static int halfWidth(int radius) {
+		return radius + 1;
+	}
+
+	// Row of the last bin, for the pixels outside a map
+	private static final ThreadLocal<short[]> LAST_BINS = ThreadLocal.withInitial(() -> new short[0]);
+
+	private static short[] lastBinRow(int width, int radius) {
+		short last = (short)Math.max(1, radius - 1);
+		short[] row = LAST_BINS.get();
+		if(row.length < width || row[0] != last) {
+			row = new short[width];
+			Arrays.fill(row, last);
+			LAST_BINS.set(row);
+		}
+		return row;
+	}
+
+	private static short[] getBins(int radius, int grid, int fx, int fy) {
+
+		Key key = new Key(radius, grid, fx, fy);
+
+		synchronized(cache) {
+			short[] bins = cache.get(key);
+			if(bins != null) return bins;
+		}
+
+		// Built outside the lock. Two threads may build the same map but they're identical
+		short[] bins = createBins(radius, (double)fx/grid, (double)fy/grid);
+
+		synchronized(cache) {
+			short[] previous = cache.put(key, bins);
+			bytes += 2L*bins.length - (previous == null ? 0 : 2L*previous.length);
+			evict();
+		}
+		return bins;
+	}
+
+	// Bin of every pixel on a square 2*halfWidth wide centered at (halfWidth + fx, halfWidth + fy)
+	private static short[] createBins(int radius, double fx, double fy) {
+
+		int half = halfWidth(radius);
+		int mapWidth = 2*half;
+		short[] bins = new short[mapWidth*mapWidth];
+
+		for(int y = 0; y < mapWidth; y++) {
+			double dy = half + fy - y;
+			for(int x = 0; x < mapWidth; x++) {
+				double dx = half + fx - x;
+				int rhoValue = (int)(Math.round(Math.sqrt(dx*dx + dy*dy)));
+
+				// Same bounds as the exact profile
+				if(rhoValue > radius-1) rhoValue = radius-1;
+				if(rhoValue < 1)      rhoValue = 1;
+
+				bins[x + y*mapWidth] = (short)rhoValue;
+			}
+		}
+		return bins;
+	}
+
+	// Maps don't depend on the frame's width, only on how far the profile reaches
+	private static final class Key {
+		private final int radius;
+		private final int grid;
+		private final int fx;
+		private final int fy;
+
+		Key(int radius, int grid, int fx, int fy) {
+			this.radius = radius;
+			this.grid = grid;
+			this.fx = fx;
+			this.fy = fy;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)) return false;
+			Key k = (Key)o;
+			return radius == k.radius && grid == k.grid && fx == k.fx && fy == k.fy;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = radius;
+			h = 31*h + grid;
+			h = 31*h + fx;
+			h = 31*h + fy;
+			return h;
+		}
+	}
+}
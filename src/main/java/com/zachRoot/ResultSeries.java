@@ -0,0 +1,101 @@
+package com.zachRoot;
+
+import java.util.Arrays;
+
+// Positions of a bead that grow as frames are tracked, for recordings that are still being written.
+// Appends come from one thread, readers get copies so they never see a half grown array.
+// Min/max envelopes are kept up to date with the appends so a plot never has to draw every frame
+public class ResultSeries {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private double[] x_cords = new double[INITIAL_CAPACITY];
+	private double[] y_cords = new double[INITIAL_CAPACITY];
+	private double[] z_cords = new double[INITIAL_CAPACITY];
+	private int size = 0;
+
+	private final TraceEnvelope x_envelope = new TraceEnvelope();
+	private final TraceEnvelope y_envelope = new TraceEnvelope();
+	private final TraceEnvelope z_envelope = new TraceEnvelope();
+
+	// Appends every frame of the session in order
+	public void append(TrackingSession session) {
+		append(session, 1, session.size());
+	}
+
+	// Appends slices first to last of the session
+	public synchronized void append(TrackingSession session, int first, int last) {
+		int n = last - first + 1;
+		if(n <= 0) return;
+		ensureCapacity(size + n);
+		System.arraycopy(session.getXCords(), first - 1, x_cords, size, n);
+		System.arraycopy(session.getYCords(), first - 1, y_cords, size, n);
+		System.arraycopy(session.getZCords(), first - 1, z_cords, size, n);
+		size += n;
+		updateEnvelopes();
+	}
+
+	public synchronized void append(double x, double y, double z) {
+		ensureCapacity(size + 1);
+		x_cords[size] = x;
+		y_cords[size] = y;
+		z_cords[size] = z;
+		size++;
+		updateEnvelopes();
+	}
+
+	private void updateEnvelopes() {
+		x_envelope.append(x_cords, size);
+		y_envelope.append(y_cords, size);
+		z_envelope.append(z_cords, size);
+	}
+
+	// Doubles so appending n frames one chunk at a time copies O(n) values in total
+	private void ensureCapacity(int capacity) {
+		if(capacity <= x_cords.length) return;
+		int grown = Math.max(capacity, x_cords.length*2);
+		x_cords = Arrays.copyOf(x_cords, grown);
+		y_cords = Arrays.copyOf(y_cords, grown);
+		z_cords = Arrays.copyOf(z_cords, grown);
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized double[] getXCords() {
+		return Arrays.copyOf(x_cords, size);
+	}
+
+	public synchronized double[] getYCords() {
+		return Arrays.copyOf(y_cords, size);
+	}
+
+	public synchronized double[] getZCords() {
+		return Arrays.copyOf(z_cords, size);
+	}
+
+	// Frame numbers and z of frames first to last, cut down to the extremes of about maxBuckets buckets
+	public synchronized double[][] getZTrace(int first, int last, int maxBuckets) {
+		int[] frames = z_envelope.select(first, last, maxBuckets);
+		double[] indexes = new double[frames.length];
+		double[] z = new double[frames.length];
+		for(int i = 0; i < frames.length; i++) {
+			indexes[i] = frames[i];
+			z[i] = z_cords[frames[i]];
+		}
+		return new double[][] {indexes, z};
+	}
+
+	// X and y of every frame that is an extreme of x or of y in its bucket
+	public synchronized double[][] getXYTrace(int maxBuckets) {
+		int[] frames = TraceEnvelope.union(x_envelope.select(0, size - 1, maxBuckets), y_envelope.select(0, size - 1, maxBuckets));
+		double[] x = new double[frames.length];
+		double[] y = new double[frames.length];
+		for(int i = 0; i < frames.length; i++) {
+			x[i] = x_cords[frames[i]];
+			y[i] = y_cords[frames[i]];
+		}
+		return new double[][] {x, y};
+	}
+}
@@ -0,0 +1,53 @@
+package com.zachRoot;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+// Where tracked positions go as they are made, one row per frame, so a run doesn't have to
+// finish before anything is on disk. Rows are buffered and written a chunk at a time
+public interface ResultSink extends Closeable {
+
+	// Status of a row
+	int OK = 0;
+	int NO_XY = 1;
+	int NO_Z = 2;
+
+	// Frame is 1-indexed. Time is in the units of the recording's file names, -1 if unknown
+	void write(int frame, long time, double x, double y, double z, int status) throws IOException;
+
+	// Writes out the buffered rows
+	void flush() throws IOException;
+
+	static int status(double x, double y, double z) {
+		if(Double.isNaN(x) || Double.isNaN(y)) return NO_XY;
+		if(Double.isNaN(z)) return NO_Z;
+		return OK;
+	}
+
+	// The file if it doesn't exist yet, otherwise the first of name-2.ext, name-3.ext and so on that doesn't,
+	// so earlier results are never written over
+	static File unusedFile(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		String base = dot > 0 ? name.substring(0, dot) : name;
+		String extension = dot > 0 ? name.substring(dot) : "";
+		File unused = file;
+		for(int n = 2; unused.exists(); n++) {
+			unused = new File(file.getAbsoluteFile().getParentFile(), base + "-" + n + extension);
+		}
+		return unused;
+	}
+
+	// Csv for .csv files, the binary columns otherwise
+	static ResultSink open(File file) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if(parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Could not create " + parent);
+		}
+		if(file.getName().toLowerCase().endsWith(".csv")) {
+			return new CsvResultSink(file);
+		}
+		return new BinaryResultSink(file);
+	}
+}
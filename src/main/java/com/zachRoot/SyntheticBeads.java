@@ -0,0 +1,223 @@
+package com.zachRoot;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import com.opencsv.CSVWriter;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.plugin.filter.AVI_Writer;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+// Renders bead ring patterns at known sub pixel x, y and z so tracking can be checked against the truth.
+// Everything comes from the seed so the same settings always give the same frames.
+//
+// The rings spread out and fade as the bead moves away from the focus, roughly like a real bead's diffraction pattern:
+//   I(r) = background + amplitude/(1 + z/zScale) * cos(2*PI*r/period(z)) * exp(-r/decay)
+//   period(z) = period*(1 + z/zScale)
+public class SyntheticBeads {
+
+	// Pixels are sampled on a SUPERSAMPLE x SUPERSAMPLE grid so the pattern is integrated over each pixel
+	private static final int SUPERSAMPLE = 4;
+
+	private final int width;
+	private final int bitDepth;
+	private final long seed;
+
+	// Standard deviation of the gaussian noise added to every pixel, as a fraction of the full scale
+	private double noise = 0.01;
+
+	// Ring shape in pixels, z in the units of the heights
+	private double period = 8;
+	private double decay = 16;
+	private double zScale = 5000;
+
+	public SyntheticBeads(int width, int bitDepth, long seed) {
+		if(bitDepth != 8 && bitDepth != 16 && bitDepth != 32) {
+			throw new IllegalArgumentException("Unsupported bit depth " + bitDepth);
+		}
+		this.width = width;
+		this.bitDepth = bitDepth;
+		this.seed = seed;
+	}
+
+	public SyntheticBeads setNoise(double fractionOfFullScale) {
+		noise = fractionOfFullScale;
+		return this;
+	}
+
+	public SyntheticBeads setRings(double period, double decay, double zScale) {
+		this.period = period;
+		this.decay = decay;
+		this.zScale = zScale;
+		return this;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	// Largest value a pixel can hold. 32 bit frames use the 16 bit scale without clipping
+	private double fullScale() {
+		return bitDepth == 8 ? 255 : 65535;
+	}
+
+	// Noise free intensity r pixels from the center of a bead at height z, as a fraction of the full scale
+	double intensity(double r, double z) {
+		double spread = 1 + z/zScale;
+		return 0.45 + 0.35/spread*Math.cos(2*Math.PI*r/(period*spread))*Math.exp(-r/decay);
+	}
+
+	// One frame with the bead centered at (x, y). Pixel i covers i to i+1
+	public ImageProcessor render(double x, double y, double z, Random random) {
+
+		double scale = fullScale();
+		float[] pixels = new float[width*width];
+
+		for(int j = 0; j < width; j++) {
+			for(int i = 0; i < width; i++) {
+				double sum = 0;
+				for(int sj = 0; sj < SUPERSAMPLE; sj++) {
+					double dy = j + (sj + 0.5)/SUPERSAMPLE - y;
+					for(int si = 0; si < SUPERSAMPLE; si++) {
+						double dx = i + (si + 0.5)/SUPERSAMPLE - x;
+						sum += intensity(Math.sqrt(dx*dx + dy*dy), z);
+					}
+				}
+				double value = (sum/(SUPERSAMPLE*SUPERSAMPLE) + noise*random.nextGaussian())*scale;
+				pixels[i + j*width] = (float)value;
+			}
+		}
+		return toBitDepth(pixels);
+	}
+
+	private ImageProcessor toBitDepth(float[] pixels) {
+		switch(bitDepth) {
+		case 8: {
+			byte[] bytes = new byte[pixels.length];
+			for(int i = 0; i < pixels.length; i++) {
+				bytes[i] = (byte)Math.max(0, Math.min(255, Math.round(pixels[i])));
+			}
+			return new ByteProcessor(width, width, bytes);
+		}
+		case 16: {
+			short[] shorts = new short[pixels.length];
+			for(int i = 0; i < pixels.length; i++) {
+				shorts[i] = (short)Math.max(0, Math.min(65535, Math.round(pixels[i])));
+			}
+			return new ShortProcessor(width, width, shorts, null);
+		}
+		default:
+			return new FloatProcessor(width, width, pixels);
+		}
+	}
+
+	// Reference frames at each height with the bead jittering a fraction of a pixel around the center
+	public ImageStack[] sweep(double[] heights, int framesPerHeight) {
+		Random random = new Random(seed);
+		ImageStack[] stacks = new ImageStack[heights.length];
+		for(int h = 0; h < heights.length; h++) {
+			stacks[h] = new ImageStack(width, width);
+			for(int f = 0; f < framesPerHeight; f++) {
+				double x = width/2.0 + (random.nextDouble() - 0.5)*0.5;
+				double y = width/2.0 + (random.nextDouble() - 0.5)*0.5;
+				stacks[h].addSlice("z=" + heights[h], render(x, y, heights[h], random));
+			}
+		}
+		return stacks;
+	}
+
+	// A bead wandering in x and y while z follows a slow sine between zMin and zMax
+	public Recording recording(int nFrames, double zMin, double zMax) {
+		Random random = new Random(seed + 1);
+		Recording recording = new Recording(nFrames, width);
+
+		double x = width/2.0;
+		double y = width/2.0;
+		double limit = width/8.0;
+		double phase = random.nextDouble()*2*Math.PI;
+
+		for(int f = 0; f < nFrames; f++) {
+			// Brownian steps kept near the center so the rings stay in frame
+			x = Math.max(width/2.0 - limit, Math.min(width/2.0 + limit, x + random.nextGaussian()*0.3));
+			y = Math.max(width/2.0 - limit, Math.min(width/2.0 + limit, y + random.nextGaussian()*0.3));
+			double z = zMin + (zMax - zMin)*(0.5 + 0.5*Math.sin(phase + 2*Math.PI*f/Math.max(1, nFrames/3.0)));
+
+			recording.x[f] = x;
+			recording.y[f] = y;
+			recording.z[f] = z;
+			recording.stack.addSlice("frame " + (f+1), render(x, y, z, random));
+		}
+		return recording;
+	}
+
+	// Frames of a tracking run and where the bead really was, 0-indexed by frame
+	public static class Recording {
+		public final ImageStack stack;
+		public final double[] x;
+		public final double[] y;
+		public final double[] z;
+
+		Recording(int nFrames, int width) {
+			stack = new ImageStack(width, width);
+			x = new double[nFrames];
+			y = new double[nFrames];
+			z = new double[nFrames];
+		}
+	}
+
+	// Writes the sweep as one .avi per height in directories named after the height, the layout the zlut is built from.
+	// AVI only holds 8 bit gray so deeper frames are scaled down when written
+	public static void writeSweep(File directory, double[] heights, ImageStack[] stacks) throws IOException {
+		for(int h = 0; h < heights.length; h++) {
+			File heightDirectory = new File(directory, String.valueOf(heights[h]));
+			mkdirs(heightDirectory);
+			writeAvi(stacks[h], new File(heightDirectory, "sweep.avi"));
+		}
+	}
+
+	// Writes the recording as timestamped chunks of framesPerChunk frames, plus the true positions in truth.csv
+	public static void writeRecording(File directory, Recording recording, int framesPerChunk, long startMillis, long frameMillis) throws IOException {
+		mkdirs(directory);
+
+		int nFrames = recording.stack.size();
+		for(int first = 1; first <= nFrames; first += framesPerChunk) {
+			ImageStack chunk = new ImageStack(recording.stack.getWidth(), recording.stack.getHeight());
+			for(int i = first; i < first + framesPerChunk && i <= nFrames; i++) {
+				chunk.addSlice(recording.stack.getSliceLabel(i), recording.stack.getProcessor(i));
+			}
+			long time = startMillis + (first - 1)*frameMillis;
+			writeAvi(chunk, new File(directory, "synthetic-" + time + ".avi"));
+		}
+
+		try (CSVWriter writer = new CSVWriter(new FileWriter(new File(directory, "truth.csv")))) {
+			writer.writeNext(new String[] {"frame", "x", "y", "z"}, false);
+			for(int f = 0; f < nFrames; f++) {
+				writer.writeNext(new String[] {
+						Integer.toString(f+1),
+						String.format(Locale.ROOT, "%.6f", recording.x[f]),
+						String.format(Locale.ROOT, "%.6f", recording.y[f]),
+						String.format(Locale.ROOT, "%.6f", recording.z[f])
+				}, false);
+			}
+		}
+	}
+
+	private static void writeAvi(ImageStack stack, File file) throws IOException {
+		ImagePlus image = new ImagePlus(file.getName(), stack);
+		new AVI_Writer().writeImage(image, file.getAbsolutePath(), AVI_Writer.NO_COMPRESSION, 0);
+	}
+
+	private static void mkdirs(File directory) throws IOException {
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+	}
+}
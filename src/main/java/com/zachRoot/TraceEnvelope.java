@@ -0,0 +1,143 @@
+package com.zachRoot;
+
+import java.util.Arrays;
+
+// Where the lowest and highest values of a growing trace are, in buckets of 8, 16, 32... frames.
+// Drawing the extremes of each bucket keeps every spike and the envelope of the trace at any zoom,
+// with a few thousand points whatever the length. Holds indexes only, the values stay in the owner's array
+class TraceEnvelope {
+
+	// Finest buckets are 1 << BASE_BITS frames, the coarsest level holds every int index in one bucket
+	private static final int BASE_BITS = 3;
+	private static final int LEVELS = 32 - BASE_BITS;
+
+	// minIndex[level][bucket] with buckets of 1 << (BASE_BITS + level) frames. -1 while the bucket is all NaN
+	private final int[][] minIndex = new int[LEVELS][1];
+	private final int[][] maxIndex = new int[LEVELS][1];
+	private int size = 0;
+
+	int size() {
+		return size;
+	}
+
+	// Takes in values[size()] to values[newSize-1]. Earlier values must not have changed
+	void append(double[] values, int newSize) {
+		for(int i = size; i < newSize; i++) {
+			double value = values[i];
+			boolean isMin = !Double.isNaN(value);
+			boolean isMax = isMin;
+
+			// A bucket holds the bucket below it, so once the value isn't an extreme of one level it isn't of any
+			// level above. Only the levels where i starts a bucket have to be cleared whatever the value
+			for(int level = 0; level < LEVELS; level++) {
+				int bits = BASE_BITS + level;
+				int bucket = i >>> bits;
+				boolean starts = (i & ((1 << bits) - 1)) == 0;
+				if(starts) {
+					ensureBuckets(level, bucket);
+					minIndex[level][bucket] = -1;
+					maxIndex[level][bucket] = -1;
+				} else if(!isMin && !isMax) {
+					break;
+				}
+
+				if(isMin) {
+					int min = minIndex[level][bucket];
+					if(min < 0 || value < values[min]) minIndex[level][bucket] = i;
+					else isMin = false;
+				}
+				if(isMax) {
+					int max = maxIndex[level][bucket];
+					if(max < 0 || value > values[max]) maxIndex[level][bucket] = i;
+					else isMax = false;
+				}
+			}
+		}
+		size = Math.max(size, newSize);
+	}
+
+	private void ensureBuckets(int level, int bucket) {
+		if(bucket < minIndex[level].length) return;
+		int grown = Math.max(bucket + 1, minIndex[level].length*2);
+		minIndex[level] = Arrays.copyOf(minIndex[level], grown);
+		maxIndex[level] = Arrays.copyOf(maxIndex[level], grown);
+	}
+
+	/* Frames to draw so that frames first to last look the same at about maxBuckets buckets across:
+	 * every frame when there are few enough, otherwise the lowest and highest frame of each bucket in frame order.
+	 * A bucket that is all NaN gives its first frame so the line still breaks there. Buckets that are cut by the
+	 * ends of the range are split into finer ones, so nothing outside the range stands in for what is inside it
+	 */
+	int[] select(int first, int last, int maxBuckets) {
+		first = Math.max(0, first);
+		last = Math.min(size - 1, last);
+		if(last < first) return new int[0];
+
+		int span = last - first + 1;
+		if(span <= 2*maxBuckets) {
+			int[] all = new int[span];
+			for(int i = 0; i < span; i++) all[i] = first + i;
+			return all;
+		}
+
+		// Smallest buckets that still fit in maxBuckets
+		int level = 0;
+		while(level < LEVELS - 1 && (span >>> (BASE_BITS + level)) > maxBuckets) {
+			level++;
+		}
+		int bits = BASE_BITS + level;
+
+		int firstBucket = first >>> bits;
+		int lastBucket = last >>> bits;
+		// Each cut bucket adds at most two frames a level and the frames of one finest bucket
+		int[] selected = new int[2*(lastBucket - firstBucket + 1) + 2*(2*level + (1 << BASE_BITS))];
+		int n = 0;
+		for(int bucket = firstBucket; bucket <= lastBucket; bucket++) {
+			n = selectIn(level, bucket, first, last, selected, n);
+		}
+		return Arrays.copyOf(selected, n);
+	}
+
+	// Puts the extremes of the bucket, or of the parts of it from first to last when it is cut, in selected from n.
+	// Returns the new count
+	private int selectIn(int level, int bucket, int first, int last, int[] selected, int n) {
+		int bits = BASE_BITS + level;
+		long start = (long)bucket << bits;
+		long end = Math.min(start + (1L << bits), size) - 1;
+		if(end < first || start > last) return n;
+
+		if(start >= first && end <= last) {
+			int min = minIndex[level][bucket];
+			int max = maxIndex[level][bucket];
+			if(min < 0) {
+				selected[n++] = (int)start;
+			} else if(min == max) {
+				selected[n++] = min;
+			} else {
+				selected[n++] = Math.min(min, max);
+				selected[n++] = Math.max(min, max);
+			}
+		} else if(level == 0) {
+			for(long i = Math.max(start, first); i <= Math.min(end, last); i++) {
+				selected[n++] = (int)i;
+			}
+		} else {
+			n = selectIn(level - 1, 2*bucket, first, last, selected, n);
+			n = selectIn(level - 1, 2*bucket + 1, first, last, selected, n);
+		}
+		return n;
+	}
+
+	// Frames in either selection, in order and once each
+	static int[] union(int[] a, int[] b) {
+		int[] merged = new int[a.length + b.length];
+		int i = 0, j = 0, n = 0;
+		while(i < a.length || j < b.length) {
+			int next = j >= b.length || (i < a.length && a[i] <= b[j]) ? a[i] : b[j];
+			if(i < a.length && a[i] == next) i++;
+			if(j < b.length && b[j] == next) j++;
+			merged[n++] = next;
+		}
+		return Arrays.copyOf(merged, n);
+	}
+}
@@ -0,0 +1,101 @@
+package com.zachRoot;
+
+import java.util.Arrays;
+
+import ij.gui.Plot;
+
+// Z against frame number, or y against x, of a series drawn from its min/max envelope instead of every frame.
+// The z plot is decimated again for the frames in view whenever it is redrawn, so zooming in brings back the detail
+public class TracePlot extends Plot {
+
+	// About one bucket per screen pixel of the widest plot window
+	static final int BUCKETS = 2048;
+
+	private final ResultSeries series;
+	private final boolean xy;
+
+	// Frames the z line was last decimated for
+	private int shownFirst = -1;
+	private int shownLast = -1;
+	// Limits after the last fit, to tell whether the user has zoomed since
+	private double[] fitLimits;
+	// Set while the line is swapped so a redraw from inside replace doesn't decimate again
+	private boolean replacing = false;
+
+	private TracePlot(String title, String xLabel, String yLabel, ResultSeries series, boolean xy) {
+		super(title, xLabel, yLabel);
+		this.series = series;
+		this.xy = xy;
+
+		double[][] trace = trace(0, Integer.MAX_VALUE);
+		add("line", trace[0], trace[1]);
+	}
+
+	public static TracePlot z(String title, ResultSeries series) {
+		return new TracePlot(title, "Frame number", "Z Coordinate", series, false);
+	}
+
+	public static TracePlot xy(String title, ResultSeries series) {
+		return new TracePlot(title, "X Coordinate", "Y Coordinate", series, true);
+	}
+
+	private double[][] trace(int first, int last) {
+		if(xy) return series.getXYTrace(BUCKETS);
+		shownFirst = first;
+		shownLast = last;
+		return series.getZTrace(first, last, BUCKETS);
+	}
+
+	// Takes in frames appended to the series. Follows the whole series unless the user zoomed in
+	public void refresh() {
+		double[] limits = getLimits();
+		boolean zoomed = fitLimits != null && limits != null && !Arrays.equals(limits, fitLimits);
+
+		if(zoomed) {
+			// Shown again with the frames in view, which may now include new ones
+			shownFirst = -1;
+			updateImage();
+			return;
+		}
+		replace(0, trace(0, Integer.MAX_VALUE));
+		setLimitsToFit(true);
+		fitLimits = getLimits();
+	}
+
+	// Zooming and panning come through here
+	@Override
+	public void updateImage() {
+		double[] limits = getLimits();
+		if(series != null && !xy && !replacing && limits != null) {
+			int first = (int)Math.floor(limits[0]);
+			int last = (int)Math.ceil(limits[1]);
+			if(first != shownFirst || last != shownLast) {
+				replace(0, trace(first, last));
+			}
+		}
+		super.updateImage();
+	}
+
+	private void replace(int index, double[][] trace) {
+		replacing = true;
+		try {
+			replace(index, "line", trace[0], trace[1]);
+		} finally {
+			replacing = false;
+		}
+	}
+
+	// Frame numbers and values of a finished trace cut down to the extremes of BUCKETS buckets
+	static double[][] decimate(double[] values) {
+		TraceEnvelope envelope = new TraceEnvelope();
+		envelope.append(values, values.length);
+		int[] frames = envelope.select(0, values.length - 1, BUCKETS);
+		double[] indexes = new double[frames.length];
+		double[] selected = new double[frames.length];
+		for(int i = 0; i < frames.length; i++) {
+			indexes[i] = frames[i];
+			selected[i] = values[frames[i]];
+		}
+		return new double[][] {indexes, selected};
+	}
+}
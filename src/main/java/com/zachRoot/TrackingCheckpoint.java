@@ -0,0 +1,261 @@
+package com.zachRoot;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+/* The frames of a run tracked so far, so a run that is stopped partway can carry on from where it got to.
+ * Blocks are only ever appended, and each is checked by its crc so one cut short by a crash is left out:
+ *
+ *   header:  8 byte magic "BEADCKP1", int32 version, int32 frames in the stack, int64 fingerprint
+ *   block:   int32 first slice, int32 last slice, float64 x[n], float64 y[n], float64 z[n], int64 crc32
+ *
+ * Blocks follow on from each other in slice order. The fingerprint covers the recording, the zlut and the
+ * settings the results depend on, and a checkpoint with a different one is started over
+ */
+class TrackingCheckpoint implements Closeable {
+
+	static final byte[] MAGIC = {'B', 'E', 'A', 'D', 'C', 'K', 'P', '1'};
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 24;
+	static final int BLOCK_HEADER_BYTES = 8;
+
+	// Slices spread over a stack that isn't read from files whose pixels go in the fingerprint
+	static final int FINGERPRINT_SLICES = 16;
+
+	// Longest appended blocks are left in the page cache before they are forced to disk
+	static final long FSYNC_INTERVAL_MILLIS = 2000;
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private int completed;
+	private long lastForced = System.currentTimeMillis();
+	private boolean dirty = false;
+
+	private TrackingCheckpoint(RandomAccessFile raf, int completed) {
+		this.raf = raf;
+		this.channel = raf.getChannel();
+		this.completed = completed;
+	}
+
+	// Opens the checkpoint and reads the frames it holds into the arrays, 0-indexed by frame.
+	// One made for a different fingerprint or number of frames is started over
+	static TrackingCheckpoint open(File file, long fingerprint, int nFrames, double[] x, double[] y, double[] z) throws IOException {
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		if(parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Could not create " + parent);
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			int completed = -1;
+			long end = HEADER_BYTES;
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			if(readFully(channel, header, 0)) {
+				header.flip();
+				byte[] magic = new byte[MAGIC.length];
+				header.get(magic);
+				if(Arrays.equals(magic, MAGIC) && header.getInt() == VERSION && header.getInt() == nFrames && header.getLong() == fingerprint) {
+					completed = 0;
+				}
+			}
+
+			if(completed < 0) {
+				// Not this run's, so it is replaced
+				channel.truncate(0);
+				header.clear();
+				header.put(MAGIC).putInt(VERSION).putInt(nFrames).putLong(fingerprint);
+				header.flip();
+				writeFully(channel, header, 0);
+				channel.force(true);
+				completed = 0;
+			} else {
+				ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+				while(true) {
+					blockHeader.clear();
+					if(!readFully(channel, blockHeader, end)) break;
+					int first = blockHeader.getInt(0);
+					int last = blockHeader.getInt(4);
+					if(first != completed + 1 || last < first || last > nFrames) break;
+
+					int n = last - first + 1;
+					ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_BYTES + 24*n + 8).order(ByteOrder.LITTLE_ENDIAN);
+					if(!readFully(channel, block, end)) break;
+
+					CRC32 crc = new CRC32();
+					crc.update(block.array(), 0, block.capacity() - 8);
+					if(block.getLong(block.capacity() - 8) != crc.getValue()) break;
+
+					block.position(BLOCK_HEADER_BYTES);
+					for(int i = 0; i < n; i++) x[first - 1 + i] = block.getDouble();
+					for(int i = 0; i < n; i++) y[first - 1 + i] = block.getDouble();
+					for(int i = 0; i < n; i++) z[first - 1 + i] = block.getDouble();
+
+					completed = last;
+					end += block.capacity();
+				}
+				// Anything after the last whole block was cut short and is written again
+				channel.truncate(end);
+			}
+
+			channel.position(end);
+			return new TrackingCheckpoint(raf, completed);
+
+		} catch (IOException | RuntimeException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	// Number of frames from the first that the checkpoint holds
+	int getCompletedFrames() {
+		return completed;
+	}
+
+	// Adds slices first to last, which must follow on from the frames already held. Forced to disk at most
+	// every FSYNC_INTERVAL_MILLIS so a run isn't held up by the disk, and always on close
+	void append(int first, int last, double[] x, double[] y, double[] z) throws IOException {
+		if(first != completed + 1 || last < first) {
+			throw new IllegalArgumentException("Slices " + first + "-" + last + " don't follow on from " + completed);
+		}
+
+		int n = last - first + 1;
+		ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_BYTES + 24*n + 8).order(ByteOrder.LITTLE_ENDIAN);
+		block.putInt(first).putInt(last);
+		for(int i = 0; i < n; i++) block.putDouble(x[first - 1 + i]);
+		for(int i = 0; i < n; i++) block.putDouble(y[first - 1 + i]);
+		for(int i = 0; i < n; i++) block.putDouble(z[first - 1 + i]);
+
+		CRC32 crc = new CRC32();
+		crc.update(block.array(), 0, block.position());
+		block.putLong(crc.getValue());
+		block.flip();
+
+		while(block.hasRemaining()) {
+			channel.write(block);
+		}
+		completed = last;
+		dirty = true;
+
+		long now = System.currentTimeMillis();
+		if(now - lastForced >= FSYNC_INTERVAL_MILLIS) {
+			force();
+		}
+	}
+
+	private void force() throws IOException {
+		if(dirty) channel.force(false);
+		dirty = false;
+		lastForced = System.currentTimeMillis();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(!channel.isOpen()) return;
+		try {
+			force();
+		} finally {
+			raf.close();
+		}
+	}
+
+	// The files a stack is read from by path, size and modification time, other stacks by their size and the pixels
+	// of FINGERPRINT_SLICES slices spread over them, then the zlut and the session's settings
+	static long fingerprint(ImageStack stack, Zlut zlut, TrackingSession session) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(8192).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(stack.getWidth()).putInt(stack.getHeight()).putInt(stack.size());
+
+		List<File> files = sourceFiles(stack);
+		if(files != null) {
+			for(File file: files) {
+				digest.update(file.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+				buffer.putLong(file.length()).putLong(file.lastModified());
+				update(digest, buffer);
+			}
+		} else {
+			int samples = Math.min(FINGERPRINT_SLICES, stack.size());
+			for(int s = 0; s < samples; s++) {
+				int slice = samples == 1 ? 1 : 1 + (int)((long)s*(stack.size() - 1)/(samples - 1));
+				ImageProcessor ip = stack.getProcessor(slice);
+				if(buffer.remaining() < 4) update(digest, buffer);
+				buffer.putInt(slice);
+				for(int i = 0; i < ip.getPixelCount(); i++) {
+					if(buffer.remaining() < 4) update(digest, buffer);
+					buffer.putFloat(ip.getf(i));
+				}
+			}
+		}
+		update(digest, buffer);
+
+		buffer.putInt(zlut.radius).putInt(zlut.imageWidth);
+		for(double height: zlut.heights) {
+			if(buffer.remaining() < 8) update(digest, buffer);
+			buffer.putDouble(height);
+		}
+		for(float value: zlut.data) {
+			if(buffer.remaining() < 4) update(digest, buffer);
+			buffer.putFloat(value);
+		}
+		update(digest, buffer);
+
+		// Settings that change the results
+		digest.update((session.getLocalizer().getClass().getName() + "|" + session.getDistanceMetric()).getBytes(StandardCharsets.UTF_8));
+		buffer.putInt(session.getSearchWindow()).putInt(session.getPcaComponents()).putInt(RadialBinCache.getSubPixelGrid());
+		buffer.putInt(XYPositioning.getFftMinWidth()).put((byte)(XYPositioning.isFftEvenWidth() ? 1 : 0));
+		update(digest, buffer);
+
+		return ByteBuffer.wrap(digest.digest()).getLong();
+	}
+
+	// Files the frames are read from, null when the stack isn't read from files
+	private static List<File> sourceFiles(ImageStack stack) {
+		if(stack instanceof AviSequenceStack) return ((AviSequenceStack)stack).getFiles();
+		if(stack instanceof MappedAviStack) return Collections.singletonList(((MappedAviStack)stack).getFile());
+		File cached = FrameCache.sourceOf(stack);
+		return cached == null ? null : Collections.singletonList(cached);
+	}
+
+	private static void update(MessageDigest digest, ByteBuffer buffer) {
+		digest.update(buffer.array(), 0, buffer.position());
+		buffer.clear();
+	}
+
+	// False if the file ends first
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if(read < 0) return false;
+		}
+		return true;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+}
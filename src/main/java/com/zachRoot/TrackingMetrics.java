@@ -0,0 +1,426 @@
+package com.zachRoot;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import ij.measure.ResultsTable;
+
+// Where the time of a tracking run goes and why frames come out without a position.
+// Safe to record into from every tracking thread. Each stage keeps a latency histogram with
+// 8 buckets per power of two, so percentiles are within about 10% at any scale.
+// Every thread counts into histograms of its own, which are added up when they are read and
+// folded into the shared ones when the thread says it is done, see threadDone
+public class TrackingMetrics {
+
+	public enum Stage {
+		DECODE("Decode"),
+		CENTER_OF_MASS("Center of mass"),
+		CORRELATION("XY correlation"),
+		QUADRANT_INTERPOLATION("Quadrant interpolation"),
+		RADIAL_PROFILE("Radial profile"),
+		ZLUT_MATCH("ZLUT match");
+
+		final String label;
+
+		Stage(String label) {
+			this.label = label;
+		}
+	}
+
+	// Reasons a frame has no x/y or no z
+	public enum Failure {
+		XY_OUT_OF_BOUNDS("Correlation peak too close to the edge for the XY fit"),
+		ZLUT_EDGE("Closest ZLUT profile at the edge of the ZLUT"),
+		FIT_REJECTED("Z fit more than the fit window from the closest profile");
+
+		final String label;
+
+		Failure(String label) {
+			this.label = label;
+		}
+	}
+
+	// Outcomes of looking for the bead in the search window around its predicted position
+	public enum Event {
+		WINDOW_FOUND("Bead found in the search window"),
+		WINDOW_LOST("Bead not in the search window, whole frame searched");
+
+		final String label;
+
+		Event(String label) {
+			this.label = label;
+		}
+	}
+
+	// Queues between the stages of a FramePipeline
+	public enum Queue {
+		DECODED("Decoded frames waiting to be tracked"),
+		TRACKED("Tracked frames waiting for the results");
+
+		final String label;
+
+		Queue(String label) {
+			this.label = label;
+		}
+	}
+
+	private static final int SUB_BUCKETS = 8;
+	private static final int SUB_BITS = 3;
+	private static final int BUCKETS = (64 - SUB_BITS)*SUB_BUCKETS + SUB_BUCKETS;
+
+	// Histograms of each thread that recorded, by stage then bucket. Only the owning thread writes to one,
+	// so counts read while tracking is still running can lag behind a little
+	private final List<long[][]> histograms = new CopyOnWriteArrayList<>();
+	private final ThreadLocal<long[][]> threadHistograms = ThreadLocal.withInitial(() -> {
+		long[][] histogram = new long[Stage.values().length][BUCKETS];
+		histograms.add(histogram);
+		return histogram;
+	});
+	// Counts of the threads that are done. Guarded by this
+	private final long[][] doneHistograms = new long[Stage.values().length][BUCKETS];
+	private final LongAdder[] totals = new LongAdder[Stage.values().length];
+	private final LongAdder[] failures = new LongAdder[Failure.values().length];
+	private final LongAdder[] events = new LongAdder[Event.values().length];
+	private final LongAdder frames = new LongAdder();
+
+	// Per queue: runs put, runs already waiting summed over the puts, puts that found it full and takes that found it empty
+	private final LongAdder[] queuePuts = new LongAdder[Queue.values().length];
+	private final LongAdder[] queueOccupancy = new LongAdder[Queue.values().length];
+	private final LongAdder[] queueFull = new LongAdder[Queue.values().length];
+	private final LongAdder[] queueTakes = new LongAdder[Queue.values().length];
+	private final LongAdder[] queueEmpty = new LongAdder[Queue.values().length];
+	private final int[] queueDepths = new int[Queue.values().length];
+
+	// Wall clock of the run, for frames per second
+	private volatile long startNanos = 0;
+	private volatile long endNanos = 0;
+
+	public TrackingMetrics() {
+		for(int s = 0; s < totals.length; s++) {
+			totals[s] = new LongAdder();
+		}
+		for(int f = 0; f < failures.length; f++) {
+			failures[f] = new LongAdder();
+		}
+		for(int e = 0; e < events.length; e++) {
+			events[e] = new LongAdder();
+		}
+		for(int q = 0; q < queuePuts.length; q++) {
+			queuePuts[q] = new LongAdder();
+			queueOccupancy[q] = new LongAdder();
+			queueFull[q] = new LongAdder();
+			queueTakes[q] = new LongAdder();
+			queueEmpty[q] = new LongAdder();
+		}
+	}
+
+	public void startRun() {
+		startNanos = System.nanoTime();
+		endNanos = 0;
+	}
+
+	public void endRun() {
+		endNanos = System.nanoTime();
+	}
+
+	public void record(Stage stage, long nanos) {
+		threadHistograms.get()[stage.ordinal()][bucket(nanos)]++;
+		totals[stage.ordinal()].add(nanos);
+	}
+
+	// Adds the counts of the calling thread to the shared histograms and lets go of its own, so threads that only
+	// record for a while, like those of a pipeline run, don't each keep a histogram for as long as the metrics live.
+	// The thread gets a new one if it records again
+	public void threadDone() {
+		long[][] histogram = threadHistograms.get();
+		synchronized(this) {
+			for(int s = 0; s < histogram.length; s++) {
+				for(int b = 0; b < BUCKETS; b++) {
+					doneHistograms[s][b] += histogram[s][b];
+				}
+			}
+			histograms.remove(histogram);
+		}
+		threadHistograms.remove();
+	}
+
+	public void count(Failure failure) {
+		failures[failure.ordinal()].increment();
+	}
+
+	public void count(Event event) {
+		events[event.ordinal()].increment();
+	}
+
+	public void frameDone() {
+		frames.increment();
+	}
+
+	public synchronized void setQueueDepth(Queue queue, int depth) {
+		queueDepths[queue.ordinal()] = depth;
+	}
+
+	// occupancy is how many were waiting in the queue before this put
+	public void recordPut(Queue queue, int occupancy, boolean full) {
+		queuePuts[queue.ordinal()].increment();
+		queueOccupancy[queue.ordinal()].add(occupancy);
+		if(full) queueFull[queue.ordinal()].increment();
+	}
+
+	public void recordTake(Queue queue, boolean empty) {
+		queueTakes[queue.ordinal()].increment();
+		if(empty) queueEmpty[queue.ordinal()].increment();
+	}
+
+	// Values below SUB_BUCKETS get a bucket each, above that each power of two is split in SUB_BUCKETS
+	static int bucket(long nanos) {
+		if(nanos < SUB_BUCKETS) return (int)Math.max(0, nanos);
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int)(nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1)*SUB_BUCKETS + sub;
+	}
+
+	// Smallest value that falls in the bucket
+	static long bucketFloor(int bucket) {
+		if(bucket < SUB_BUCKETS) return bucket;
+		int exponent = bucket/SUB_BUCKETS + SUB_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+	}
+
+	// The stage's histograms of every thread added up
+	private synchronized long[] histogram(Stage stage) {
+		long[] histogram = doneHistograms[stage.ordinal()].clone();
+		for(long[][] thread: histograms) {
+			long[] counts = thread[stage.ordinal()];
+			for(int b = 0; b < BUCKETS; b++) {
+				histogram[b] += counts[b];
+			}
+		}
+		return histogram;
+	}
+
+	public long getCount(Stage stage) {
+		long count = 0;
+		for(long bucketCount: histogram(stage)) {
+			count += bucketCount;
+		}
+		return count;
+	}
+
+	public double getMeanNanos(Stage stage) {
+		long count = getCount(stage);
+		return count == 0 ? Double.NaN : totals[stage.ordinal()].sum()/(double)count;
+	}
+
+	public long getTotalNanos(Stage stage) {
+		return totals[stage.ordinal()].sum();
+	}
+
+	// Lower edge of the bucket holding the given fraction of the samples
+	public long getPercentileNanos(Stage stage, double fraction) {
+		long[] histogram = histogram(stage);
+		long count = 0;
+		for(long bucketCount: histogram) {
+			count += bucketCount;
+		}
+		if(count == 0) return 0;
+
+		long target = (long)Math.ceil(fraction*count);
+		long seen = 0;
+		for(int b = 0; b < BUCKETS; b++) {
+			seen += histogram[b];
+			if(seen >= Math.max(1, target)) return bucketFloor(b);
+		}
+		return bucketFloor(BUCKETS - 1);
+	}
+
+	public long getFailures(Failure failure) {
+		return failures[failure.ordinal()].sum();
+	}
+
+	public long getEvents(Event event) {
+		return events[event.ordinal()].sum();
+	}
+
+	public synchronized int getQueueDepth(Queue queue) {
+		return queueDepths[queue.ordinal()];
+	}
+
+	// Mean number waiting in the queue, as seen by each put
+	public double getMeanOccupancy(Queue queue) {
+		long puts = queuePuts[queue.ordinal()].sum();
+		return puts == 0 ? Double.NaN : queueOccupancy[queue.ordinal()].sum()/(double)puts;
+	}
+
+	// Fraction of puts that had to wait for room. High when the stage after the queue is the slow one
+	public double getFullFraction(Queue queue) {
+		long puts = queuePuts[queue.ordinal()].sum();
+		return puts == 0 ? Double.NaN : queueFull[queue.ordinal()].sum()/(double)puts;
+	}
+
+	// Fraction of takes that had to wait for something. High when the stage before the queue is the slow one
+	public double getEmptyFraction(Queue queue) {
+		long takes = queueTakes[queue.ordinal()].sum();
+		return takes == 0 ? Double.NaN : queueEmpty[queue.ordinal()].sum()/(double)takes;
+	}
+
+	public long getQueuePuts(Queue queue) {
+		return queuePuts[queue.ordinal()].sum();
+	}
+
+	public long getFrames() {
+		return frames.sum();
+	}
+
+	public double getSeconds() {
+		long end = endNanos != 0 ? endNanos : System.nanoTime();
+		return startNanos == 0 ? Double.NaN : (end - startNanos)/1e9;
+	}
+
+	public double getFramesPerSecond() {
+		return getFrames()/getSeconds();
+	}
+
+	// One row per stage, failure, event and queue
+	public ResultsTable toResultsTable() {
+		ResultsTable table = new ResultsTable();
+
+		long allStages = 0;
+		for(Stage stage: Stage.values()) {
+			allStages += getTotalNanos(stage);
+		}
+
+		for(Stage stage: Stage.values()) {
+			table.incrementCounter();
+			table.addValue("Stage", stage.label);
+			table.addValue("Count", getCount(stage));
+			table.addValue("Mean (us)", getMeanNanos(stage)/1e3);
+			table.addValue("p50 (us)", getPercentileNanos(stage, 0.5)/1e3);
+			table.addValue("p90 (us)", getPercentileNanos(stage, 0.9)/1e3);
+			table.addValue("p99 (us)", getPercentileNanos(stage, 0.99)/1e3);
+			table.addValue("Share (%)", allStages == 0 ? 0 : 100.0*getTotalNanos(stage)/allStages);
+		}
+
+		for(Failure failure: Failure.values()) {
+			table.incrementCounter();
+			table.addValue("Stage", failure.label);
+			table.addValue("Count", getFailures(failure));
+		}
+
+		for(Event event: Event.values()) {
+			table.incrementCounter();
+			table.addValue("Stage", event.label);
+			table.addValue("Count", getEvents(event));
+		}
+
+		for(Queue queue: Queue.values()) {
+			if(getQueuePuts(queue) == 0) continue;
+			table.incrementCounter();
+			table.addValue("Stage", queue.label);
+			table.addValue("Count", getQueuePuts(queue));
+			table.addValue("Depth", getQueueDepth(queue));
+			table.addValue("Mean waiting", getMeanOccupancy(queue));
+			table.addValue("Full on put (%)", 100*getFullFraction(queue));
+			table.addValue("Empty on take (%)", 100*getEmptyFraction(queue));
+		}
+
+		table.incrementCounter();
+		table.addValue("Stage", "Frames per second");
+		table.addValue("Count", getFrames());
+		table.addValue("Mean (us)", 1e6/getFramesPerSecond());
+		return table;
+	}
+
+	public String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append(String.format(Locale.ROOT, "  \"frames\": %d,%n", getFrames()));
+		json.append(String.format(Locale.ROOT, "  \"seconds\": %.3f,%n", getSeconds()));
+		json.append(String.format(Locale.ROOT, "  \"framesPerSecond\": %.1f,%n", getFramesPerSecond()));
+
+		json.append("  \"stages\": {\n");
+		Stage[] stages = Stage.values();
+		for(int s = 0; s < stages.length; s++) {
+			Stage stage = stages[s];
+			json.append(String.format(Locale.ROOT,
+					"    \"%s\": {\"count\": %d, \"meanNanos\": %.0f, \"p50Nanos\": %d, \"p90Nanos\": %d, \"p99Nanos\": %d, \"totalNanos\": %d}%s%n",
+					stage.name(), getCount(stage), getCount(stage) == 0 ? 0 : getMeanNanos(stage),
+					getPercentileNanos(stage, 0.5), getPercentileNanos(stage, 0.9), getPercentileNanos(stage, 0.99),
+					getTotalNanos(stage), s < stages.length - 1 ? "," : ""));
+		}
+		json.append("  },\n");
+
+		json.append("  \"failures\": {\n");
+		Failure[] all = Failure.values();
+		for(int f = 0; f < all.length; f++) {
+			json.append(String.format(Locale.ROOT, "    \"%s\": %d%s%n", all[f].name(), getFailures(all[f]), f < all.length - 1 ? "," : ""));
+		}
+		json.append("  },\n");
+
+		json.append("  \"events\": {\n");
+		Event[] allEvents = Event.values();
+		for(int e = 0; e < allEvents.length; e++) {
+			json.append(String.format(Locale.ROOT, "    \"%s\": %d%s%n", allEvents[e].name(), getEvents(allEvents[e]), e < allEvents.length - 1 ? "," : ""));
+		}
+		json.append("  },\n");
+
+		json.append("  \"queues\": {\n");
+		Queue[] queues = Queue.values();
+		for(int q = 0; q < queues.length; q++) {
+			Queue queue = queues[q];
+			json.append(String.format(Locale.ROOT,
+					"    \"%s\": {\"depth\": %d, \"puts\": %d, \"meanWaiting\": %.2f, \"fullOnPut\": %.4f, \"emptyOnTake\": %.4f}%s%n",
+					queue.name(), getQueueDepth(queue), getQueuePuts(queue), zeroIfNaN(getMeanOccupancy(queue)),
+					zeroIfNaN(getFullFraction(queue)), zeroIfNaN(getEmptyFraction(queue)), q < queues.length - 1 ? "," : ""));
+		}
+		json.append("  }\n");
+		json.append("}\n");
+		return json.toString();
+	}
+
+	// Same values as the json, one line per stage, failure or event
+	public String toCsv() {
+		StringBuilder csv = new StringBuilder("name,count,meanNanos,p50Nanos,p90Nanos,p99Nanos,totalNanos\n");
+		for(Stage stage: Stage.values()) {
+			csv.append(String.format(Locale.ROOT, "%s,%d,%.0f,%d,%d,%d,%d%n", stage.name(), getCount(stage),
+					getCount(stage) == 0 ? 0 : getMeanNanos(stage), getPercentileNanos(stage, 0.5),
+					getPercentileNanos(stage, 0.9), getPercentileNanos(stage, 0.99), getTotalNanos(stage)));
+		}
+		for(Failure failure: Failure.values()) {
+			csv.append(failure.name()).append(',').append(getFailures(failure)).append(",,,,,\n");
+		}
+		for(Event event: Event.values()) {
+			csv.append(event.name()).append(',').append(getEvents(event)).append(",,,,,\n");
+		}
+		// Mean waiting in the mean column, and the full and empty fractions in the p50 and p90 columns
+		for(Queue queue: Queue.values()) {
+			csv.append(String.format(Locale.ROOT, "%s_QUEUE,%d,%.2f,%.4f,%.4f,,%n", queue.name(), getQueuePuts(queue),
+					zeroIfNaN(getMeanOccupancy(queue)), zeroIfNaN(getFullFraction(queue)), zeroIfNaN(getEmptyFraction(queue))));
+		}
+		csv.append(String.format(Locale.ROOT, "FRAMES_PER_SECOND,%d,%.1f,,,,%n", getFrames(), getFramesPerSecond()));
+		return csv.toString();
+	}
+
+	private static double zeroIfNaN(double value) {
+		return Double.isNaN(value) ? 0 : value;
+	}
+
+	public void writeJson(File file) throws IOException {
+		try (Writer writer = new FileWriter(file)) {
+			writer.write(toJson());
+		}
+	}
+
+	public void writeCsv(File file) throws IOException {
+		try (Writer writer = new FileWriter(file)) {
+			writer.write(toCsv());
+		}
+	}
+}
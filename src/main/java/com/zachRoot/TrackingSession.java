@@ -0,0 +1,346 @@
+package com.zachRoot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+// A single tracking run. Owns its ZLUT and result arrays so that several runs
+// can happen in the same JVM, and frames can be tracked on multiple threads.
+public class TrackingSession {
+
+	// Frames tracked between writes to a checkpoint
+	private static final int BLOCK_FRAMES = 4096;
+	
+	private final ImagePlus image;
+	private final Zlut zlut;
+	private final TrackingMetrics metrics = new TrackingMetrics();
+	private volatile BeadLocalizer localizer = new CrossCorrelationLocalizer();
+	// Width of the window the bead is looked for in around where it is predicted to be. 0 searches the whole frame
+	private volatile int searchWindow = 0;
+	// How radial profiles are compared with the zlut
+	private volatile ProfileMatcher.Metric distanceMetric = ProfileMatcher.Metric.L1;
+	// Principal components profiles are matched on. 0 matches every bin with the distance metric
+	private volatile int pcaComponents = 0;
+	private File checkpointFile;
+	private int resumedFrames = 0;
+	
+	// Predictions only carry over inside a run of the pipeline, which one thread tracks in order. Every run starts
+	// with a whole frame search, so the results don't depend on the number of threads or which one took a run
+	private final ThreadLocal<BeadPredictor> predictors = ThreadLocal.withInitial(BeadPredictor::new);
+
+	// List of positions for the image, 0-indexed by frame
+	private final double[] z_cords;
+	private final double[] x_cords;
+	private final double[] y_cords;
+
+	public TrackingSession(ImagePlus image, Zlut zlut) {
+		this.image = image;
+		this.zlut = zlut;
+
+		z_cords = new double[image.getImageStackSize()];
+		x_cords = new double[image.getImageStackSize()];
+		y_cords = new double[image.getImageStackSize()];
+
+		// Frames not tracked yet read as not found, so the overlay can be shown while they are tracked
+		Arrays.fill(z_cords, Double.NaN);
+		Arrays.fill(x_cords, Double.NaN);
+		Arrays.fill(y_cords, Double.NaN);
+	}
+
+	public TrackingSession setLocalizer(BeadLocalizer localizer) {
+		this.localizer = localizer;
+		return this;
+	}
+	
+	public BeadLocalizer getLocalizer() {
+		return localizer;
+	}
+	
+	public TrackingSession setSearchWindow(int width) {
+		this.searchWindow = width;
+		return this;
+	}
+	
+	public int getSearchWindow() {
+		return searchWindow;
+	}
+	
+	public TrackingSession setDistanceMetric(ProfileMatcher.Metric metric) {
+		this.distanceMetric = metric;
+		return this;
+	}
+	
+	public ProfileMatcher.Metric getDistanceMetric() {
+		return distanceMetric;
+	}
+	
+	// Matches in components dimensions, see ZlutBasis. 0 to match every bin
+	public TrackingSession setPcaComponents(int components) {
+		this.pcaComponents = components;
+		return this;
+	}
+	
+	public int getPcaComponents() {
+		return pcaComponents;
+	}
+	
+	// Saves the frames to the file as they are tracked, and starts after the frames it holds when it was left by
+	// a run of the same recording, zlut and settings. Removed when the run finishes. Null for no checkpoint
+	public TrackingSession setCheckpoint(File file) {
+		this.checkpointFile = file;
+		return this;
+	}
+	
+	// Frames the last run took from its checkpoint instead of tracking
+	public int getResumedFrames() {
+		return resumedFrames;
+	}
+
+	public void processStack(ImageStack stack) {
+		processStack(stack, 1);
+	}
+
+	// Tracks the frames of the stack on nThreads threads.
+	// The results are identical to processStack(stack), with or without a search window
+	public void processStack(ImageStack stack, int nThreads) {
+		try (FramePipeline pipeline = new FramePipeline(nThreads)) {
+			processStack(stack, pipeline, null);
+		} catch (IOException e) {
+			// Only a consumer throws
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// Same, writing frames to the sink as soon as they are tracked and flushing it after.
+	// The sink can be null when only the checkpoint is wanted
+	public void processStack(ImageStack stack, int nThreads, ResultSink sink) throws IOException {
+		try (FramePipeline pipeline = new FramePipeline(nThreads)) {
+			processStack(stack, pipeline, sink == null ? null : (first, last) -> writeFrames(stack, first, last, sink));
+		}
+		if(sink != null) sink.flush();
+	}
+
+	// Tracks the frames of the stack through the pipeline, handing them to the consumer in frame order on this
+	// thread as soon as they and every frame before them are tracked. Frames resumed from the checkpoint are
+	// handed over first, in one call. The consumer can be null
+	public void processStack(ImageStack stack, FramePipeline pipeline, FramePipeline.Consumer consumer) throws IOException {
+		metrics.startRun();
+		resumedFrames = 0;
+		CheckpointWriter checkpoint = new CheckpointWriter(openCheckpoint(stack), stack.size());
+		try {
+			if(checkpoint.open != null) {
+				resumedFrames = checkpoint.open.getCompletedFrames();
+				checkpoint.saved = resumedFrames;
+				if(consumer != null && resumedFrames > 0) consumer.accept(1, resumedFrames);
+			}
+
+			pipeline.run(stack, resumedFrames + 1, stack.size(), this::processIP, metrics, (first, last) -> {
+				if(consumer != null) consumer.accept(first, last);
+				checkpoint.accept(first, last);
+			});
+
+			// The results are all in the arrays and with the consumer now
+			if(checkpoint.open != null) {
+				close(checkpoint.open);
+				checkpoint.open = null;
+				if(!checkpointFile.delete()) IJ.log("Checkpoint " + checkpointFile + " could not be removed");
+			}
+		} finally {
+			close(checkpoint.open);
+			metrics.endRun();
+		}
+	}
+
+	// Appends tracked frames to the checkpoint once BLOCK_FRAMES of them have built up, and the last ones at the end
+	private class CheckpointWriter implements FramePipeline.Consumer {
+		private final int nFrames;
+		TrackingCheckpoint open;
+		int saved = 0;
+
+		CheckpointWriter(TrackingCheckpoint open, int nFrames) {
+			this.open = open;
+			this.nFrames = nFrames;
+		}
+
+		@Override
+		public void accept(int first, int last) {
+			if(open == null) return;
+			if(last - saved >= BLOCK_FRAMES || last == nFrames) {
+				open = save(open, saved + 1, last);
+				saved = last;
+			}
+		}
+	}
+
+	// A checkpoint that can't be used is logged and the run goes on without one
+	private TrackingCheckpoint openCheckpoint(ImageStack stack) {
+		if(checkpointFile == null) return null;
+		try {
+			long fingerprint = TrackingCheckpoint.fingerprint(stack, zlut, this);
+			TrackingCheckpoint checkpoint = TrackingCheckpoint.open(checkpointFile, fingerprint, stack.size(), x_cords, y_cords, z_cords);
+			if(checkpoint.getCompletedFrames() > 0) {
+				IJ.log("Resuming after frame " + checkpoint.getCompletedFrames() + " of " + stack.size() + " from " + checkpointFile);
+			}
+			return checkpoint;
+		} catch (IOException e) {
+			IJ.log("Checkpoint " + checkpointFile + " could not be opened, tracking without it: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private TrackingCheckpoint save(TrackingCheckpoint checkpoint, int first, int last) {
+		if(checkpoint == null) return null;
+		try {
+			checkpoint.append(first, last, x_cords, y_cords, z_cords);
+			return checkpoint;
+		} catch (IOException e) {
+			IJ.log("Checkpoint " + checkpointFile + " could not be written, tracking without it: " + e.getMessage());
+			close(checkpoint);
+			return null;
+		}
+	}
+
+	private void close(TrackingCheckpoint checkpoint) {
+		if(checkpoint == null) return;
+		try {
+			checkpoint.close();
+		} catch (IOException e) {
+			IJ.log("Checkpoint " + checkpointFile + " could not be closed: " + e.getMessage());
+		}
+	}
+
+	// Slices first to last into the sink
+	void writeFrames(ImageStack stack, int first, int last, ResultSink sink) throws IOException {
+		for(int slice = first; slice <= last; slice++) {
+			double x = x_cords[slice-1];
+			double y = y_cords[slice-1];
+			double z = z_cords[slice-1];
+			long time = stack instanceof AviSequenceStack ? ((AviSequenceStack)stack).getTime(slice) : -1;
+			sink.write(slice, time, x, y, z, ResultSink.status(x, y, z));
+		}
+	}
+	
+	// Work done on one frame. Slices are 1-indexed
+	interface FrameTask {
+		void process(ImageProcessor ip, int slice);
+	}
+	
+	// Same steps as XYPositioning.getBeadCenter, or the session's localizer, and ZPositioning.calculateZCord, timed one by one
+	public void processIP(ImageProcessor ip, int slice) {
+
+		double[] xyCordSubPixel = localize(ip, slice);
+		long localized = System.nanoTime();
+
+		double zCord = Double.NaN;
+		if(Double.isNaN(xyCordSubPixel[0]) || Double.isNaN(xyCordSubPixel[1])) {
+			// Without a center the radial profile is meaningless
+			metrics.count(TrackingMetrics.Failure.XY_OUT_OF_BOUNDS);
+		} else {
+			float[] radialProfile = ZPositioning.createRadialProfile(xyCordSubPixel, ip, zlut.radius);
+			long profiled = System.nanoTime();
+			zCord = ZPositioning.compareWithZLut(radialProfile, zlut, distanceMetric, pcaComponents, metrics);
+
+			metrics.record(TrackingMetrics.Stage.RADIAL_PROFILE, profiled - localized);
+			metrics.record(TrackingMetrics.Stage.ZLUT_MATCH, System.nanoTime() - profiled);
+		}
+		metrics.frameDone();
+
+		//slice is 1-indexed so -1 to convert to 0 indexed
+		z_cords[slice-1] = zCord;
+		x_cords[slice-1] = xyCordSubPixel[0];
+		y_cords[slice-1] = xyCordSubPixel[1];
+	}
+
+	// X and y of the bead. With a search window the bead is first looked for around where it should be,
+	// and the whole frame is only searched when there is no prediction or the bead isn't found in the window.
+	// The first frame of every run of FramePipeline.RUN_FRAMES is searched whole, whatever came before it
+	private double[] localize(ImageProcessor ip, int slice) {
+
+		int window = searchWindow;
+		int width = ip.getWidth();
+		BeadLocalizer localizer = this.localizer;
+		BeadPredictor predictor = predictors.get();
+		if((slice - 1) % FramePipeline.RUN_FRAMES == 0) predictor.reset();
+		double[] predicted = window > 0 && window < width ? predictor.predict(slice) : null;
+
+		if(predicted != null) {
+			int x0 = Math.max(0, Math.min(width - window, (int)Math.round(predicted[0] - window/2.0)));
+			int y0 = Math.max(0, Math.min(width - window, (int)Math.round(predicted[1] - window/2.0)));
+
+			double[] xyCordSubPixel = localizer.locate(ip, x0, y0, window, metrics);
+
+			// A bead near the window's edge may be cut off so it is only trusted in the middle half
+			double fromCenterX = Math.abs(xyCordSubPixel[0] - (x0 + window/2.0));
+			double fromCenterY = Math.abs(xyCordSubPixel[1] - (y0 + window/2.0));
+			if(fromCenterX < window/4.0 && fromCenterY < window/4.0) {
+				predictor.update(slice, xyCordSubPixel);
+				metrics.count(TrackingMetrics.Event.WINDOW_FOUND);
+				return xyCordSubPixel;
+			}
+			metrics.count(TrackingMetrics.Event.WINDOW_LOST);
+		}
+
+		double[] xyCordSubPixel = localizer.locate(ip, 0, 0, width, metrics);
+
+		if(Double.isNaN(xyCordSubPixel[0]) || Double.isNaN(xyCordSubPixel[1])) {
+			predictor.reset();
+		} else {
+			predictor.update(slice, xyCordSubPixel);
+		}
+		return xyCordSubPixel;
+	}
+
+	// Slice of the stack, timed when metrics isn't null. Virtual stacks read from disk and are not safe to share
+	// between threads, apart from those read from a map
+	static ImageProcessor readFrame(ImageStack stack, int slice, TrackingMetrics metrics) {
+		long start = metrics == null ? 0 : System.nanoTime();
+		ImageProcessor ip;
+		if(stack.isVirtual() && !readsConcurrently(stack)) {
+			synchronized(stack) {
+				ip = stack.getProcessor(slice);
+			}
+		} else {
+			ip = stack.getProcessor(slice);
+		}
+		if(metrics != null) metrics.record(TrackingMetrics.Stage.DECODE, System.nanoTime() - start);
+		return ip;
+	}
+
+	static boolean readsConcurrently(ImageStack stack) {
+		if(stack instanceof AviSequenceStack) return ((AviSequenceStack)stack).readsConcurrently();
+		return FrameCache.readsConcurrently(stack);
+	}
+
+	public ImagePlus getImage() {
+		return image;
+	}
+
+	public Zlut getZlut() {
+		return zlut;
+	}
+
+	public TrackingMetrics getMetrics() {
+		return metrics;
+	}
+
+	public double[] getZCords() {
+		return z_cords;
+	}
+
+	public double[] getXCords() {
+		return x_cords;
+	}
+
+	public double[] getYCords() {
+		return y_cords;
+	}
+
+	public int size() {
+		return z_cords.length;
+	}
+}
@@ -0,0 +1,304 @@
+package com.zachRoot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+
+// Tracks a recording while the camera is still writing it.
+// The camera software writes one timestamped .avi chunk every few seconds. A chunk counts as closed once its
+// size hasn't changed for settleMillis, and closed chunks are tracked in timestamp order and appended to the series.
+// Only the new frames are tracked, so the cost per chunk doesn't grow with the length of the experiment
+public class WatchFolderTracker {
+
+	// Told about every chunk once its frames are in the series
+	public interface Listener {
+		void chunkTracked(ResultSeries series, int firstNewFrame, String chunkName, long latencyMillis);
+	}
+
+	private final File directory;
+	private final Function<ImagePlus, Zlut> zlutSource;
+	private final int nThreads;
+	private final ResultSeries series = new ResultSeries();
+	private final List<Listener> listeners = new ArrayList<>();
+
+	// A chunk's size has to stay the same this long before it is read
+	private volatile long settleMillis = 1000;
+	// How often chunks are checked when nothing is happening in the folder
+	private volatile long pollMillis = 250;
+	// Chunks that take longer than this from closing to results are logged
+	private volatile long maxLatencyMillis = 5000;
+
+	private volatile boolean stopped = false;
+
+	// Chunks seen but not tracked yet, by path
+	private final Map<File, Pending> pending = new HashMap<>();
+	// Chunks already taken from pending, which later events for are ignored
+	private final Set<File> done = new HashSet<>();
+	// Timestamp of the last tracked chunk
+	private long lastTime = Long.MIN_VALUE;
+
+	private Zlut zlut;
+
+	// Localizer of every chunk, the fast center of mass one suits a preview
+	private BeadLocalizer localizer = new CenterOfMassLocalizer();
+
+	// Where rows are streamed as chunks are tracked, null for none
+	private ResultSink sink;
+	// Last tracked chunk, its rows wait for the time of the next chunk
+	private TrackingSession held;
+	private int heldFirstFrame;
+	private long heldTime;
+	// Time between the frames of the last chunk written
+	private double spacing = 0;
+
+	// Latency totals for the report
+	private int chunksTracked = 0;
+	private long totalLatency = 0;
+	private long worstLatency = 0;
+
+	private static class Pending {
+		final File file;
+		final long time;
+		long size = -1;
+		// When the size last changed
+		long changedAt;
+
+		Pending(File file, long time) {
+			this.file = file;
+			this.time = time;
+		}
+	}
+
+	// zlutSource is asked for the zlut once the first chunk shows the size of the frames
+	public WatchFolderTracker(File directory, Function<ImagePlus, Zlut> zlutSource, int nThreads) {
+		this.directory = directory;
+		this.zlutSource = zlutSource;
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	public WatchFolderTracker setSettleMillis(long millis) {
+		settleMillis = millis;
+		return this;
+	}
+
+	public WatchFolderTracker setPollMillis(long millis) {
+		pollMillis = millis;
+		return this;
+	}
+
+	public WatchFolderTracker setMaxLatencyMillis(long millis) {
+		maxLatencyMillis = millis;
+		return this;
+	}
+
+	public WatchFolderTracker setLocalizer(BeadLocalizer localizer) {
+		this.localizer = localizer;
+		return this;
+	}
+
+	// Every tracked frame is written to the sink, a chunk's rows once the next chunk is tracked and the last
+	// chunk's when run() returns. The caller closes it
+	public WatchFolderTracker setSink(ResultSink sink) {
+		this.sink = sink;
+		return this;
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	// Makes run() return after the chunk it is tracking
+	public void stop() {
+		stopped = true;
+	}
+
+	public ResultSeries getSeries() {
+		return series;
+	}
+
+	// Tracks the chunks already in the folder, then every new one until stop() is called or the thread is interrupted
+	public void run() throws IOException {
+
+		try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+			directory.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+			// Chunks written before the watch started
+			File[] existing = directory.listFiles();
+			if(existing != null) {
+				for(File file: existing) {
+					seen(file);
+				}
+			}
+
+			while(!stopped && !Thread.currentThread().isInterrupted()) {
+				WatchKey key = watcher.poll(pollMillis, TimeUnit.MILLISECONDS);
+				if(key != null) {
+					for(WatchEvent<?> event: key.pollEvents()) {
+						if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							// Events were lost so look at the whole folder again
+							File[] all = directory.listFiles();
+							if(all != null) for(File file: all) seen(file);
+							continue;
+						}
+						seen(directory.toPath().resolve((Path)event.context()).toFile());
+					}
+					key.reset();
+				}
+				trackClosedChunks();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// Stopped while waiting
+		} finally {
+			writeHeld();
+		}
+
+		if(chunksTracked > 0) {
+			IJ.log("Watch folder: " + chunksTracked + " chunks, " + series.size() + " frames, latency mean "
+					+ totalLatency/chunksTracked + " ms, worst " + worstLatency + " ms");
+		}
+	}
+
+	private void seen(File file) {
+		if(!file.isFile() || !file.getName().endsWith(".avi") || pending.containsKey(file) || done.contains(file)) return;
+
+		long time;
+		try {
+			time = MagneticBead.getTimeFromString(file.getName());
+		} catch (IllegalArgumentException e) {
+			// Cannot place a chunk without a time in the recording
+			return;
+		}
+
+		if(time <= lastTime) {
+			IJ.log("Skipping " + file.getName() + ", it is older than chunks already tracked");
+			return;
+		}
+		pending.put(file, new Pending(file, time));
+	}
+
+	// Tracks the closed chunks that have no open chunk before them, oldest first
+	private void trackClosedChunks() {
+
+		long now = System.currentTimeMillis();
+
+		List<Pending> chunks = new ArrayList<>(pending.values());
+		chunks.sort(Comparator.comparingLong((Pending p) -> p.time).thenComparing(p -> p.file.getName()));
+
+		for(Pending chunk: chunks) {
+			if(stopped) return;
+
+			long size = chunk.file.length();
+			if(chunk.size < 0) {
+				// Chunks that were finished before they were seen don't need to settle again
+				chunk.size = size;
+				chunk.changedAt = Math.min(now, chunk.file.lastModified());
+			} else if(size != chunk.size) {
+				chunk.size = size;
+				chunk.changedAt = now;
+			}
+
+			// Later chunks wait so the series stays in time order
+			if(size == 0 || now - chunk.changedAt < settleMillis) return;
+
+			pending.remove(chunk.file);
+			done.add(chunk.file);
+			lastTime = chunk.time;
+			track(chunk);
+		}
+	}
+
+	private void track(Pending chunk) {
+
+		ImageStack stack = FrameCache.open(chunk.file);
+		if(stack == null || stack.size() == 0) {
+			IJ.log("No frames could be read from " + chunk.file.getName());
+			return;
+		}
+
+		ImagePlus image = new ImagePlus(chunk.file.getName(), stack);
+		if(zlut == null) {
+			zlut = zlutSource.apply(image);
+			if(zlut == null) {
+				IJ.log("No ZLUT for " + chunk.file.getName() + ", the watch is stopped");
+				stop();
+				return;
+			}
+		}
+		if(!zlut.isValidFor(stack.getWidth()) || stack.getWidth() != stack.getHeight()) {
+			IJ.log("Skipping " + chunk.file.getName() + ", its frames are " + stack.getWidth() + "x" + stack.getHeight() + " and don't match the ZLUT");
+			return;
+		}
+
+		TrackingSession session = new TrackingSession(image, zlut).setLocalizer(localizer);
+		session.processStack(stack, nThreads);
+
+		int firstNewFrame = series.size();
+		series.append(session);
+		write(session, firstNewFrame, chunk.time);
+
+		// From when the camera closed the chunk to its frames being in the series
+		long latency = System.currentTimeMillis() - chunk.file.lastModified();
+		chunksTracked++;
+		totalLatency += latency;
+		worstLatency = Math.max(worstLatency, latency);
+		if(latency > maxLatencyMillis) {
+			IJ.log(chunk.file.getName() + " took " + latency + " ms from closing to results, more than " + maxLatencyMillis + " ms");
+		}
+
+		for(Listener listener: listeners) {
+			listener.chunkTracked(series, firstNewFrame, chunk.file.getName(), latency);
+		}
+	}
+
+	// A chunk's name only has the time of its first frame. Its other frames are spread evenly up to the next chunk's
+	// time, like AviSequenceStack times them, so the rows of a chunk are written once the next one is tracked
+	private void write(TrackingSession session, int firstNewFrame, long chunkTime) {
+		if(held != null) {
+			spacing = (double)(chunkTime - heldTime)/held.size();
+			writeHeld();
+		}
+		held = session;
+		heldFirstFrame = firstNewFrame;
+		heldTime = chunkTime;
+	}
+
+	// The last chunk has no chunk after it so its frames are as far apart as those of the chunk before
+	private void writeHeld() {
+		TrackingSession session = held;
+		held = null;
+		if(session == null || sink == null) return;
+		try {
+			for(int i = 0; i < session.size(); i++) {
+				double x = session.getXCords()[i];
+				double y = session.getYCords()[i];
+				double z = session.getZCords()[i];
+				sink.write(heldFirstFrame + i + 1, heldTime + Math.round(i*spacing), x, y, z, ResultSink.status(x, y, z));
+			}
+			sink.flush();
+		} catch (IOException e) {
+			IJ.log("Results could not be written, tracking continues without saving them: " + e.getMessage());
+			sink = null;
+		}
+	}
+}
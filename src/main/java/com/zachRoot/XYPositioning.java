@@ -1,15 +1,37 @@
 package com.zachRoot;
 
-import ij.ImagePlus;
-import ij.measure.CurveFitter;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 
 public class XYPositioning {
 	public static final int nPointsQuadFit = 5;
-	public static double[] getBeadCenter(ImagePlus img, ImageProcessor ip) {
+	
+	// Images at least this wide are cross correlated through an FFT instead of direct convolution
+	private static volatile int fftMinWidth = 128;
+	
+	// The FFT uses every pixel of an even width, where direct convolution has to drop the last one.
+	// Off gives the positions direct convolution would, to compare with results from before the FFT
+	private static volatile boolean fftEvenWidth = true;
+	
+	public static void setFftMinWidth(int width) {
+		fftMinWidth = width;
+	}
+	
+	public static int getFftMinWidth() {
+		return fftMinWidth;
+	}
+	
+	public static void setFftEvenWidth(boolean keepEvenWidth) {
+		fftEvenWidth = keepEvenWidth;
+	}
+	
+	public static boolean isFftEvenWidth() {
+		return fftEvenWidth;
+	}
+	
+	public static double[] getBeadCenter(ImageProcessor ip) {
 		// X,Y COM Center Coordinates
-		int[] xyCord = getCenterOfMass(img, ip);
+		int[] xyCord = getCenterOfMass(ip);
 		
 		// Sub Pixel Localization utilizing cross correlation
 		double[] xyCordSubPixel = xyRowColConvolve(ip, xyCord[0], xyCord[1]);
@@ -17,24 +39,11 @@ public class XYPositioning {
 		return xyCordSubPixel;
 	}
 	
-	private static int[] getCenterOfMass(ImagePlus img, ImageProcessor ip) {
-		int[] xyCord = null;
-		//TO DO CHECK IF THIS MAKES SENSE?
-		int type = img.getType();
-		
-		if (type == ImagePlus.GRAY32)
-			xyCord = fitBeadByCenterOfMass(img, (float[])ip.getPixels());
-		else if (type == ImagePlus.GRAY8 || type == ImagePlus.GRAY16)
-			xyCord = fitBeadByCenterOfMass(img, (float[])ip.convertToFloatProcessor().getPixels());
-		else {
-			throw new RuntimeException("Image Type Not Supported");
-		}
-		
-		return xyCord;
+	// Reads the frame's own pixels whatever their type
+	static int[] getCenterOfMass(ImageProcessor ip) {
+		return PixelKernels.centerOfMass(ip, 0, 0, ip.getWidth(), ip.getHeight());
 	}
 	
-
-	
 	
 	/* This function is a java version of this matlab code:
 	 * 
@@ -48,89 +57,45 @@ public class XYPositioning {
 		x = squeeze(sum(lin.*T, [1,2]) ./ T_sum);
 		y = squeeze(sum(lin'.*T, [1,2]) ./ T_sum);
 	 */
-	
-	
-	private static int[] fitBeadByCenterOfMass(ImagePlus img, float[] flattenedImage) {
-		
-    	int width = img.getWidth();
-    	// Square Image. Kept for readability
-    	int height = width;
-    	
-        float[][] T = new float[width][height];
-        
-       
-        // Calculate absolute differences
-        float mean = calculateMean(flattenedImage);
-        
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-            	T[i][j] = Math.abs(flattenedImage[i * width + j] - mean);
-            }
-        }
-        
-        float T_sum = sum(T);
-      
-        if (T_sum == 0) {
-            T_sum = Float.MIN_VALUE;
-        }
-        
-        // Generate linear index array
-        float[] lin = new float[width];
-        for (int i = 0; i < width; i++) {
-            lin[i] = i + 1;
-        }
-        
-        float xSum = 0;
-    	float ySum = 0;
-        for (int i = 0; i < width; i++) {	
-        	for (int j = 0; j < height; j++) {
-        		xSum += lin[j]*T[i][j];
-        		ySum += lin[i]*T[i][j];
-        	}
-        }
-        float x = xSum / T_sum;
-        float y = ySum / T_sum;
-        
-        return new int[] { (int)x, (int)y };
-    }
+	static int[] fitBeadByCenterOfMass(int width, float[] flattenedImage) {
+		return PixelKernels.centerOfMass(new FloatProcessor(width, width, flattenedImage), 0, 0, width, width);
+	}
 
     
-    public static float calculateMean(float[] flattenedImage) {
-    	
-        float sum = 0;
-        for (float pixel : flattenedImage) {
-            sum += pixel;
-        }
-        return sum / flattenedImage.length;
-    }
-    
-    private static float sum(float[][] img) {
-    	float sum = 0;
-    	for(float[] col: img) {
-    		for(float num: col) {
-    			sum += num;
-    		}
-    	}
-    	return sum;
-    }
-    
  // Sub Pixel Localization 
- 	private static double[] xyRowColConvolve(ImageProcessor ip, int xPos, int yPos) {
+ 	static double[] xyRowColConvolve(ImageProcessor ip, int xPos, int yPos) {
+ 		boolean useFft = ip.getWidth() >= fftMinWidth;
+ 		// Only the FFT handles even widths, direct convolution has to drop a pixel
+ 		return xyRowColConvolve(ip, xPos, yPos, useFft, !(useFft && fftEvenWidth));
+ 	}
+ 	
+ 	static double[] xyRowColConvolve(ImageProcessor ip, int xPos, int yPos, boolean useFft, boolean trimEvenWidth) {
+ 		return xyRowColConvolve(ip, xPos, yPos, 0, 0, ip.getWidth(), useFft, trimEvenWidth);
+ 	}
+ 	
+ 	// Only correlates the length pixels of the row from x0 and of the column from y0, for a search window around the bead
+ 	static double[] xyRowColConvolveWindow(ImageProcessor ip, int xPos, int yPos, int x0, int y0, int length) {
+ 		boolean useFft = length >= fftMinWidth;
+ 		return xyRowColConvolve(ip, xPos, yPos, x0, y0, length, useFft, !(useFft && fftEvenWidth));
+ 	}
+ 	
+ 	private static double[] xyRowColConvolve(ImageProcessor ip, int xPos, int yPos, int x0, int y0, int length, boolean useFft, boolean trimEvenWidth) {
  		
  		// Create local width to not impact other threads
- 		int width = ip.getWidth();
+ 		int width = length;
  		// Width-1 to ensure an odd number sized kernel required by ImageProcessor.convolve();
- 		if(width % 2 == 0) {width = width-1;}
+ 		if(trimEvenWidth && width % 2 == 0) {width = width-1;}
  		 
- 		// Create 2d Image of row Slice
- 		int[] xAxisSignal = new int[width];
- 		int[] yAxisSignal = new int[width]; 
- 		ip.getRow(0, yPos, xAxisSignal, width);
- 		ip.getColumn(xPos, 0, yAxisSignal, width);
+ 		// Row and column through the center read straight from the pixels
+ 		float[] xAxisSignal = new float[width];
+ 		float[] yAxisSignal = new float[width]; 
+ 		PixelKernels.row(ip, x0, yPos, xAxisSignal, width);
+ 		PixelKernels.column(ip, xPos, y0, yAxisSignal, width);
  		
  		// Subtract mean
- 		xAxisSignal = subtractMean(xAxisSignal);
- 		yAxisSignal = subtractMean(yAxisSignal);
+ 		boolean integral = !(ip.getPixels() instanceof float[]);
+ 		subtractMean(xAxisSignal, integral);
+ 		subtractMean(yAxisSignal, integral);
  		
  		// Reverse
  		float[] reverseXAxisSignal = new float[width];
@@ -140,14 +105,25 @@ public class XYPositioning {
  			reverseYAxisSignal[i] = yAxisSignal[width-i-1];
  		}
  		
- 		// Create FloatProcessors for Convolution 
- 		FloatProcessor xSignal = new FloatProcessor(width, 1, xAxisSignal);
- 		FloatProcessor ySignal = new FloatProcessor(width, 1, yAxisSignal);
- 		
- 		
- 		// Convolve with reverseXYAxisSignal as kernel
- 		xSignal.convolve(reverseXAxisSignal, width, 1);
- 		ySignal.convolve(reverseYAxisSignal, width, 1);
+ 		float[] xSignal;
+ 		float[] ySignal;
+ 		
+ 		if(useFft) {
+ 			xSignal = new float[width];
+ 			ySignal = new float[width];
+ 			FftCorrelator.forWidth(width).convolve(xAxisSignal, reverseXAxisSignal, yAxisSignal, reverseYAxisSignal, xSignal, ySignal);
+ 		} else {
+ 			// Create FloatProcessors for Convolution 
+ 			FloatProcessor xSignalIp = new FloatProcessor(width, 1, xAxisSignal);
+ 			FloatProcessor ySignalIp = new FloatProcessor(width, 1, yAxisSignal);
+ 			
+ 			// Convolve with reverseXYAxisSignal as kernel
+ 			xSignalIp.convolve(reverseXAxisSignal, width, 1);
+ 			ySignalIp.convolve(reverseYAxisSignal, width, 1);
+ 			
+ 			xSignal = (float[])xSignalIp.getPixels();
+ 			ySignal = (float[])ySignalIp.getPixels();
+ 		}
  		
  		
  		float xMax = Float.MIN_VALUE;
@@ -157,12 +133,12 @@ public class XYPositioning {
  		
  		
  		for (int i = 0; i<width; i++) {	
- 			if(xSignal.getf(i) > xMax) {
- 				xMax = xSignal.getf(i);
+ 			if(xSignal[i] > xMax) {
+ 				xMax = xSignal[i];
  				xMaxIndex = i;
  			}
- 			if(ySignal.getf(i) > yMax) {
- 				yMax = ySignal.getf(i);
+ 			if(ySignal[i] > yMax) {
+ 				yMax = ySignal[i];
  				yMaxIndex = i;
  			}
  		}
@@ -179,65 +155,34 @@ public class XYPositioning {
 		if(yMaxIndex - offset < 0 || yMaxIndex + offset > width-1) {
 			return new double[]{Double.NaN, Double.NaN};
 		}
- 		int xleftBound = xMaxIndex-offset;
- 		int xRightBound = xMaxIndex+offset;
- 		int yleftBound = yMaxIndex-offset;
- 		int yRightBound = yMaxIndex+offset;
- 		
- 		
- 		double[] xData = new double[5];
- 		double[] xIndexes = new double[5];
- 		double[] yData = new double[5];
- 		double[] yIndexes = new double[5];
- 		
- 		
- 		for(int i = 0; i < xRightBound-xleftBound+1; i++) {
- 			xIndexes[i] = i+xleftBound;
- 			xData[i] = xSignal.getf(i+xleftBound);
- 		}
- 		for(int i = 0; i < yRightBound-yleftBound+1; i++) {
- 			yIndexes[i] = i+yleftBound;
- 			yData[i] = ySignal.getf(i+yleftBound);
- 		}
- 		
- 		
- 		CurveFitter xSignalFit = new CurveFitter(xIndexes, xData);
- 		xSignalFit.doFit(CurveFitter.POLY2);
- 		
- 		CurveFitter ySignalFit = new CurveFitter(yIndexes, yData);
- 		ySignalFit.doFit(CurveFitter.POLY2);
- 		
- 		
- 		// -b/2a for peak of curve
- 		double xCord = -xSignalFit.getParams()[1]/(2*xSignalFit.getParams()[2]);
- 		double yCord = -ySignalFit.getParams()[1]/(2*ySignalFit.getParams()[2]);
+ 		// Peak of the quadratic through the points around each maximum
+ 		double xCord = xMaxIndex + PeakFit.vertexOffset(xSignal, xMaxIndex, nPointsQuadFit);
+ 		double yCord = yMaxIndex + PeakFit.vertexOffset(ySignal, yMaxIndex, nPointsQuadFit);
  		
  		// Fix Width after Convolution is complete
- 		if(ip.getWidth() == width+1) {width = width + 1;}
+ 		if(length == width+1) {width = width + 1;}
  		
  		// Average position with center to adjust for Convolution algorithm
  		xCord = ((width)/2f-xCord)/2 + xCord;
   		yCord = ((width)/2f-yCord)/2 + yCord;
  		
  		
- 		return new double[]{xCord,yCord};
+ 		return new double[]{xCord + x0, yCord + y0};
  	}
  	
- // Perfectly fine that the return value doesn't have float precision
- 	private static int[] subtractMean(int[] data) {
+ // 8 and 16 bit signals keep the whole number mean they always had so their results don't change
+ 	private static void subtractMean(float[] data, boolean integral) {
  		
- 		int sum=0;
+ 		double sum=0;
  		
- 		for(int num: data) {
+ 		for(float num: data) {
  			sum += num;
  		}
  		
- 		double mean = sum/data.length;
+ 		double mean = integral ? Math.floor(sum/data.length) : sum/data.length;
  		for(int i = 0; i<data.length; i++) {
  			data[i]-= mean;
  		}
- 		
- 		return data;
  	}
  	
 	
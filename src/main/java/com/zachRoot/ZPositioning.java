@@ -1,28 +1,34 @@
 package com.zachRoot;
 
+import java.awt.Rectangle;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 import ij.IJ;
 import ij.ImagePlus;
-import ij.measure.CurveFitter;
+import ij.Prefs;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 
 public class ZPositioning {
 	
-	// Radius of the z radial profiles
-	public static int radius;
+	static final int nPointsQuadFit = 5;
 	
-	// Stores the zlut: a lookup table of radial profiles
-	static float[][] zlut;
+	// Reference frames further than this many standard deviations from the rest of their height are left out. 0 keeps all
+	private static volatile double zlutOutlierThreshold = 0;
 	
-	// Corresponding z positions for the zlut
-	static double[] zlutHeights;
+	// Distances of the points being fit, one per tracking thread
+	private static final ThreadLocal<float[]> FIT_WINDOW = ThreadLocal.withInitial(() -> new float[PeakFit.MAX_POINTS]);
 	
-	static final int nPointsQuadFit = 5;
+	// Coefficients of the profile being matched, one per tracking thread
+	private static final ThreadLocal<float[]> PROJECTED = ThreadLocal.withInitial(() -> new float[0]);
+	
+	// Radial bin of each pixel of the row being profiled, one per tracking thread
+	private static final ThreadLocal<short[]> ROW_BINS = ThreadLocal.withInitial(() -> new short[0]);
 	
 	// Strings for UI text
 	static final String UI_ZLUT_DIR_TITLE = "Choose directory for Z Positioning";
@@ -31,77 +37,118 @@ public class ZPositioning {
 			+ "/nor where a previous ZLUT has already been created";
 	
 	
-	public static void createZlut(ImagePlus img) {
-		
-		
-		radius = img.getWidth()/3;
+	public static void setZlutOutlierThreshold(double sigmas) {
+		zlutOutlierThreshold = sigmas;
+	}
+	
+	// Radius of the z radial profiles for an image of the given width
+	public static int radiusFor(int width) {
+		return width/3;
+	}
+	
+	// Profiles are centered with the localizer the image will be tracked with. Null if the user cancels
+	public static Zlut createZlut(ImagePlus img, BeadLocalizer localizer) {
 		
 		// Directory for ZLUT Reference Images
 		String directory_path = Gui.getDirectoryFromUser(UI_ZLUT_DIR_TITLE, UI_ZLUT_DIR_MESSAGE);		
+		if(directory_path == null) return null;
 		
-		// Checks to see if the zlut was previously saved in the folder then loads it into the zlut variable 
-		if(isZlutInFolder(directory_path)) {
-			return;
+		// Checks to see if the zlut was previously saved in the folder then loads it
+		Zlut saved = loadZlutFromFolder(directory_path, img.getWidth(), localizer.getName());
+		if(saved != null) {
+			return saved;
 		}
 		
-		// ZLut Component Images
-		ArrayList<ComparableImagePlus> images = MagneticBead.getReferenceImages(directory_path, true);
+		// Reference frames are profiled in parallel and averaged per height
+		ZlutBuilder builder = new ZlutBuilder(img.getWidth(), Prefs.getThreads()).setOutlierThreshold(zlutOutlierThreshold)
+				.setLocalizer(localizer);
+		
+		Zlut created;
+		try {
+			created = builder.build(directory_path);
+		} catch (ZlutBuilder.SizeMismatchException e) {
+			IJ.showMessage("Images found were of a different size than the current image. Please select a new folder.");
+			return createZlut(img, localizer);
+		} catch (RuntimeException e) {
+			IJ.showMessage("ZLUT could not be made from " + directory_path + ": " + e.getMessage() + ". Please select a new folder.");
+			return createZlut(img, localizer);
+		}
 		
-		if(images.size() == 0) {
+		if(created == null) {
 			IJ.showMessage("No images found. Please select a new folder.");
-			createZlut(img);
-			return;
+			return createZlut(img, localizer);
 		}
 		
-		if(images.get(0).getWidth() != img.getWidth()) {
-			IJ.showMessage("Images found were of a different size than the current image. Please select a new folder.");
-			createZlut(img);
-			return;
+		IJ.log("ZLUT of " + created.size() + " heights from " + builder.getFramesUsed() + " frames ("
+				+ builder.getFramesRejected() + " outliers left out, " + builder.getFramesNotLocalized() + " without a bead center)");
+		
+		Gui.promptUserToSaveZLut(directory_path, created); 
+		
+		return created;
+	}
+	
+	// One zlut per bead region from a sweep of the whole field of view. Every region must be the same size.
+	// Regions with a zlut saved in the folder are loaded, the rest are built from the sweep.
+	// A bead that couldn't be found in the sweep gets a null zlut, and all of them are null if the user cancels
+	public static Zlut[] createZluts(ImagePlus img, Rectangle[] regions, BeadLocalizer localizer) {
+		
+		String directory_path = Gui.getDirectoryFromUser(UI_ZLUT_DIR_TITLE, UI_ZLUT_DIR_MESSAGE);
+		if(directory_path == null) return null;
+		
+		Zlut[] created = new Zlut[regions.length];
+		List<Rectangle> missing = new ArrayList<>();
+		for(int r = 0; r < regions.length; r++) {
+			created[r] = loadZlutFromFile(new File(directory_path, ZlutFile.fileNameFor(regions[r])), regions[r].width, localizer.getName());
+			if(created[r] == null) missing.add(regions[r]);
+		}
+		if(missing.isEmpty()) {
+			IJ.log("ZLUTs for all " + regions.length + " beads loaded from " + directory_path);
+			return created;
 		}
 		
-		// Matrix with each index being the radial profile of image about center of bead
-		zlut        = new float [images.size()][images.get(0).getWidth()];
-		zlutHeights = new double[images.size()];
+		ZlutBuilder builder = new ZlutBuilder(regions[0].width, Prefs.getThreads()).setOutlierThreshold(zlutOutlierThreshold)
+				.setLocalizer(localizer);
 		
-		// Loop through each image
-		for(int i = 0; i<images.size(); i++) {
-			ImageProcessor ip = images.get(i).getProcessor();
-			
-			double[] xyCordSubPixel = XYPositioning.getBeadCenter(img, ip);
-			
-			zlut[i] = createRadialProfile(xyCordSubPixel, ip);
-			
-			zlutHeights[i] = images.get(i).getZPos();
-			
+		Zlut[] built;
+		try {
+			built = builder.build(directory_path, missing.toArray(new Rectangle[0]));
+		} catch (ZlutBuilder.SizeMismatchException e) {
+			IJ.showMessage(e.getMessage() + ". Please select a new folder.");
+			return createZluts(img, regions, localizer);
+		} catch (RuntimeException e) {
+			IJ.showMessage("ZLUTs could not be made from " + directory_path + ": " + e.getMessage() + ". Please select a new folder.");
+			return createZluts(img, regions, localizer);
 		}
 		
-		if(checkDuplicates(zlutHeights)) {
-			IJ.showMessage("Warning: There exists duplicate radial profiles in this ZLUT. This can cause Z positioning to be inaccurate");
+		int found = 0;
+		for(int r = 0, b = 0; r < regions.length; r++) {
+			if(created[r] == null) created[r] = built[b++];
+			if(created[r] != null) found++;
+		}
+		if(found == 0) {
+			IJ.showMessage("No images found. Please select a new folder.");
+			return createZluts(img, regions, localizer);
 		}
 		
+		IJ.log("ZLUTs for " + found + " of " + regions.length + " beads, " + (regions.length - missing.size()) + " loaded and the rest from "
+				+ builder.getFramesUsed() + " bead frames (" + builder.getFramesRejected() + " outliers left out, "
+				+ builder.getFramesNotLocalized() + " without a bead center)");
 		
-		Gui.promptUserToSaveZLut(directory_path); 
+		Gui.promptUserToSaveZLuts(directory_path, missing.toArray(new Rectangle[0]), built);
+		
+		return created;
 	}
 	
-
-	private static boolean isZlutValid() {
-		if(zlut[0].length != radius) {
-			return false;
+	static float[] createRadialProfile(double[] xyCord, ImageProcessor ip, int radius) {
+		
+		if(RadialBinCache.isEnabled() && RadialBinCache.canMap(xyCord, ip.getWidth())) {
+			return RadialBinCache.createRadialProfile(xyCord, ip, radius);
 		}
-		return true;
+		return createRadialProfileExact(xyCord, ip, radius);
 	}
 	
-	private static boolean checkDuplicates(double[] zlutHeights2) {
-		for(int i = 0; i<zlutHeights2.length-1; i++) {
-			if(zlutHeights2[i] == zlutHeights2[i+1]) {
-				return true;
-			}
-		}
-		return false;
-	}
-
-
-	private static float[] createRadialProfile(double[] xyCord, ImageProcessor ip) {
+	// Radial profile about the exact sub pixel center
+	static float[] createRadialProfileExact(double[] xyCord, ImageProcessor ip, int radius) {
 		
 		int width = ip.getWidth();
 		// Array where index is distance from center and value is the number of times that distance was found
@@ -110,10 +157,15 @@ public class ZPositioning {
 		// Array where index is distance from center and value is the sum of the pixels of that distance
 		float[] intensitySum = new float[radius];
 		
-		float[] pixels = (float[])ip.convertToFloatProcessor().getPixels(); 
+		// Bin of each pixel in the row, summed straight from the frame's own pixels
+		short[] rowBins = ROW_BINS.get();
+		if(rowBins.length < width) {
+			rowBins = new short[width];
+			ROW_BINS.set(rowBins);
+		}
 		
-		for(int x = 0; x < width; x++) {
-			for(int y = 0; y < width; y++) {
+		for(int y = 0; y < width; y++) {
+			for(int x = 0; x < width; x++) {
 				int rhoValue = (int)(Math.round(Math.sqrt((xyCord[0]-x)*(xyCord[0]-x) + (xyCord[1]-y)*(xyCord[1]-y))));
 				
 				// Set bounds
@@ -122,11 +174,9 @@ public class ZPositioning {
 				//This causes problems when finding a close zlut
 				if(rhoValue < 1)      rhoValue = 1;
 				
-				// Sum values of pixels
-				intensitySum[rhoValue] += pixels[x+y*width];
-				// increment counter
-				numRho[rhoValue] +=1;
+				rowBins[x] = (short)rhoValue;
 			}
+			PixelKernels.accumulate(ip, y*width, width, rowBins, 0, intensitySum, numRho);
 		}
 		
 		//Divide intensitysum by numrho to get the average radial profile
@@ -139,37 +189,40 @@ public class ZPositioning {
 		return radialProfile;
 	}
 	
-	private static double compareWithZLut(float[] radialProfile) {
+	// L1 distance on every bin
+	static double compareWithZLut(float[] radialProfile, Zlut zlut) {
+		return compareWithZLut(radialProfile, zlut, ProfileMatcher.Metric.L1, 0, null);
+	}
+	
+	// Matches on pcaComponents principal components of the zlut, or every bin with the metric for 0.
+	// Counts why the z is NaN into metrics if it isn't null
+	static double compareWithZLut(float[] radialProfile, Zlut zlut, ProfileMatcher.Metric metric, int pcaComponents, TrackingMetrics metrics) {
 		
-		// A copy to perform operations on. Functionally the same
-		float[][] zlutC = new float[zlut.length][zlut[0].length];
-				
-		//add something for normalization
-		for(int i = 0; i<zlut.length; i++) {
-			
-			// Find difference between absolute difference between radial profile and zlut[i] signal and index j
-			for(int j = 0; j < zlut[0].length; j++) {
-				//Copy is filled here
-				zlutC[i][j] = Math.abs(radialProfile[j]-zlut[i][j]);
-			}
-			
-			//sum that difference and add that to the first column
-			float sum = 0f;
-			for(int j = 0; j<zlutC[0].length; j++) {
-				sum += zlutC[i][j];
-			}
-			
-			zlutC[i][0] = sum;
+		int components = Math.min(pcaComponents, zlut.radius);
+		
+		float mean = 0;
+		float norm = 0;
+		if(metric == ProfileMatcher.Metric.CORRELATION && components == 0) {
+			mean = ProfileMatcher.mean(radialProfile, zlut.radius);
+			norm = ProfileMatcher.centeredNorm(radialProfile, zlut.radius, mean);
 		}
 		
-		// Find minimum
-		int minDiffIndex = 0;
-		for(int i = 0; i < zlutC.length; i++) {
-			if (zlutC[i][0] < zlutC[minDiffIndex][0]) {
-				minDiffIndex = i;
+		// Profile is projected once and every distance after is between coefficients
+		ZlutBasis basis = null;
+		float[] projected = null;
+		if(components > 0) {
+			basis = zlut.getBasis(components);
+			projected = PROJECTED.get();
+			if(projected.length < components) {
+				projected = new float[components];
+				PROJECTED.set(projected);
 			}
+			basis.project(radialProfile, projected);
 		}
 		
+		// Find minimum
+		int minDiffIndex = basis != null ? basis.match(projected) : ProfileMatcher.match(radialProfile, zlut, metric);
+		
 		
 		//5 point curve fit
 		
@@ -177,29 +230,27 @@ public class ZPositioning {
 		int offset = nPointsQuadFit/2;
 		
 		//Make sure it stays in bounds
-		if(minDiffIndex - offset < 0 || minDiffIndex + offset > zlutC.length-1) {
+		if(minDiffIndex - offset < 0 || minDiffIndex + offset > zlut.size()-1) {
 			//IJ.showMessage("The radial profile of the image was too closely matched to a radial profile on the edge of the ZLUT. This causes the fit to be inacurate as it doesn't have enough data to create a 5 point quadratic fit. Program Quitting. ");
+			if(metrics != null) metrics.count(TrackingMetrics.Failure.ZLUT_EDGE);
 			return Double.NaN;
 		}
 		
-		int leftBound =  minDiffIndex - offset;
-		int RightBound = minDiffIndex + offset;
-		
-		double[] data    = new double[RightBound-leftBound+1]; 
-		double[] indexes = {-2.0, -1.0, 0.0, 1.0, 2.0};
-		
-		
-		for(int i = 0; i < RightBound-leftBound+1; i++) {
-			data[i] = zlutC[i+leftBound][0];
+		// Distances around the minimum are recomputed rather than keeping one per zlut profile
+		float[] window = FIT_WINDOW.get();
+		for(int i = 0; i < nPointsQuadFit; i++) {
+			int index = minDiffIndex - offset + i;
+			window[i] = basis != null ? basis.distance(projected, index) : ProfileMatcher.distance(radialProfile, zlut, index, metric, mean, norm);
 		}
-	
-		CurveFitter fit = new CurveFitter(indexes, data);
-		fit.doCustomFit("y = a*a*(x - b)*(x - b) + c", new double[] {0,0,0}, false);
 		
-		double b = fit.getParams()[1]; 
+		// Closed form of the fit y = a*a*(x - b)*(x - b) + c about the minimum
+		double b = PeakFit.minimumOffset(window, offset, nPointsQuadFit);
+		
+		double[] zlutHeights = zlut.heights;
 		
 		// Fitting isn't correct if it strays from the minimum by more than 2
 		if (Math.abs(b) > offset) {
+			if(metrics != null) metrics.count(TrackingMetrics.Failure.FIT_REJECTED);
 			return Double.NaN;
 		}
 		
@@ -212,32 +263,69 @@ public class ZPositioning {
 	
 	
 	
-	//Checks if zlut is in the folder and calls the loading function if found
-	private static boolean isZlutInFolder(String directory_path) {
+	//Checks if zlut is in the folder and loads it if found. Returns null if there is no valid zlut for images of imageWidth
+	// tracked with the named localizer
+	static Zlut loadZlutFromFolder(String directory_path, int imageWidth, String localizer) {
+		
+		File binary = new File(directory_path, ZlutFile.FILE_NAME);
+		if(binary.exists()) {
+			return loadZlutFromFile(binary, imageWidth, localizer);
+		}
+		
+		Zlut legacy = importLegacyZlut(directory_path, ZPositioning.radiusFor(imageWidth));
+		return legacy != null && legacy.localizer.equals(localizer) ? legacy : null;
+	}
+	
+	// Null if there is no file or it isn't a valid zlut for images of imageWidth tracked with the named localizer
+	static Zlut loadZlutFromFile(File binary, int imageWidth, String localizer) {
+		if(!binary.exists()) return null;
+		try {
+			// Header is checked first so a zlut for another image size is never read
+			ZlutFile.Header header = ZlutFile.readHeader(binary);
+			if(!header.isValidFor(imageWidth)) {
+				return null;
+			}
+			if(!header.localizer.equals(localizer)) {
+				IJ.log("Saved ZLUT " + binary.getName() + " was made with the " + header.localizer + " localizer instead of "
+						+ localizer + ", it will be recreated");
+				return null;
+			}
+			return ZlutFile.read(binary);
+		} catch (IOException e) {
+			IJ.log("Saved ZLUT " + binary.getName() + " could not be read, it will be recreated: " + e.getMessage());
+			return null;
+		}
+	}
+	
+	// ZLUT.tif and zlutHeights.csv as saved before the binary format
+	static Zlut importLegacyZlut(String directory_path, int radius) {
 				
 		if(!new File(directory_path, "ZLUT.tif").exists()) {
-			return false;
+			return null;
 		}
 		if(!new File(directory_path, "zlutHeights.csv").exists()) {
-			return false;
+			return null;
 		}
 		
-		loadZlut(new File(directory_path, "ZLUT.tif"));
-		loadZLUTHeights(new File(directory_path, "zlutHeights.csv"));
+		float[][] zlut = loadZlut(new File(directory_path, "ZLUT.tif"));
+		double[] zlutHeights = loadZLUTHeights(new File(directory_path, "zlutHeights.csv"), zlut.length);
+		
+		// Profiles keep the length they were saved with so a different radius is caught below
+		Zlut loaded = new Zlut(zlut, zlutHeights, zlut[0].length, 0);
 		
-		if(!isZlutValid()) {
-			return false;
+		if(!loaded.isValid(radius)) {
+			return null;
 		}
 		
-		return true;
+		return loaded;
 	}
 	
 
-	// Loads private height variable from integers in file
-	private static void loadZLUTHeights(File file) {
+	// Loads height values from the numbers in file
+	private static double[] loadZLUTHeights(File file, int length) {
 		
 		// Prealloc
-		zlutHeights = new double[zlut.length];
+		double[] zlutHeights = new double[length];
 		try {
 			//File is program made and follows the csv format
 			Scanner scanner = new Scanner(file);
@@ -248,7 +336,7 @@ public class ZPositioning {
 				String[] split = line.split(",");
 				
 				// Parse to int
-				for(int i = 0; i<zlut.length; i++) {
+				for(int i = 0; i<length; i++) {
 					zlutHeights[i] = Double.parseDouble(split[i]);
 				}
 			}
@@ -257,10 +345,11 @@ public class ZPositioning {
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		}
+		return zlutHeights;
 	}
 	
-	// Loads private zlut variable with pixels from File
-	private static void loadZlut(File zlutFile) {
+	// Loads the zlut profiles with pixels from File
+	private static float[][] loadZlut(File zlutFile) {
 		
 		FloatProcessor ip = (new ImagePlus(zlutFile.getAbsolutePath())).getProcessor().convertToFloatProcessor();
       
@@ -269,21 +358,22 @@ public class ZPositioning {
         
         float[] pixels = (float[]) ip.getPixels();
         
-        zlut = new float[width][height];
+        float[][] zlut = new float[width][height];
        
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
             	zlut[x][y] = pixels[y*width + x];
             }
         }
+        return zlut;
 	}
 
 
 
-	public static double calculateZCord(double[] xyCordSubPixel, ImageProcessor ip) {
+	public static double calculateZCord(Zlut zlut, double[] xyCordSubPixel, ImageProcessor ip) {
 		
-		float[] radialProfile = createRadialProfile(xyCordSubPixel, ip);
-		double zCord = compareWithZLut(radialProfile);
+		float[] radialProfile = createRadialProfile(xyCordSubPixel, ip, zlut.radius);
+		double zCord = compareWithZLut(radialProfile, zlut);
 		
 		return zCord;
 	}	
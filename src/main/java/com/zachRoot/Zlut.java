@@ -0,0 +1,156 @@
+package com.zachRoot;
+
+// A lookup table of radial profiles and the z position each profile was taken at.
+// Owned by a single tracking run so that multiple analyses can share one JVM.
+//
+// The profiles are stored back to back in one array so matching walks memory in order
+public class Zlut {
+
+	// Profile i is data[i*radius] to data[(i+1)*radius - 1]
+	final float[] data;
+
+	// Corresponding z positions for the profiles
+	final double[] heights;
+
+	// Number of bins in each radial profile
+	final int radius;
+
+	// Width of the images the profiles were made from. 0 if unknown
+	final int imageWidth;
+
+	// Name of the localizer the profiles were centered with. Profiles only match frames centered the same way
+	final String localizer;
+
+	// Mean and centered norm of each profile for normalized correlation. Made on first use
+	private volatile float[] means;
+	private volatile float[] norms;
+
+	// Principal components for matching in fewer dimensions. Made on first use for the number of components asked for
+	private volatile ZlutBasis basis;
+
+	public Zlut(float[] data, double[] heights, int radius) {
+		this(data, heights, radius, 0);
+	}
+
+	// Zluts were made around the cross correlation center before the localizer could be chosen
+	public Zlut(float[] data, double[] heights, int radius, int imageWidth) {
+		this(data, heights, radius, imageWidth, "xcor");
+	}
+
+	public Zlut(float[] data, double[] heights, int radius, int imageWidth, String localizer) {
+		if(data.length != heights.length*radius) {
+			throw new IllegalArgumentException("ZLUT has " + data.length + " values but " + heights.length + " profiles of " + radius);
+		}
+		this.data = data;
+		this.heights = heights;
+		this.radius = radius;
+		this.imageWidth = imageWidth;
+		this.localizer = localizer;
+	}
+
+	// From one profile per index
+	public Zlut(float[][] profiles, double[] heights, int radius, int imageWidth) {
+		this(pack(profiles, radius), heights, radius, imageWidth);
+	}
+
+	private static float[] pack(float[][] profiles, int radius) {
+		float[] data = new float[profiles.length*radius];
+		for(int i = 0; i < profiles.length; i++) {
+			if(profiles[i].length != radius) {
+				throw new IllegalArgumentException("Profile " + i + " has " + profiles[i].length + " bins instead of " + radius);
+			}
+			System.arraycopy(profiles[i], 0, data, i*radius, radius);
+		}
+		return data;
+	}
+
+	public int size() {
+		return heights.length;
+	}
+
+	public int getRadius() {
+		return radius;
+	}
+
+	// A copy of profile i
+	public float[] getProfile(int i) {
+		float[] profile = new float[radius];
+		System.arraycopy(data, i*radius, profile, 0, radius);
+		return profile;
+	}
+
+	public double getHeight(int i) {
+		return heights[i];
+	}
+
+	public int getImageWidth() {
+		return imageWidth;
+	}
+
+	public String getLocalizer() {
+		return localizer;
+	}
+
+	// The profiles must have been created with the same radius the current image uses
+	public boolean isValid(int radius) {
+		return size() > 0 && this.radius == radius;
+	}
+
+	// Same as isValid(radius) but also checks the image width when it was saved with the zlut
+	public boolean isValidFor(int imageWidth) {
+		return isValid(ZPositioning.radiusFor(imageWidth)) && (this.imageWidth == 0 || this.imageWidth == imageWidth);
+	}
+
+	// Made once, tracking threads that ask at the same time wait for it
+	public ZlutBasis getBasis(int components) {
+		ZlutBasis current = basis;
+		if(current != null && current.k == components) return current;
+
+		synchronized(this) {
+			current = basis;
+			if(current == null || current.k != components) {
+				current = ZlutBasis.create(this, components);
+				basis = current;
+			}
+			return current;
+		}
+	}
+
+	float[] getMeans() {
+		if(means == null) computeStatistics();
+		return means;
+	}
+
+	float[] getNorms() {
+		if(norms == null) computeStatistics();
+		return norms;
+	}
+
+	// Both threads would compute the same values so there's no need to lock
+	private void computeStatistics() {
+		float[] profileMeans = new float[size()];
+		float[] profileNorms = new float[size()];
+
+		for(int i = 0; i < size(); i++) {
+			int offset = i*radius;
+
+			double sum = 0;
+			for(int j = 0; j < radius; j++) {
+				sum += data[offset + j];
+			}
+			double mean = sum/radius;
+
+			double squares = 0;
+			for(int j = 0; j < radius; j++) {
+				double d = data[offset + j] - mean;
+				squares += d*d;
+			}
+
+			profileMeans[i] = (float)mean;
+			profileNorms[i] = (float)Math.sqrt(squares);
+		}
+
+		norms = profileNorms;
+		means = profileMeans;
+	}
+}
@@ -0,0 +1,241 @@
+package com.zachRoot;
+
+import java.util.Arrays;
+
+// The first k principal components of a ZLUT's profiles, and every profile as its k coefficients.
+// A frame's profile is projected once and matched in k dimensions instead of against every bin of every profile.
+// Distances are squared differences of the coefficients whatever the zlut metric, which is the L2 distance
+// of the profiles apart from what the k components leave out
+public class ZlutBasis {
+
+	// Jacobi sweeps before giving up on the last off diagonal values
+	private static final int MAX_SWEEPS = 50;
+
+	final int k;
+	final int radius;
+
+	// Mean profile of the zlut
+	final float[] mean;
+
+	// Component c is components[c*radius] to components[(c+1)*radius - 1], strongest first
+	final float[] components;
+
+	// Coefficients of zlut profile i are coefficients[i*k] to coefficients[(i+1)*k - 1]
+	final float[] coefficients;
+
+	// Variance along every component, strongest first
+	final double[] variances;
+
+	// Root mean square difference between the zlut profiles and their k component reconstructions
+	final double reconstructionError;
+
+	private ZlutBasis(int k, int radius, float[] mean, float[] components, float[] coefficients, double[] variances, double reconstructionError) {
+		this.k = k;
+		this.radius = radius;
+		this.mean = mean;
+		this.components = components;
+		this.coefficients = coefficients;
+		this.variances = variances;
+		this.reconstructionError = reconstructionError;
+	}
+
+	public static ZlutBasis create(Zlut zlut, int k) {
+
+		int radius = zlut.radius;
+		int n = zlut.size();
+		if(k < 1 || k > radius) {
+			throw new IllegalArgumentException("Need 1 to " + radius + " components instead of " + k);
+		}
+
+		float[] mean = new float[radius];
+		for(int i = 0; i < n; i++) {
+			for(int j = 0; j < radius; j++) {
+				mean[j] += zlut.data[i*radius + j];
+			}
+		}
+		for(int j = 0; j < radius; j++) {
+			mean[j] /= n;
+		}
+
+		// Covariance of the bins, upper triangle then mirrored
+		double[][] covariance = new double[radius][radius];
+		double[] centered = new double[radius];
+		for(int i = 0; i < n; i++) {
+			for(int j = 0; j < radius; j++) {
+				centered[j] = zlut.data[i*radius + j] - mean[j];
+			}
+			for(int a = 0; a < radius; a++) {
+				double ca = centered[a];
+				double[] row = covariance[a];
+				for(int b = a; b < radius; b++) {
+					row[b] += ca*centered[b];
+				}
+			}
+		}
+		for(int a = 0; a < radius; a++) {
+			for(int b = a; b < radius; b++) {
+				covariance[a][b] /= n;
+				covariance[b][a] = covariance[a][b];
+			}
+		}
+
+		double[][] vectors = new double[radius][radius];
+		double[] values = eigen(covariance, vectors);
+
+		// Strongest first
+		Integer[] order = new Integer[radius];
+		for(int c = 0; c < radius; c++) order[c] = c;
+		Arrays.sort(order, (a, b) -> Double.compare(values[b], values[a]));
+
+		float[] components = new float[k*radius];
+		double[] variances = new double[radius];
+		for(int c = 0; c < radius; c++) {
+			variances[c] = Math.max(0, values[order[c]]);
+			if(c >= k) continue;
+			for(int j = 0; j < radius; j++) {
+				components[c*radius + j] = (float)vectors[j][order[c]];
+			}
+		}
+
+		float[] coefficients = new float[n*k];
+		double residualSquares = 0;
+		float[] profile = new float[radius];
+		float[] projected = new float[k];
+		ZlutBasis basis = new ZlutBasis(k, radius, mean, components, coefficients, variances, 0);
+		for(int i = 0; i < n; i++) {
+			System.arraycopy(zlut.data, i*radius, profile, 0, radius);
+			basis.project(profile, projected);
+			System.arraycopy(projected, 0, coefficients, i*k, k);
+			residualSquares += basis.residualSquares(profile, projected);
+		}
+
+		return new ZlutBasis(k, radius, mean, components, coefficients, variances, Math.sqrt(residualSquares/((double)n*radius)));
+	}
+
+	// Coefficients of profile on the components, into out
+	public void project(float[] profile, float[] out) {
+		for(int c = 0; c < k; c++) {
+			int offset = c*radius;
+			double sum = 0;
+			for(int j = 0; j < radius; j++) {
+				sum += (profile[j] - mean[j])*components[offset + j];
+			}
+			out[c] = (float)sum;
+		}
+	}
+
+	private double residualSquares(float[] profile, float[] projected) {
+		double squares = 0;
+		for(int j = 0; j < radius; j++) {
+			double reconstructed = mean[j];
+			for(int c = 0; c < k; c++) {
+				reconstructed += projected[c]*components[c*radius + j];
+			}
+			double d = profile[j] - reconstructed;
+			squares += d*d;
+		}
+		return squares;
+	}
+
+	// Index of the zlut profile closest to the projected profile
+	public int match(float[] projected) {
+		int minIndex = 0;
+		float min = Float.MAX_VALUE;
+		for(int i = 0; i < size(); i++) {
+			float d = ProfileMatcher.sumSquaredDifferences(projected, coefficients, i*k, k);
+			if(d < min) {
+				min = d;
+				minIndex = i;
+			}
+		}
+		return minIndex;
+	}
+
+	public float distance(float[] projected, int i) {
+		return ProfileMatcher.sumSquaredDifferences(projected, coefficients, i*k, k);
+	}
+
+	public int size() {
+		return coefficients.length/k;
+	}
+
+	public int getComponents() {
+		return k;
+	}
+
+	// Fraction of the zlut's variance the k components hold
+	public double getExplainedVariance() {
+		double total = 0;
+		double kept = 0;
+		for(int c = 0; c < variances.length; c++) {
+			total += variances[c];
+			if(c < k) kept += variances[c];
+		}
+		return total == 0 ? 1 : kept/total;
+	}
+
+	public double getReconstructionError() {
+		return reconstructionError;
+	}
+
+	// Eigenvalues of the symmetric matrix by cyclic Jacobi rotations, which destroy it.
+	// Eigenvector c ends up in column c of vectors
+	static double[] eigen(double[][] a, double[][] vectors) {
+		int size = a.length;
+		for(int i = 0; i < size; i++) {
+			Arrays.fill(vectors[i], 0);
+			vectors[i][i] = 1;
+		}
+
+		for(int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+			double off = 0;
+			double diagonal = 0;
+			for(int p = 0; p < size; p++) {
+				diagonal += a[p][p]*a[p][p];
+				for(int q = p + 1; q < size; q++) {
+					off += a[p][q]*a[p][q];
+				}
+			}
+			if(off <= 1e-24*diagonal || off == 0) break;
+
+			for(int p = 0; p < size; p++) {
+				for(int q = p + 1; q < size; q++) {
+					double apq = a[p][q];
+					if(apq == 0) continue;
+
+					// Rotation that zeroes a[p][q]
+					double theta = (a[q][q] - a[p][p])/(2*apq);
+					double t = Math.signum(theta)/(Math.abs(theta) + Math.sqrt(theta*theta + 1));
+					if(theta == 0) t = 1;
+					double c = 1/Math.sqrt(t*t + 1);
+					double s = t*c;
+
+					for(int r = 0; r < size; r++) {
+						double arp = a[r][p];
+						double arq = a[r][q];
+						a[r][p] = c*arp - s*arq;
+						a[r][q] = s*arp + c*arq;
+					}
+					for(int r = 0; r < size; r++) {
+						double apr = a[p][r];
+						double aqr = a[q][r];
+						a[p][r] = c*apr - s*aqr;
+						a[q][r] = s*apr + c*aqr;
+					}
+					for(int r = 0; r < size; r++) {
+						double vrp = vectors[r][p];
+						double vrq = vectors[r][q];
+						vectors[r][p] = c*vrp - s*vrq;
+						vectors[r][q] = s*vrp + c*vrq;
+					}
+				}
+			}
+		}
+
+		double[] values = new double[size];
+		for(int i = 0; i < size; i++) {
+			values[i] = a[i][i];
+		}
+		return values;
+	}
+}
@@ -0,0 +1,351 @@
+package com.zachRoot;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+// Builds a zlut from reference sweeps on several threads.
+// Every frame taken at the same height is reduced to one averaged profile, optionally leaving out
+// frames whose profile is far from the rest (a bead that was knocked or a frame with a bubble in it)
+public class ZlutBuilder {
+
+	// Frames are handed out to the threads in runs of this many
+	private static final int FRAMES_PER_TASK = 64;
+
+	// Scales the median absolute deviation to a standard deviation for normally distributed values
+	private static final double MAD_TO_SIGMA = 1.4826;
+
+	private final int imageWidth;
+	private final int radius;
+	private final int nThreads;
+
+	// Frames more than this many standard deviations from the median profile are left out. 0 keeps every frame
+	private double outlierThreshold = 0;
+
+	// Centers the profiles. Must be the localizer the zlut is tracked with, or the profiles won't match
+	private BeadLocalizer localizer = new CrossCorrelationLocalizer();
+
+	// Counts from the last build
+	private final AtomicInteger framesUsed = new AtomicInteger();
+	private final AtomicInteger framesRejected = new AtomicInteger();
+	private final AtomicInteger framesNotLocalized = new AtomicInteger();
+
+	public ZlutBuilder(int imageWidth, int nThreads) {
+		this.imageWidth = imageWidth;
+		this.radius = ZPositioning.radiusFor(imageWidth);
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	public ZlutBuilder setOutlierThreshold(double sigmas) {
+		if(sigmas < 0) throw new IllegalArgumentException("Outlier threshold can't be negative: " + sigmas);
+		outlierThreshold = sigmas;
+		return this;
+	}
+
+	public ZlutBuilder setLocalizer(BeadLocalizer localizer) {
+		this.localizer = localizer;
+		return this;
+	}
+
+	// Reference frames taken at one height
+	private static class Source {
+		final double height;
+		final File file;
+		ImageStack stack;
+
+		Source(double height, File file, ImageStack stack) {
+			this.height = height;
+			this.file = file;
+			this.stack = stack;
+		}
+	}
+
+	// Reference frames that don't fit the tracked image or bead regions, as opposed to anything else going wrong
+	public static class SizeMismatchException extends IllegalArgumentException {
+		private static final long serialVersionUID = 1L;
+
+		public SizeMismatchException(String message) {
+			super(message);
+		}
+	}
+
+	// Builds from the .avi files in directories named after the height they were taken at.
+	// Returns null if no reference images are found.
+	// Throws SizeMismatchException if the reference images aren't the size of the tracked image
+	public Zlut build(String directory_path) {
+		return build(directory_path, WHOLE_FRAME)[0];
+	}
+
+	// One zlut per region of the reference frames, for a field of view with several beads.
+	// Every region must be imageWidth square. Each frame is only decoded once for all the regions
+	public Zlut[] build(String directory_path, Rectangle[] regions) {
+		List<Source> sources = new ArrayList<>();
+		findHeightAvis(new File(directory_path), sources);
+		return build(sources, regions);
+	}
+
+	// Builds from frames already in memory, stacks[i] holding the frames taken at heights[i]
+	public Zlut build(double[] heights, ImageStack[] stacks) {
+		List<Source> sources = new ArrayList<>();
+		for(int i = 0; i < heights.length; i++) {
+			sources.add(new Source(heights[i], null, stacks[i]));
+		}
+		return build(sources, WHOLE_FRAME)[0];
+	}
+
+	// A single region of null stands for the whole frame
+	private static final Rectangle[] WHOLE_FRAME = {null};
+
+	private static void findHeightAvis(File directory, List<Source> sources) {
+		File[] contents = directory.listFiles();
+		if(contents == null) return;
+
+		for(File file: contents) {
+			if(file.isDirectory()) {
+				findHeightAvis(file, sources);
+				continue;
+			}
+			if(!file.getName().endsWith(".avi")) continue;
+
+			try {
+				sources.add(new Source(Double.parseDouble(directory.getName()), file, null));
+			} catch (NumberFormatException e) {
+				// Cannot have an image without a height in the zlut
+			}
+		}
+	}
+
+	private Zlut[] build(List<Source> sources, Rectangle[] regions) {
+
+		for(Rectangle region: regions) {
+			if(region != null && (region.width != imageWidth || region.height != imageWidth)) {
+				throw new IllegalArgumentException("Region " + region + " isn't " + imageWidth + " pixels square");
+			}
+		}
+
+		framesUsed.set(0);
+		framesRejected.set(0);
+		framesNotLocalized.set(0);
+
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		try {
+			// Open every file in parallel. Virtual stacks only read the frame index here, unless the frame cache is filling
+			List<Future<?>> opened = new ArrayList<>();
+			for(Source source: sources) {
+				if(source.stack != null) continue;
+				opened.add(pool.submit(() -> {
+					source.stack = FrameCache.open(source.file);
+				}));
+			}
+			waitFor(opened);
+
+			// Then localize and profile runs of frames in parallel. profiles[region][source][frame]
+			float[][][][] profiles = new float[regions.length][sources.size()][][];
+			List<Future<?>> profiled = new ArrayList<>();
+			for(int s = 0; s < sources.size(); s++) {
+				ImageStack stack = sources.get(s).stack;
+				int size = stack == null ? 0 : stack.size();
+				float[][][] sourceProfiles = new float[regions.length][][];
+				for(int r = 0; r < regions.length; r++) {
+					profiles[r][s] = sourceProfiles[r] = new float[size][];
+				}
+
+				for(int first = 1; first <= size; first += FRAMES_PER_TASK) {
+					profiled.add(pool.submit(profileTask(stack, first, Math.min(size, first + FRAMES_PER_TASK - 1), regions, sourceProfiles)));
+				}
+			}
+			waitFor(profiled);
+
+			Zlut[] zluts = new Zlut[regions.length];
+			for(int r = 0; r < regions.length; r++) {
+				zluts[r] = reduce(sources, profiles[r], pool);
+			}
+			return zluts;
+
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// One averaged profile per height, sorted by height. Null if there are no profiles
+	private Zlut reduce(List<Source> sources, float[][][] profiles, ExecutorService pool) {
+
+		// Group the profiles of each height. TreeMap keeps the zlut sorted by height
+		TreeMap<Double, List<float[]>> byHeight = new TreeMap<>();
+		for(int s = 0; s < sources.size(); s++) {
+			for(float[] profile: profiles[s]) {
+				if(profile == null) continue;
+				byHeight.computeIfAbsent(sources.get(s).height, h -> new ArrayList<>()).add(profile);
+			}
+		}
+
+		if(byHeight.isEmpty()) return null;
+
+		// Reduce each height on its own thread
+		List<Double> heights = new ArrayList<>(byHeight.keySet());
+		List<Future<float[]>> averaged = new ArrayList<>();
+		for(Map.Entry<Double, List<float[]>> height: byHeight.entrySet()) {
+			averaged.add(pool.submit(() -> average(height.getValue())));
+		}
+
+		float[] data = new float[heights.size()*radius];
+		double[] zlutHeights = new double[heights.size()];
+		for(int i = 0; i < heights.size(); i++) {
+			System.arraycopy(waitFor(averaged.get(i)), 0, data, i*radius, radius);
+			zlutHeights[i] = heights.get(i);
+		}
+
+		return new Zlut(data, zlutHeights, radius, imageWidth, localizer.getName());
+	}
+
+	private Runnable profileTask(ImageStack stack, int first, int last, Rectangle[] regions, float[][][] profiles) {
+		return () -> {
+			for(int i = first; i <= last; i++) {
+				ImageProcessor frame;
+				// Virtual stacks read from disk and are not safe to share between threads
+				synchronized(stack) {
+					frame = stack.getProcessor(i);
+				}
+
+				for(int r = 0; r < regions.length; r++) {
+					Rectangle region = regions[r];
+					ImageProcessor ip;
+
+					if(region == null) {
+						if(frame.getWidth() != imageWidth) {
+							throw new SizeMismatchException("Images found were of a different size than the current image");
+						}
+						ip = frame;
+					} else {
+						if(region.x + region.width > frame.getWidth() || region.y + region.height > frame.getHeight()) {
+							throw new SizeMismatchException("Bead region " + region + " is outside the reference images");
+						}
+						ip = BeadDetector.crop(frame, region);
+					}
+
+					double[] xyCordSubPixel = localizer.locate(ip, 0, 0, ip.getWidth(), null);
+
+					// A frame without a center would only blur the average
+					if(Double.isNaN(xyCordSubPixel[0]) || Double.isNaN(xyCordSubPixel[1])) {
+						framesNotLocalized.incrementAndGet();
+						continue;
+					}
+
+					profiles[r][i-1] = ZPositioning.createRadialProfile(xyCordSubPixel, ip, radius);
+				}
+			}
+		};
+	}
+
+	// Mean of the profiles, without outliers if a threshold is set
+	private float[] average(List<float[]> profiles) {
+
+		boolean[] keep = new boolean[profiles.size()];
+		Arrays.fill(keep, true);
+
+		if(outlierThreshold > 0 && profiles.size() >= 3) {
+			float[] median = medianProfile(profiles);
+
+			// Distance of each frame from the median frame
+			double[] distances = new double[profiles.size()];
+			for(int i = 0; i < profiles.size(); i++) {
+				distances[i] = ProfileMatcher.sumAbsoluteDifferences(median, profiles.get(i), 0, radius);
+			}
+
+			double medianDistance = median(distances.clone());
+			double[] deviations = new double[distances.length];
+			for(int i = 0; i < distances.length; i++) {
+				deviations[i] = Math.abs(distances[i] - medianDistance);
+			}
+			double sigma = MAD_TO_SIGMA*median(deviations);
+
+			if(sigma > 0) {
+				for(int i = 0; i < distances.length; i++) {
+					keep[i] = distances[i] <= medianDistance + outlierThreshold*sigma;
+				}
+			}
+		}
+
+		double[] sum = new double[radius];
+		int n = 0;
+		for(int i = 0; i < profiles.size(); i++) {
+			if(!keep[i]) {
+				framesRejected.incrementAndGet();
+				continue;
+			}
+			float[] profile = profiles.get(i);
+			for(int j = 0; j < radius; j++) {
+				sum[j] += profile[j];
+			}
+			n++;
+		}
+		framesUsed.addAndGet(n);
+
+		float[] average = new float[radius];
+		for(int j = 0; j < radius; j++) {
+			average[j] = (float)(sum[j]/n);
+		}
+		return average;
+	}
+
+	private float[] medianProfile(List<float[]> profiles) {
+		float[] median = new float[radius];
+		double[] bin = new double[profiles.size()];
+		for(int j = 0; j < radius; j++) {
+			for(int i = 0; i < profiles.size(); i++) {
+				bin[i] = profiles.get(i)[j];
+			}
+			median[j] = (float)median(bin);
+		}
+		return median;
+	}
+
+	// Sorts values
+	private static double median(double[] values) {
+		Arrays.sort(values);
+		int mid = values.length/2;
+		return values.length % 2 == 1 ? values[mid] : (values[mid-1] + values[mid])/2;
+	}
+
+	private static void waitFor(List<Future<?>> tasks) {
+		for(Future<?> task: tasks) {
+			waitFor(task);
+		}
+	}
+
+	private static <T> T waitFor(Future<T> task) {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("ZLUT creation was interrupted", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw new RuntimeException("ZLUT creation failed", e.getCause());
+		}
+	}
+
+	public int getFramesUsed() {
+		return framesUsed.get();
+	}
+
+	public int getFramesRejected() {
+		return framesRejected.get();
+	}
+
+	public int getFramesNotLocalized() {
+		return framesNotLocalized.get();
+	}
+}
@@ -0,0 +1,162 @@
+package com.zachRoot;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+// Binary zlut file read through a memory map.
+//
+// Layout, little endian:
+//   0  magic "MBZL"
+//   4  int    format version
+//   8  int    number of profiles
+//   12 int    radius (bins per profile)
+//   16 int    width of the images the profiles were made from
+//   20 int    localizer the profiles were centered with, 1 + its index in BeadLocalizer.NAMES. 0 in files
+//             written before it was recorded, which were all made with xcor
+//   24 long   CRC32 of everything after the header
+//   32 double heights, one per profile
+//   .. float  profiles back to back
+public class ZlutFile {
+
+	public static final String FILE_NAME = "zlut.bin";
+
+	static final int MAGIC = 0x4C5A424D; // "MBZL" read little endian
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+
+	// Zlut of one bead region of a multi bead sweep. Named by the region since it only holds for that crop
+	public static String fileNameFor(Rectangle region) {
+		return "zlut-" + region.x + "-" + region.y + "-" + region.width + "x" + region.height + ".bin";
+	}
+
+	// Header of a zlut file, enough to check it against an image without reading the profiles
+	public static class Header {
+		public final int version;
+		public final int size;
+		public final int radius;
+		public final int imageWidth;
+		public final String localizer;
+		public final long checksum;
+
+		Header(int version, int size, int radius, int imageWidth, String localizer, long checksum) {
+			this.version = version;
+			this.size = size;
+			this.radius = radius;
+			this.imageWidth = imageWidth;
+			this.localizer = localizer;
+			this.checksum = checksum;
+		}
+
+		public boolean isValidFor(int imageWidth) {
+			return size > 0 && radius == ZPositioning.radiusFor(imageWidth) && (this.imageWidth == 0 || this.imageWidth == imageWidth);
+		}
+	}
+
+	public static void write(Zlut zlut, File file) throws IOException {
+
+		int payloadSize = zlut.size()*Double.BYTES + zlut.data.length*Float.BYTES;
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payloadSize).order(ByteOrder.LITTLE_ENDIAN);
+
+		buffer.position(HEADER_SIZE);
+		buffer.asDoubleBuffer().put(zlut.heights);
+		buffer.position(HEADER_SIZE + zlut.size()*Double.BYTES);
+		buffer.asFloatBuffer().put(zlut.data);
+
+		buffer.position(HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		crc.update(buffer);
+
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(8, zlut.size());
+		buffer.putInt(12, zlut.radius);
+		buffer.putInt(16, zlut.imageWidth);
+		buffer.putInt(20, 1 + Arrays.asList(BeadLocalizer.NAMES).indexOf(zlut.localizer));
+		buffer.putLong(24, crc.getValue());
+		buffer.rewind();
+
+		// Written next to the target and moved over it so a crash never leaves half a zlut
+		File temp = new File(file.getAbsolutePath() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Reads only the header
+	public static Header readHeader(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while(buffer.hasRemaining()) {
+				if(channel.read(buffer) < 0) throw new IOException("Not a zlut file, too short: " + file);
+			}
+			return parseHeader(buffer, channel.size(), file);
+		}
+	}
+
+	public static Zlut read(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			map.order(ByteOrder.LITTLE_ENDIAN);
+
+			Header header = parseHeader(map, channel.size(), file);
+
+			map.position(HEADER_SIZE);
+			CRC32 crc = new CRC32();
+			crc.update(map);
+			if(crc.getValue() != header.checksum) {
+				throw new IOException("Zlut file is corrupt, checksum doesn't match: " + file);
+			}
+
+			double[] heights = new double[header.size];
+			float[] data = new float[header.size*header.radius];
+
+			// Bulk copies straight out of the mapped pages
+			map.position(HEADER_SIZE);
+			map.asDoubleBuffer().get(heights);
+			map.position(HEADER_SIZE + header.size*Double.BYTES);
+			map.asFloatBuffer().get(data);
+
+			return new Zlut(data, heights, header.radius, header.imageWidth, header.localizer);
+		}
+	}
+
+	private static Header parseHeader(ByteBuffer buffer, long fileSize, File file) throws IOException {
+		if(fileSize < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a zlut file: " + file);
+		}
+
+		int version = buffer.getInt(4);
+		if(version != VERSION) {
+			throw new IOException("Unsupported zlut file version " + version + ": " + file);
+		}
+
+		int localizer = buffer.getInt(20);
+		if(localizer < 0 || localizer > BeadLocalizer.NAMES.length) {
+			throw new IOException("Zlut file has an unknown localizer " + localizer + ": " + file);
+		}
+
+		Header header = new Header(version, buffer.getInt(8), buffer.getInt(12), buffer.getInt(16),
+				BeadLocalizer.NAMES[Math.max(0, localizer - 1)], buffer.getLong(24));
+
+		long expected = HEADER_SIZE + (long)header.size*Double.BYTES + (long)header.size*header.radius*Float.BYTES;
+		if(header.size < 0 || header.radius < 0 || fileSize != expected) {
+			throw new IOException("Zlut file is truncated or has a bad header: " + file);
+		}
+		return header;
+	}
+}
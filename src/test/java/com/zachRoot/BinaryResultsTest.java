@@ -0,0 +1,103 @@
+package com.zachRoot;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Rows written by BinaryResultSink must read back through BinaryResults, whole blocks only
+public class BinaryResultsTest {
+
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = Files.createTempFile("results", ".bin").toFile();
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	private static double x(int frame) {
+		return frame % 7 == 0 ? Double.NaN : frame*0.25;
+	}
+
+	private static double y(int frame) {
+		return frame % 7 == 0 ? Double.NaN : 1000 - frame*0.5;
+	}
+
+	private static double z(int frame) {
+		return frame % 5 == 0 ? Double.NaN : Math.sin(frame)*300;
+	}
+
+	private void writeRows(int first, int last, BinaryResultSink sink) throws IOException {
+		for(int frame = first; frame <= last; frame++) {
+			sink.write(frame, frame*40L, x(frame), y(frame), z(frame), ResultSink.status(x(frame), y(frame), z(frame)));
+		}
+	}
+
+	// A full block, a short one from a flush and a last short one from close. Returns the number of rows
+	private int writeFile() throws IOException {
+		int rows = BinaryResultSink.BLOCK_ROWS + 150;
+		try (BinaryResultSink sink = new BinaryResultSink(file)) {
+			writeRows(1, BinaryResultSink.BLOCK_ROWS + 100, sink);
+			sink.flush();
+			writeRows(BinaryResultSink.BLOCK_ROWS + 101, rows, sink);
+		}
+		return rows;
+	}
+
+	@Test
+	public void writtenRowsReadBack() throws IOException {
+		int rows = writeFile();
+		BinaryResults results = new BinaryResults(file);
+
+		assertEquals(rows, results.size());
+		for(int row = 0; row < rows; row++) {
+			int frame = row + 1;
+			assertEquals(frame, results.getFrame(row));
+			assertEquals(frame*40L, results.getTime(row));
+			assertEquals("x of " + frame, x(frame), results.getX(row), 0);
+			assertEquals("y of " + frame, y(frame), results.getY(row), 0);
+			assertEquals("z of " + frame, z(frame), results.getZ(row), 0);
+			assertEquals(ResultSink.status(x(frame), y(frame), z(frame)), results.getStatus(row));
+		}
+	}
+
+	// Like a run still writing its last block
+	@Test
+	public void blockCutShortIsLeftOut() throws IOException {
+		writeFile();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 8);
+		}
+		BinaryResults results = new BinaryResults(file);
+
+		assertEquals(BinaryResultSink.BLOCK_ROWS + 100, results.size());
+		assertEquals(BinaryResultSink.BLOCK_ROWS + 100, results.getFrame(results.size() - 1));
+	}
+
+	@Test(expected = IOException.class)
+	public void otherFileIsRefused() throws IOException {
+		Files.write(file.toPath(), "frame,time,x,y,z,status\n1,0,1,2,3,0\n".getBytes("UTF-8"));
+		new BinaryResults(file);
+	}
+
+	@Test(expected = IOException.class)
+	public void otherVersionIsRefused() throws IOException {
+		writeFile();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(8);
+			raf.write(BinaryResultSink.VERSION + 1);
+		}
+		new BinaryResults(file);
+	}
+}
@@ -0,0 +1,95 @@
+package com.zachRoot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ij.ImageStack;
+import ij.process.ShortProcessor;
+
+// Cached frames must come back as they were stored, and a damaged entry must fail as an IOException so the avi is decoded again
+public class FrameCacheTest {
+
+	private File avi;
+	private File entry;
+
+	@Before
+	public void createFiles() throws IOException {
+		avi = Files.createTempFile("recording", ".avi").toFile();
+		Files.write(avi.toPath(), new byte[] {1, 2, 3});
+		entry = new File(avi.getParentFile(), avi.getName() + FrameCache.EXTENSION);
+	}
+
+	@After
+	public void deleteFiles() {
+		avi.delete();
+		entry.delete();
+	}
+
+	@Test
+	public void storedFramesAreMappedBack() throws IOException {
+		ImageStack frames = new ImageStack(5, 3);
+		for(int n = 0; n < 4; n++) {
+			short[] pixels = new short[15];
+			for(int i = 0; i < pixels.length; i++) {
+				pixels[i] = (short)(n*1000 + i*40);
+			}
+			frames.addSlice(new ShortProcessor(5, 3, pixels, null));
+		}
+
+		assertTrue(FrameCache.store(entry, avi, frames));
+		ImageStack mapped = FrameCache.map(entry, avi);
+		assertNotNull(mapped);
+		assertEquals(frames.size(), mapped.size());
+		for(int n = 1; n <= frames.size(); n++) {
+			assertArrayEquals("Frame " + n, toDoubles((short[])frames.getPixels(n)), toDoubles((short[])mapped.getProcessor(n).getPixels()), 0);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void negativePathLengthIsRejected() throws IOException {
+		writeHeader(8, 8, 8, 1, -5);
+		FrameCache.map(entry, avi);
+	}
+
+	@Test(expected = IOException.class)
+	public void bitDepthBelowAByteIsRejected() throws IOException {
+		writeHeader(8, 8, 4, 1, 0);
+		FrameCache.map(entry, avi);
+	}
+
+	@Test(expected = IOException.class)
+	public void emptyFramesAreRejected() throws IOException {
+		writeHeader(0, 8, 8, 1, 0);
+		FrameCache.map(entry, avi);
+	}
+
+	private void writeHeader(int width, int height, int bitDepth, int frames, int pathBytes) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(FrameCache.DATA_ALIGNMENT).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(FrameCache.MAGIC).putInt(FrameCache.VERSION).putInt(width).putInt(height).putInt(bitDepth).putInt(frames)
+				.putInt(pathBytes).putLong(avi.length()).putLong(avi.lastModified());
+		try (RandomAccessFile raf = new RandomAccessFile(entry, "rw")) {
+			raf.write(header.array());
+		}
+	}
+
+	private static double[] toDoubles(short[] pixels) {
+		double[] values = new double[pixels.length];
+		for(int i = 0; i < pixels.length; i++) {
+			values[i] = pixels[i];
+		}
+		return values;
+	}
+}
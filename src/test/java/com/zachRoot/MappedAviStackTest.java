@@ -0,0 +1,94 @@
+package com.zachRoot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.plugin.AVI_Reader;
+import ij.plugin.filter.AVI_Writer;
+import ij.process.ByteProcessor;
+
+// Frames read from the map must be the ones AVI_Reader gives, which tracking used before
+public class MappedAviStackTest {
+
+	private static final int FRAMES = 12;
+
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = Files.createTempFile("recording", ".avi").toFile();
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	// AVI_Writer stores uncompressed frames bottom up, so a width of a multiple of 4 has unpadded rows
+	@Test
+	public void bottomUpFramesMatchAviReader() throws IOException {
+		assertFramesMatch(64, 48);
+	}
+
+	// Rows of 61 bytes are padded to 64 in the file
+	@Test
+	public void paddedRowsMatchAviReader() throws IOException {
+		assertFramesMatch(61, 37);
+	}
+
+	private void assertFramesMatch(int width, int height) throws IOException {
+		ImageStack written = frames(width, height);
+		new AVI_Writer().writeImage(new ImagePlus("recording", written), file.getAbsolutePath(), AVI_Writer.NO_COMPRESSION, 0);
+
+		MappedAviStack mapped = MappedAviStack.open(file);
+		ImageStack read = new AVI_Reader().makeStack(file.getAbsolutePath(), 1, 0, true, false, false);
+		assertNotNull(mapped);
+		assertEquals(width, mapped.getWidth());
+		assertEquals(height, mapped.getHeight());
+		assertEquals(read.size(), mapped.size());
+
+		byte[] pixels = new byte[width*height];
+		for(int n = 1; n <= FRAMES; n++) {
+			double[] expected = toDoubles((byte[])read.getProcessor(n).getPixels());
+			assertArrayEquals("Frame " + n, toDoubles((byte[])written.getPixels(n)), expected, 0);
+			assertArrayEquals("Frame " + n, expected, toDoubles((byte[])mapped.getProcessor(n).getPixels()), 0);
+
+			mapped.readPixels(n, pixels);
+			assertArrayEquals("Frame " + n, expected, toDoubles(pixels), 0);
+		}
+	}
+
+	// Every pixel differs from its neighbours and from the same pixel of other frames, so flipped or shifted rows show
+	private static ImageStack frames(int width, int height) {
+		ImageStack stack = new ImageStack(width, height);
+		for(int n = 0; n < FRAMES; n++) {
+			byte[] pixels = new byte[width*height];
+			for(int y = 0; y < height; y++) {
+				for(int x = 0; x < width; x++) {
+					pixels[y*width + x] = (byte)(x*7 + y*13 + n*29);
+				}
+			}
+			stack.addSlice(new ByteProcessor(width, height, pixels));
+		}
+		return stack;
+	}
+
+	private static double[] toDoubles(byte[] pixels) {
+		double[] values = new double[pixels.length];
+		for(int i = 0; i < pixels.length; i++) {
+			values[i] = pixels[i] & 0xff;
+		}
+		return values;
+	}
+}
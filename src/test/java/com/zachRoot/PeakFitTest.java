@@ -0,0 +1,87 @@
+package com.zachRoot;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.measure.CurveFitter;
+
+// The closed form fits against the CurveFitter fits they replaced, on noisy windows like the ones tracking fits
+public class PeakFitTest {
+
+	private static final int LENGTH = 40;
+
+	// XYPositioning fitted POLY2 at the correlation's own indexes and took its vertex
+	@Test
+	public void vertexMatchesCurveFitterPoly2() {
+		Random random = new Random(5);
+		for(int nPoints = PeakFit.MIN_POINTS; nPoints <= PeakFit.MAX_POINTS; nPoints += 2) {
+			for(int i = 0; i < 200; i++) {
+				int center = nPoints/2 + random.nextInt(LENGTH - nPoints);
+				float[] signal = curve(center + random.nextDouble() - 0.5, -10, 1, random);
+
+				int h = nPoints/2;
+				double[] indexes = new double[nPoints];
+				double[] data = new double[nPoints];
+				for(int j = 0; j < nPoints; j++) {
+					indexes[j] = center - h + j;
+					data[j] = signal[center - h + j];
+				}
+				CurveFitter fit = new CurveFitter(indexes, data);
+				fit.doFit(CurveFitter.POLY2);
+				double expected = -fit.getParams()[1]/(2*fit.getParams()[2]);
+
+				assertEquals(nPoints + " points at " + center, expected, center + PeakFit.vertexOffset(signal, center, nPoints), 1e-6);
+			}
+		}
+	}
+
+	// ZPositioning fitted y = a*a*(x - b)*(x - b) + c at -2..2 around the smallest zlut distance and took b
+	@Test
+	public void minimumMatchesCurveFitterCustomFit() {
+		Random random = new Random(6);
+		double[] indexes = {-2.0, -1.0, 0.0, 1.0, 2.0};
+		for(int i = 0; i < 200; i++) {
+			float[] distances = curve(2 + random.nextDouble() - 0.5, 3, 0.3, random);
+
+			double[] data = new double[5];
+			for(int j = 0; j < 5; j++) {
+				data[j] = distances[j];
+			}
+			CurveFitter fit = new CurveFitter(indexes, data);
+			fit.doCustomFit("y = a*a*(x - b)*(x - b) + c", new double[] {0, 0, 0}, false);
+
+			assertEquals("Window " + i, fit.getParams()[1], PeakFit.minimumOffset(distances, 2, 5), 1e-4);
+		}
+	}
+
+	// The custom fit couldn't curve down, its best fit was flat and left the minimum at the center
+	@Test
+	public void downwardCurveLeavesTheMinimumAtTheCenter() {
+		float[] distances = curve(2.3, -3, 0, new Random(7));
+		assertEquals(0, PeakFit.minimumOffset(distances, 2, 5), 0);
+	}
+
+	@Test
+	public void windowOffTheEndIsNaN() {
+		float[] signal = curve(1, -10, 0, new Random(8));
+		assertEquals(Double.NaN, PeakFit.vertexOffset(signal, 1, 5), 0);
+		assertEquals(Double.NaN, PeakFit.vertexOffset(signal, LENGTH - 2, 5), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void evenWindowIsRejected() {
+		PeakFit.vertexOffset(new float[LENGTH], 10, 4);
+	}
+
+	// 100 + curvature*(x - vertex)^2 plus noise
+	private static float[] curve(double vertex, double curvature, double noise, Random random) {
+		float[] values = new float[LENGTH];
+		for(int x = 0; x < LENGTH; x++) {
+			values[x] = (float)(100 + curvature*(x - vertex)*(x - vertex) + random.nextGaussian()*noise);
+		}
+		return values;
+	}
+}
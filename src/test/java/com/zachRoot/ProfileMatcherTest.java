@@ -0,0 +1,147 @@
+package com.zachRoot;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+// Matching on the contiguous zlut against the copy per frame matching it replaced, and the other metrics against
+// their sums written out
+public class ProfileMatcherTest {
+
+	private static final int RADIUS = ZPositioning.radiusFor(64);
+	private static final int PLANES = 60;
+
+	private static Zlut zlut;
+
+	// Profiles that change smoothly with height, like a bead's rings moving through focus
+	@BeforeClass
+	public static void createZlut() {
+		double[] heights = new double[PLANES];
+		float[] data = new float[PLANES*RADIUS];
+		for(int i = 0; i < PLANES; i++) {
+			heights[i] = i*50;
+			for(int j = 0; j < RADIUS; j++) {
+				data[i*RADIUS + j] = ring(j, i);
+			}
+		}
+		zlut = new Zlut(data, heights, RADIUS);
+	}
+
+	private static float ring(int bin, double plane) {
+		return (float)(100 + 50*Math.sin(bin*0.4 + plane*0.05)*Math.exp(-bin*0.05*(1 + plane/PLANES)) + bin);
+	}
+
+	// A frame between planes, with noise
+	private static float[] profile(Random random) {
+		double plane = 3 + random.nextDouble()*(PLANES - 7);
+		float[] profile = new float[RADIUS];
+		for(int j = 0; j < RADIUS; j++) {
+			profile[j] = ring(j, plane) + (float)random.nextGaussian();
+		}
+		return profile;
+	}
+
+	@Test
+	public void l1MatchesCopyPerFrameMatching() {
+		Random random = new Random(9);
+		for(int n = 0; n < 500; n++) {
+			float[] profile = profile(random);
+			assertEquals("Profile " + n, copyPerFrameZ(profile), ZPositioning.compareWithZLut(profile, zlut), 1e-3);
+		}
+	}
+
+	@Test
+	public void distancesMatchTheirSums() {
+		Random random = new Random(10);
+		for(int n = 0; n < 100; n++) {
+			float[] profile = profile(random);
+			float mean = ProfileMatcher.mean(profile, RADIUS);
+			float norm = ProfileMatcher.centeredNorm(profile, RADIUS, mean);
+			for(int i = 0; i < PLANES; i++) {
+				float[] plane = zlut.getProfile(i);
+
+				double l1 = 0, l2 = 0;
+				for(int j = 0; j < RADIUS; j++) {
+					l1 += Math.abs(profile[j] - plane[j]);
+					l2 += (profile[j] - plane[j])*(profile[j] - plane[j]);
+				}
+				assertEquals(l1, ProfileMatcher.distance(profile, zlut, i, ProfileMatcher.Metric.L1, mean, norm), l1*1e-5);
+				assertEquals(l2, ProfileMatcher.distance(profile, zlut, i, ProfileMatcher.Metric.L2, mean, norm), l2*1e-5);
+				assertEquals(1 - pearson(profile, plane), ProfileMatcher.distance(profile, zlut, i, ProfileMatcher.Metric.CORRELATION, mean, norm), 1e-4);
+			}
+		}
+	}
+
+	// Correlation matches a frame that is brighter and has more contrast to the same plane
+	@Test
+	public void correlationIgnoresBrightnessAndContrast() {
+		Random random = new Random(11);
+		for(int n = 0; n < 100; n++) {
+			float[] profile = profile(random);
+			float[] brighter = new float[RADIUS];
+			for(int j = 0; j < RADIUS; j++) {
+				brighter[j] = profile[j]*3 + 50;
+			}
+			assertEquals(ProfileMatcher.match(profile, zlut, ProfileMatcher.Metric.CORRELATION),
+					ProfileMatcher.match(brighter, zlut, ProfileMatcher.Metric.CORRELATION));
+		}
+	}
+
+	// compareWithZLut before the zlut was contiguous: a copy of the zlut for the differences, then their sums
+	private static double copyPerFrameZ(float[] radialProfile) {
+		float[][] profiles = new float[PLANES][];
+		for(int i = 0; i < PLANES; i++) {
+			profiles[i] = zlut.getProfile(i);
+		}
+
+		float[][] zlutC = new float[profiles.length][profiles[0].length];
+		float[] distances = new float[profiles.length];
+		for(int i = 0; i < profiles.length; i++) {
+			for(int j = 0; j < profiles[0].length; j++) {
+				zlutC[i][j] = Math.abs(radialProfile[j] - profiles[i][j]);
+			}
+			float sum = 0f;
+			for(int j = 0; j < zlutC[0].length; j++) {
+				sum += zlutC[i][j];
+			}
+			distances[i] = sum;
+		}
+
+		int minDiffIndex = 0;
+		for(int i = 0; i < distances.length; i++) {
+			if(distances[i] < distances[minDiffIndex]) {
+				minDiffIndex = i;
+			}
+		}
+		if(minDiffIndex - 2 < 0 || minDiffIndex + 2 > zlutC.length-1) {
+			return Double.NaN;
+		}
+		double b = PeakFit.minimumOffset(distances, minDiffIndex, 5);
+		if(Math.abs(b) > 2) {
+			return Double.NaN;
+		}
+		double delta = zlut.heights[minDiffIndex] - zlut.heights[minDiffIndex-1];
+		return b*delta + zlut.heights[minDiffIndex];
+	}
+
+	private static double pearson(float[] a, float[] b) {
+		double meanA = 0, meanB = 0;
+		for(int j = 0; j < a.length; j++) {
+			meanA += a[j];
+			meanB += b[j];
+		}
+		meanA /= a.length;
+		meanB /= b.length;
+
+		double covariance = 0, varianceA = 0, varianceB = 0;
+		for(int j = 0; j < a.length; j++) {
+			covariance += (a[j] - meanA)*(b[j] - meanB);
+			varianceA += (a[j] - meanA)*(a[j] - meanA);
+			varianceB += (b[j] - meanB)*(b[j] - meanB);
+		}
+		return covariance/Math.sqrt(varianceA*varianceB);
+	}
+}
@@ -0,0 +1,104 @@
+package com.zachRoot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ij.process.ImageProcessor;
+
+// Profiles from the cached bin maps against the exact profile, which works every bin out for every frame
+public class RadialBinCacheTest {
+
+	private static final int GRID = 16;
+
+	private int subPixelGrid;
+	private long maxBytes;
+
+	@Before
+	public void saveSettings() {
+		subPixelGrid = RadialBinCache.getSubPixelGrid();
+		maxBytes = RadialBinCache.getMaxBytes();
+		RadialBinCache.setSubPixelGrid(GRID);
+		RadialBinCache.clear();
+	}
+
+	@After
+	public void restoreSettings() {
+		RadialBinCache.setSubPixelGrid(subPixelGrid);
+		RadialBinCache.setMaxBytes(maxBytes);
+		RadialBinCache.clear();
+	}
+
+	// On the grid the bins are the same and the sums are added in the same order, so the profiles are equal.
+	// Centers near the edges have maps cut off by the frame
+	@Test
+	public void gridCentersMatchExactProfile() {
+		for(int width: new int[] {64, 127, 256}) {
+			SyntheticBeads beads = new SyntheticBeads(width, 16, width).setNoise(0.01);
+			Random random = new Random(width);
+			int radius = ZPositioning.radiusFor(width);
+			for(int i = 0; i < 50; i++) {
+				double[] center = {onGrid(random.nextDouble()*width), onGrid(random.nextDouble()*width)};
+				ImageProcessor ip = beads.render(center[0], center[1], 500, random);
+
+				assertArrayEquals("Center " + center[0] + "," + center[1] + " at width " + width,
+						ZPositioning.createRadialProfileExact(center, ip, radius), RadialBinCache.createRadialProfile(center, ip, radius), 0);
+			}
+		}
+	}
+
+	// Off the grid the center moves by at most half a grid step. The inner bins have few pixels and move most
+	// when one of them changes bin, so the profile is held to an rms error
+	@Test
+	public void offGridCentersStayCloseToExactProfile() {
+		int width = 128;
+		SyntheticBeads beads = new SyntheticBeads(width, 16, 4).setNoise(0.01);
+		Random random = new Random(12);
+		int radius = ZPositioning.radiusFor(width);
+		for(int i = 0; i < 50; i++) {
+			double[] center = {width/2.0 + (random.nextDouble() - 0.5)*8, width/2.0 + (random.nextDouble() - 0.5)*8};
+			ImageProcessor ip = beads.render(center[0], center[1], 500, random);
+
+			float[] exact = ZPositioning.createRadialProfileExact(center, ip, radius);
+			float[] cached = RadialBinCache.createRadialProfile(center, ip, radius);
+			float[] rounded = ZPositioning.createRadialProfileExact(new double[] {onGrid(center[0]), onGrid(center[1])}, ip, radius);
+			assertArrayEquals(rounded, cached, 0);
+
+			float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+			double squares = 0;
+			for(int j = 0; j < radius; j++) {
+				min = Math.min(min, exact[j]);
+				max = Math.max(max, exact[j]);
+				squares += (exact[j] - cached[j])*(exact[j] - cached[j]);
+			}
+			double rms = Math.sqrt(squares/radius);
+			assertTrue("Center " + center[0] + "," + center[1] + " off by " + rms, rms < 0.02*(max - min));
+		}
+	}
+
+	@Test
+	public void mapsStayUnderMaxBytes() {
+		int width = 128;
+		int radius = ZPositioning.radiusFor(width);
+		long mapBytes = 2L*(2*(radius + 1))*(2*(radius + 1));
+		RadialBinCache.setMaxBytes(10*mapBytes);
+
+		SyntheticBeads beads = new SyntheticBeads(width, 16, 5);
+		Random random = new Random(13);
+		ImageProcessor ip = beads.render(width/2.0, width/2.0, 500, random);
+		for(int i = 0; i < 200; i++) {
+			double[] center = {width/2.0 + random.nextDouble(), width/2.0 + random.nextDouble()};
+			RadialBinCache.createRadialProfile(center, ip, radius);
+			assertTrue(RadialBinCache.getBytes() <= 10*mapBytes);
+		}
+	}
+
+	private static double onGrid(double value) {
+		return Math.round(value*GRID)/(double)GRID;
+	}
+}
@@ -0,0 +1,112 @@
+package com.zachRoot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+// The frames a plot draws from the envelope against every frame of the range, which the plots used to draw
+public class TraceEnvelopeTest {
+
+	private static final int FRAMES = 200000;
+	private static final int BUCKETS = 500;
+
+	private static double[] values;
+	private static TraceEnvelope envelope;
+
+	// A slow drift with noise, single frame spikes both ways and runs of lost frames
+	@BeforeClass
+	public static void trace() {
+		Random random = new Random(3);
+		values = new double[FRAMES];
+		for(int i = 0; i < FRAMES; i++) {
+			values[i] = Math.sin(i*1e-4)*500 + random.nextGaussian()*10;
+			if(random.nextInt(5000) == 0) values[i] += (random.nextBoolean() ? 1 : -1)*(2000 + random.nextInt(1000));
+		}
+		for(int run = 0; run < 50; run++) {
+			int start = random.nextInt(FRAMES - 100);
+			int length = random.nextInt(100);
+			for(int i = start; i < start + length; i++) values[i] = Double.NaN;
+		}
+
+		// Appended in uneven blocks, the way tracking hands them over
+		envelope = new TraceEnvelope();
+		while(envelope.size() < FRAMES) {
+			envelope.append(values, Math.min(FRAMES, envelope.size() + 1 + random.nextInt(3000)));
+		}
+	}
+
+	@Test
+	public void rangesKeepTheirTrueMinAndMax() {
+		Random random = new Random(4);
+		for(int check = 0; check < 2000; check++) {
+			int first = random.nextInt(FRAMES);
+			int last = first + random.nextInt(FRAMES - first);
+			int[] frames = envelope.select(first, last, BUCKETS);
+
+			double min = Double.NaN, max = Double.NaN;
+			for(int i = first; i <= last; i++) {
+				if(Double.isNaN(values[i])) continue;
+				min = Double.isNaN(min) ? values[i] : Math.min(min, values[i]);
+				max = Double.isNaN(max) ? values[i] : Math.max(max, values[i]);
+			}
+
+			double selectedMin = Double.NaN, selectedMax = Double.NaN;
+			for(int n = 0; n < frames.length; n++) {
+				assertTrue("Frames " + first + "-" + last + " gave " + frames[n], frames[n] >= first && frames[n] <= last);
+				if(n > 0) assertTrue("Frames " + first + "-" + last + " out of order", frames[n] > frames[n-1]);
+				double value = values[frames[n]];
+				if(Double.isNaN(value)) continue;
+				selectedMin = Double.isNaN(selectedMin) ? value : Math.min(selectedMin, value);
+				selectedMax = Double.isNaN(selectedMax) ? value : Math.max(selectedMax, value);
+			}
+			assertEquals("Min of " + first + "-" + last, min, selectedMin, 0);
+			assertEquals("Max of " + first + "-" + last, max, selectedMax, 0);
+			assertTrue("Frames " + first + "-" + last + " gave " + frames.length + " points", frames.length <= 4*BUCKETS + 100);
+		}
+	}
+
+	@Test
+	public void shortRangesGiveEveryFrame() {
+		int[] frames = envelope.select(1000, 1000 + 2*BUCKETS - 1, BUCKETS);
+		assertEquals(2*BUCKETS, frames.length);
+		for(int n = 0; n < frames.length; n++) {
+			assertEquals(1000 + n, frames[n]);
+		}
+	}
+
+	// Lost frames must still break the line where the plot is decimated
+	@Test
+	public void lostFramesStayInTheTrace() {
+		double[] trace = new double[4096];
+		for(int i = 0; i < trace.length; i++) {
+			trace[i] = i >= 1024 && i < 2048 ? Double.NaN : i;
+		}
+		TraceEnvelope gaps = new TraceEnvelope();
+		gaps.append(trace, trace.length);
+
+		int nan = 0;
+		for(int frame: gaps.select(0, trace.length - 1, 64)) {
+			if(Double.isNaN(trace[frame])) nan++;
+		}
+		assertTrue(nan > 0);
+	}
+
+	@Test
+	public void unionKeepsEachFrameOnce() {
+		double[] merged = toDoubles(TraceEnvelope.union(new int[] {1, 4, 7, 9}, new int[] {2, 4, 9, 12}));
+		assertArrayEquals(new double[] {1, 2, 4, 7, 9, 12}, merged, 0);
+	}
+
+	private static double[] toDoubles(int[] frames) {
+		double[] values = new double[frames.length];
+		for(int i = 0; i < frames.length; i++) {
+			values[i] = frames[i];
+		}
+		return values;
+	}
+}
@@ -0,0 +1,175 @@
+package com.zachRoot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+// A stopped run must carry on from its checkpoint with the same results, and never from one made for other data
+public class TrackingCheckpointTest {
+
+	private static final int WIDTH = 64;
+	private static final int FRAMES = 100;
+
+	private static Zlut zlut;
+	private static ImageStack frames;
+
+	private File file;
+
+	@BeforeClass
+	public static void render() {
+		SyntheticBeads beads = new SyntheticBeads(WIDTH, 8, 3);
+		double[] heights = new double[21];
+		for(int h = 0; h < heights.length; h++) {
+			heights[h] = h*100;
+		}
+		zlut = new ZlutBuilder(WIDTH, 1).build(heights, beads.sweep(heights, 3));
+		frames = beads.recording(FRAMES, 300, 1700).stack;
+	}
+
+	@Before
+	public void createFile() throws IOException {
+		file = Files.createTempFile("tracking", ".checkpoint").toFile();
+		file.delete();
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	private static double[] values(int n, double offset) {
+		double[] values = new double[n];
+		for(int i = 0; i < n; i++) {
+			values[i] = i % 9 == 0 ? Double.NaN : offset + i*1.5;
+		}
+		return values;
+	}
+
+	@Test
+	public void appendedBlocksReadBack() throws IOException {
+		double[] x = values(FRAMES, 0);
+		double[] y = values(FRAMES, 10);
+		double[] z = values(FRAMES, 500);
+		try (TrackingCheckpoint checkpoint = TrackingCheckpoint.open(file, 42, FRAMES, new double[FRAMES], new double[FRAMES], new double[FRAMES])) {
+			checkpoint.append(1, 30, x, y, z);
+			checkpoint.append(31, 64, x, y, z);
+		}
+
+		double[] readX = new double[FRAMES];
+		double[] readY = new double[FRAMES];
+		double[] readZ = new double[FRAMES];
+		try (TrackingCheckpoint checkpoint = TrackingCheckpoint.open(file, 42, FRAMES, readX, readY, readZ)) {
+			assertEquals(64, checkpoint.getCompletedFrames());
+		}
+		assertArrayEquals(Arrays.copyOf(x, 64), Arrays.copyOf(readX, 64), 0);
+		assertArrayEquals(Arrays.copyOf(y, 64), Arrays.copyOf(readY, 64), 0);
+		assertArrayEquals(Arrays.copyOf(z, 64), Arrays.copyOf(readZ, 64), 0);
+	}
+
+	// Like a crash partway through writing the last block
+	@Test
+	public void damagedBlockIsLeftOut() throws IOException {
+		double[] x = values(FRAMES, 0);
+		try (TrackingCheckpoint checkpoint = TrackingCheckpoint.open(file, 42, FRAMES, new double[FRAMES], new double[FRAMES], new double[FRAMES])) {
+			checkpoint.append(1, 30, x, x, x);
+			checkpoint.append(31, 64, x, x, x);
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(raf.length() - 20);
+			raf.write(raf.read() ^ 0x01);
+		}
+
+		try (TrackingCheckpoint checkpoint = TrackingCheckpoint.open(file, 42, FRAMES, new double[FRAMES], new double[FRAMES], new double[FRAMES])) {
+			assertEquals(30, checkpoint.getCompletedFrames());
+		}
+	}
+
+	@Test
+	public void otherFingerprintStartsOver() throws IOException {
+		double[] x = values(FRAMES, 0);
+		try (TrackingCheckpoint checkpoint = TrackingCheckpoint.open(file, 42, FRAMES, new double[FRAMES], new double[FRAMES], new double[FRAMES])) {
+			checkpoint.append(1, 30, x, x, x);
+		}
+		try (TrackingCheckpoint checkpoint = TrackingCheckpoint.open(file, 43, FRAMES, new double[FRAMES], new double[FRAMES], new double[FRAMES])) {
+			assertEquals(0, checkpoint.getCompletedFrames());
+		}
+		assertEquals(TrackingCheckpoint.HEADER_BYTES, file.length());
+	}
+
+	// Writes the first frames of a whole run to the checkpoint, as if the run had stopped there
+	private void stopAfter(int completed, ImageStack stack, TrackingSession tracked) throws IOException {
+		TrackingSession stopped = new TrackingSession(new ImagePlus("synthetic", stack), zlut);
+		long fingerprint = TrackingCheckpoint.fingerprint(stack, zlut, stopped);
+		try (TrackingCheckpoint checkpoint = TrackingCheckpoint.open(file, fingerprint, stack.size(), new double[FRAMES], new double[FRAMES], new double[FRAMES])) {
+			checkpoint.append(1, completed, tracked.getXCords(), tracked.getYCords(), tracked.getZCords());
+		}
+	}
+
+	@Test
+	public void resumedRunMatchesWholeRun() throws IOException {
+		TrackingSession whole = new TrackingSession(new ImagePlus("synthetic", frames), zlut);
+		whole.processStack(frames, 2);
+		stopAfter(40, frames, whole);
+
+		TrackingSession resumed = new TrackingSession(new ImagePlus("synthetic", frames), zlut).setCheckpoint(file);
+		resumed.processStack(frames, 2);
+
+		assertEquals(40, resumed.getResumedFrames());
+		assertEquals(FRAMES - 40, resumed.getMetrics().getFrames());
+		assertArrayEquals(whole.getXCords(), resumed.getXCords(), 0);
+		assertArrayEquals(whole.getYCords(), resumed.getYCords(), 0);
+		assertArrayEquals(whole.getZCords(), resumed.getZCords(), 0);
+		assertTrue("A finished run's checkpoint is removed", !file.exists());
+	}
+
+	// Only the last frame differs, which a fingerprint of the first frame alone wouldn't see
+	@Test
+	public void changedRecordingStartsOver() throws IOException {
+		TrackingSession whole = new TrackingSession(new ImagePlus("synthetic", frames), zlut);
+		whole.processStack(frames, 2);
+		stopAfter(40, frames, whole);
+
+		ImageStack changed = new ImageStack(WIDTH, WIDTH);
+		for(int n = 1; n <= frames.size(); n++) {
+			ImageProcessor ip = frames.getProcessor(n).duplicate();
+			if(n == frames.size()) {
+				float value = ip.getf(WIDTH/2, WIDTH/2);
+				ip.setf(WIDTH/2, WIDTH/2, value < 255 ? value + 1 : value - 1);
+			}
+			changed.addSlice(ip);
+		}
+		TrackingSession resumed = new TrackingSession(new ImagePlus("synthetic", changed), zlut).setCheckpoint(file);
+		resumed.processStack(changed, 2);
+
+		assertEquals(0, resumed.getResumedFrames());
+		assertEquals(FRAMES, resumed.getMetrics().getFrames());
+	}
+
+	@Test
+	public void changedSettingsStartOver() throws IOException {
+		TrackingSession whole = new TrackingSession(new ImagePlus("synthetic", frames), zlut);
+		whole.processStack(frames, 2);
+		stopAfter(40, frames, whole);
+
+		TrackingSession resumed = new TrackingSession(new ImagePlus("synthetic", frames), zlut).setLocalizer(new CenterOfMassLocalizer())
+				.setCheckpoint(file);
+		resumed.processStack(frames, 2);
+
+		assertEquals(0, resumed.getResumedFrames());
+	}
+}
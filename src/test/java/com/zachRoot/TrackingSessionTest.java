@@ -0,0 +1,84 @@
+package com.zachRoot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+// Tracking on several threads must give exactly the results of tracking on one, with or without a search window
+public class TrackingSessionTest {
+
+	private static final int WIDTH = 64;
+
+	private static Zlut zlut;
+	private static ImageStack frames;
+
+	@BeforeClass
+	public static void render() {
+		SyntheticBeads beads = new SyntheticBeads(WIDTH, 8, 1);
+		double[] heights = new double[21];
+		for(int h = 0; h < heights.length; h++) {
+			heights[h] = h*100;
+		}
+		zlut = new ZlutBuilder(WIDTH, 1).build(heights, beads.sweep(heights, 3));
+		frames = beads.recording(200, 300, 1700).stack;
+	}
+
+	private static TrackingSession track(int nThreads) {
+		return track(nThreads, 0);
+	}
+
+	private static TrackingSession track(int nThreads, int searchWindow) {
+		TrackingSession session = new TrackingSession(new ImagePlus("synthetic", frames), zlut).setSearchWindow(searchWindow);
+		session.processStack(frames, nThreads);
+		return session;
+	}
+
+	@Test
+	public void parallelMatchesSerial() {
+		TrackingSession serial = track(1);
+		TrackingSession parallel = track(4);
+
+		assertArrayEquals(serial.getXCords(), parallel.getXCords(), 0);
+		assertArrayEquals(serial.getYCords(), parallel.getYCords(), 0);
+		assertArrayEquals(serial.getZCords(), parallel.getZCords(), 0);
+	}
+
+	// Predictions restart with every run of the pipeline, so whichever thread tracks a run gives the same positions
+	@Test
+	public void windowedParallelMatchesSerial() {
+		TrackingSession serial = track(1, 32);
+		TrackingSession parallel = track(4, 32);
+
+		assertTrue("The search window was never used", serial.getMetrics().getEvents(TrackingMetrics.Event.WINDOW_FOUND) > 0);
+		assertEquals(serial.getMetrics().getEvents(TrackingMetrics.Event.WINDOW_FOUND), parallel.getMetrics().getEvents(TrackingMetrics.Event.WINDOW_FOUND));
+		assertArrayEquals(serial.getXCords(), parallel.getXCords(), 0);
+		assertArrayEquals(serial.getYCords(), parallel.getYCords(), 0);
+		assertArrayEquals(serial.getZCords(), parallel.getZCords(), 0);
+	}
+
+	// The threads of a pipeline are kept from one run to the next, and every frame they timed is still counted
+	@Test
+	public void reusedPipelineCountsEveryRun() throws Exception {
+		TrackingSession session = new TrackingSession(new ImagePlus("synthetic", frames), zlut);
+		try (FramePipeline pipeline = new FramePipeline(4)) {
+			session.processStack(frames, pipeline, null);
+			session.processStack(frames, pipeline, null);
+		}
+		assertEquals(2*frames.size(), session.getMetrics().getCount(TrackingMetrics.Stage.DECODE));
+		assertEquals(2*frames.size(), session.getMetrics().getCount(TrackingMetrics.Stage.RADIAL_PROFILE));
+	}
+
+	@Test
+	public void everyFrameIsTracked() {
+		TrackingSession session = track(4);
+		for(int f = 0; f < session.size(); f++) {
+			assertTrue("Frame " + (f+1) + " has no position", !Double.isNaN(session.getXCords()[f]) && !Double.isNaN(session.getZCords()[f]));
+		}
+	}
+}
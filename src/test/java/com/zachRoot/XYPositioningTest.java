@@ -0,0 +1,136 @@
+package com.zachRoot;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+// The FFT cross correlation against ImageJ's Convolver, which it replaces for wide frames
+public class XYPositioningTest {
+
+	private static final int[] ODD_WIDTHS = {5, 63, 127, 255};
+	private static final int[] EVEN_WIDTHS = {6, 64, 128, 256};
+
+	// Convolver only takes odd kernels, so for odd widths the FFT must give its output
+	@Test
+	public void fftMatchesConvolverForOddWidths() {
+		Random random = new Random(1);
+		for(int width: ODD_WIDTHS) {
+			float[] signal = randomSignal(width, random);
+			float[] kernel = randomSignal(width, random);
+
+			FloatProcessor convolved = new FloatProcessor(width, 1, signal.clone());
+			convolved.convolve(kernel.clone(), width, 1);
+
+			assertClose("Width " + width, (float[])convolved.getPixels(), fft(signal, kernel));
+		}
+	}
+
+	// Even widths against Convolver's sum written out: edge pixels repeated, kernel centered on
+	// width/2 and normalized by its sum
+	@Test
+	public void fftMatchesConvolverSumForEvenWidths() {
+		Random random = new Random(2);
+		for(int width: EVEN_WIDTHS) {
+			float[] signal = randomSignal(width, random);
+			float[] kernel = randomSignal(width, random);
+
+			assertClose("Width " + width, convolverSum(signal, kernel), fft(signal, kernel));
+		}
+	}
+
+	// With the width trimmed to odd the FFT gives the positions direct convolution does
+	@Test
+	public void trimmedFftPositionsMatchDirectConvolution() {
+		for(int width: new int[] {63, 64, 128, 129}) {
+			SyntheticBeads beads = new SyntheticBeads(width, 8, width).setNoise(0.01);
+			Random random = new Random(width);
+			for(int i = 0; i < 20; i++) {
+				ImageProcessor ip = render(beads, width, random);
+				int[] xy = XYPositioning.getCenterOfMass(ip);
+
+				double[] direct = XYPositioning.xyRowColConvolve(ip, xy[0], xy[1], false, true);
+				double[] fft = XYPositioning.xyRowColConvolve(ip, xy[0], xy[1], true, true);
+				assertEquals("x at width " + width, direct[0], fft[0], 1e-3);
+				assertEquals("y at width " + width, direct[1], fft[1], 1e-3);
+			}
+		}
+	}
+
+	// Even widths kept whole find the bead as well as when they are trimmed
+	@Test
+	public void evenWidthFftFindsTheBead() {
+		for(int width: new int[] {64, 128, 256}) {
+			SyntheticBeads beads = new SyntheticBeads(width, 8, width).setNoise(0.01);
+			Random random = new Random(width);
+			for(int i = 0; i < 20; i++) {
+				double x = width/2.0 + (random.nextDouble() - 0.5)*4;
+				double y = width/2.0 + (random.nextDouble() - 0.5)*4;
+				ImageProcessor ip = beads.render(x, y, 500, random);
+				int[] xy = XYPositioning.getCenterOfMass(ip);
+
+				double[] trimmed = XYPositioning.xyRowColConvolve(ip, xy[0], xy[1], false, true);
+				double[] whole = XYPositioning.xyRowColConvolve(ip, xy[0], xy[1], true, false);
+				assertEquals("x at width " + width, Math.abs(trimmed[0] - x), Math.abs(whole[0] - x), 0.05);
+				assertEquals("y at width " + width, Math.abs(trimmed[1] - y), Math.abs(whole[1] - y), 0.05);
+			}
+		}
+	}
+
+	private static ImageProcessor render(SyntheticBeads beads, int width, Random random) {
+		double x = width/2.0 + (random.nextDouble() - 0.5)*4;
+		double y = width/2.0 + (random.nextDouble() - 0.5)*4;
+		return beads.render(x, y, 500, random);
+	}
+
+	private static float[] fft(float[] signal, float[] kernel) {
+		int width = signal.length;
+		float[] x = new float[width];
+		float[] y = new float[width];
+		FftCorrelator.forWidth(width).convolve(signal, kernel, signal, kernel, x, y);
+		assertClose("Packed axes", x, y);
+		return x;
+	}
+
+	private static float[] convolverSum(float[] signal, float[] kernel) {
+		int width = signal.length;
+		int center = width/2;
+		double kernelSum = 0;
+		for(float k: kernel) kernelSum += k;
+		double scale = kernelSum != 0 ? 1/kernelSum : 1;
+
+		float[] out = new float[width];
+		for(int i = 0; i < width; i++) {
+			double sum = 0;
+			for(int k = 0; k < width; k++) {
+				int index = Math.min(Math.max(i + k - center, 0), width - 1);
+				sum += kernel[k]*signal[index];
+			}
+			out[i] = (float)(sum*scale);
+		}
+		return out;
+	}
+
+	// Zero mean like the row and column signals the tracker correlates
+	private static float[] randomSignal(int width, Random random) {
+		float[] signal = new float[width];
+		for(int i = 0; i < width; i++) {
+			signal[i] = (float)random.nextGaussian();
+		}
+		return signal;
+	}
+
+	// Within a float rounding error of the largest value
+	private static void assertClose(String message, float[] expected, float[] actual) {
+		float scale = 0;
+		for(float value: expected) scale = Math.max(scale, Math.abs(value));
+		assertEquals(message + " length", expected.length, actual.length);
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(message + " at " + i, expected[i], actual[i], 1e-4*scale);
+		}
+	}
+}
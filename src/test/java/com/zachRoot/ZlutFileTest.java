@@ -0,0 +1,103 @@
+package com.zachRoot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Saved zluts must read back exactly, and a damaged file must be refused rather than tracked against
+public class ZlutFileTest {
+
+	private static final int WIDTH = 64;
+
+	private File file;
+	private Zlut zlut;
+
+	@Before
+	public void createZlut() throws IOException {
+		file = Files.createTempFile("zlut", ".bin").toFile();
+
+		int radius = ZPositioning.radiusFor(WIDTH);
+		double[] heights = {0, 50.5, 100, 150.25};
+		float[] data = new float[heights.length*radius];
+		for(int i = 0; i < data.length; i++) {
+			data[i] = (float)Math.sin(i*0.37)*100;
+		}
+		zlut = new Zlut(data, heights, radius, WIDTH, "qi");
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Test
+	public void writtenZlutReadsBack() throws IOException {
+		ZlutFile.write(zlut, file);
+		Zlut read = ZlutFile.read(file);
+
+		assertEquals(zlut.size(), read.size());
+		assertEquals(zlut.getRadius(), read.getRadius());
+		assertEquals(WIDTH, read.getImageWidth());
+		assertEquals("qi", read.getLocalizer());
+		assertArrayEquals(zlut.heights, read.heights, 0);
+		assertArrayEquals(zlut.data, read.data, 0);
+	}
+
+	@Test
+	public void headerMatchesTheZlut() throws IOException {
+		ZlutFile.write(zlut, file);
+		ZlutFile.Header header = ZlutFile.readHeader(file);
+
+		assertEquals(ZlutFile.VERSION, header.version);
+		assertEquals(zlut.size(), header.size);
+		assertEquals("qi", header.localizer);
+		assertTrue(header.isValidFor(WIDTH));
+		assertFalse(header.isValidFor(2*WIDTH));
+	}
+
+	@Test(expected = IOException.class)
+	public void flippedProfileBitFailsTheChecksum() throws IOException {
+		ZlutFile.write(zlut, file);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			long position = raf.length() - 3;
+			raf.seek(position);
+			int value = raf.read();
+			raf.seek(position);
+			raf.write(value ^ 0x10);
+		}
+		ZlutFile.read(file);
+	}
+
+	@Test(expected = IOException.class)
+	public void truncatedFileIsRefused() throws IOException {
+		ZlutFile.write(zlut, file);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 4);
+		}
+		ZlutFile.readHeader(file);
+	}
+
+	// The plugin rebuilds a zlut it can't use instead of failing
+	@Test
+	public void damagedOrOtherLocalizerZlutIsNotLoaded() throws IOException {
+		ZlutFile.write(zlut, file);
+		assertNull(ZPositioning.loadZlutFromFile(file, WIDTH, "xcor"));
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(ZlutFile.HEADER_SIZE);
+			raf.write(0xff);
+		}
+		assertNull(ZPositioning.loadZlutFromFile(file, WIDTH, "qi"));
+	}
+}